@@ -0,0 +1,92 @@
+package com.bazaarvoice.auth.hmac.benchmarks;
+
+import com.bazaarvoice.auth.hmac.common.Clock;
+import com.bazaarvoice.auth.hmac.common.Credentials;
+import com.bazaarvoice.auth.hmac.common.SignatureGenerator;
+import com.bazaarvoice.auth.hmac.common.TimeUtils;
+import com.bazaarvoice.auth.hmac.common.Version;
+import com.bazaarvoice.auth.hmac.server.AbstractCachingAuthenticator;
+import com.bazaarvoice.auth.hmac.server.PrincipalCacheConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Authenticating a request with a small body, with the principal cached or loaded for every request, and with
+ * a valid or an invalid signature.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthenticatorBenchmark {
+    private static final String API_KEY = "api-key";
+    private static final String SECRET_KEY = "secret-key";
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    @Param({"true", "false"})
+    public boolean valid;
+
+    private Authenticator authenticator;
+    private Credentials credentials;
+
+    @Setup
+    public void setUp() {
+        // No cache at all makes every request a miss
+        authenticator = new Authenticator(PrincipalCacheConfiguration.builder()
+                .withMaximumSize(cached ? 1000 : 0)
+                .withNegativeMaximumSize(0)
+                .build());
+
+        String method = "POST";
+        String timestamp = TimeUtils.getCurrentTimestamp();
+        String path = "/pizza?apiKey=" + API_KEY;
+        byte[] content = "{\"toppings\":[\"cheese\",\"olives\"]}".getBytes();
+        String signature = new SignatureGenerator().generate(valid ? SECRET_KEY : "other-key", method, timestamp, path, content);
+        credentials = Credentials.builder()
+                .withVersion(Version.V3)
+                .withApiKey(API_KEY)
+                .withTimestamp(timestamp)
+                .withMethod(method)
+                .withPath(path)
+                .withContent(content)
+                .withSignature(signature)
+                .build();
+    }
+
+    @Benchmark
+    public String authenticate() {
+        return authenticator.authenticate(credentials);
+    }
+
+    private static class Authenticator extends AbstractCachingAuthenticator<String> {
+        private Authenticator(PrincipalCacheConfiguration cacheConfiguration) {
+            // Allow a day of clock skew, so that the credentials stay valid however long the benchmark runs
+            super(1, TimeUnit.DAYS, Clock.systemClock(), null, cacheConfiguration);
+        }
+
+        @Override
+        protected String loadPrincipal(Credentials credentials) {
+            return API_KEY.equals(credentials.getApiKey()) ? "principal" : null;
+        }
+
+        @Override
+        protected String getSecretKeyFromPrincipal(String principal) {
+            return SECRET_KEY;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.bazaarvoice.auth.hmac.benchmarks;
+
+import com.bazaarvoice.auth.hmac.common.Credentials;
+import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
+import com.bazaarvoice.auth.hmac.common.TimeUtils;
+import com.bazaarvoice.auth.hmac.server.RequestDecoder;
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.WebApplication;
+import com.sun.jersey.spi.container.WebApplicationFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding the credentials of a Jersey 1.x request, without and with reading a body that is part of the
+ * signature. Each operation includes creating the request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestDecoderBenchmark {
+    private static final URI BASE_URI = URI.create("http://localhost:8080/");
+    private static final URI REQUEST_URI = URI.create("http://localhost:8080/pizza?apiKey=api-key");
+
+    @Param({"2", "3"})
+    public String version;
+
+    private final RequestDecoder requestDecoder = new RequestDecoder(new RequestConfiguration());
+    private final byte[] content = "{\"toppings\":[\"cheese\",\"olives\"]}".getBytes();
+    private final InBoundHeaders headers = new InBoundHeaders();
+    private final WebApplication webApplication = WebApplicationFactory.createWebApplication();
+
+    @Setup
+    public void setUp() {
+        headers.putSingle(RequestConfiguration.DEFAULT_SIGNATURE_HTTP_HEADER, "Q7Uq0AeDNfAE1sMUJWx7ctsSSRIL8n+Jy/Ly5lJdPqY=");
+        headers.putSingle(RequestConfiguration.DEFAULT_TIMESTAMP_HTTP_HEADER, TimeUtils.getCurrentTimestamp());
+        headers.putSingle(RequestConfiguration.DEFAULT_VERSION_HTTP_HEADER, version);
+        headers.putSingle("Content-Length", Integer.toString(content.length));
+    }
+
+    @Benchmark
+    public Credentials decode() throws IOException {
+        ContainerRequest request = new ContainerRequest(webApplication, "POST", BASE_URI, REQUEST_URI, headers,
+                new ByteArrayInputStream(content));
+        Credentials credentials = requestDecoder.decode(request);
+        // Read the content, as the authenticator does once the rest of the request checks out
+        credentials.getContentSource().read();
+        return credentials;
+    }
+}
@@ -0,0 +1,59 @@
+package com.bazaarvoice.auth.hmac.benchmarks;
+
+import com.bazaarvoice.auth.hmac.client.RequestEncoder;
+import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
+import com.bazaarvoice.auth.hmac.common.SignatureGenerator;
+import com.bazaarvoice.auth.hmac.common.Version;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.core.MediaType;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing a Jersey 1.x client request, without (version 2) and with (version 3) its body in the signature.
+ * Each operation includes creating the request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestEncoderBenchmark {
+    private static final URI REQUEST_URI = URI.create("http://localhost:8080/pizza?sort=toppings");
+
+    @Param({"V2", "V3"})
+    public Version version;
+
+    private final String content = "{\"toppings\":[\"cheese\",\"olives\"]}";
+    private RequestEncoder requestEncoder;
+
+    @Setup
+    public void setUp() {
+        RequestConfiguration requestConfiguration = RequestConfiguration.builder().withVersion(version).build();
+        requestEncoder = new RequestEncoder("api-key", "secret-key", Client.create().getMessageBodyWorkers(),
+                new SignatureGenerator(), requestConfiguration);
+    }
+
+    @Benchmark
+    public ClientRequest encode() {
+        ClientRequest request = ClientRequest.create()
+                .entity(content, MediaType.APPLICATION_JSON_TYPE)
+                .build(REQUEST_URI, "POST");
+        requestEncoder.encode(request);
+        return request;
+    }
+}
@@ -0,0 +1,47 @@
+package com.bazaarvoice.auth.hmac.benchmarks;
+
+import com.bazaarvoice.auth.hmac.common.SignatureGenerator;
+import com.bazaarvoice.auth.hmac.common.TimeUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing a request, across body sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignatureGeneratorBenchmark {
+    @Param({"0", "1024", "65536", "1048576"})
+    public int contentLength;
+
+    private final SignatureGenerator signatureGenerator = new SignatureGenerator();
+    private final String timestamp = TimeUtils.getCurrentTimestamp();
+    private byte[] content;
+
+    @Setup
+    public void setUp() {
+        content = new byte[contentLength];
+        new Random(0).nextBytes(content);
+    }
+
+    @Benchmark
+    public String generate() {
+        return signatureGenerator.generate("secret-key", "POST", timestamp, "/pizza?apiKey=api-key", content);
+    }
+}
@@ -0,0 +1,43 @@
+package com.bazaarvoice.auth.hmac.benchmarks;
+
+import com.bazaarvoice.auth.hmac.common.TimeUtils;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting and parsing request timestamps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeUtilsBenchmark {
+    private final String timestamp = TimeUtils.getCurrentTimestamp();
+
+    @Benchmark
+    public String getCurrentTimestamp() {
+        return TimeUtils.getCurrentTimestamp();
+    }
+
+    @Benchmark
+    public DateTime parse() {
+        return TimeUtils.parse(timestamp);
+    }
+
+    @Benchmark
+    public long parseMillis() {
+        return TimeUtils.parseMillis(timestamp);
+    }
+}
@@ -0,0 +1,31 @@
+package com.bazaarvoice.auth.hmac.benchmarks.load;
+
+import com.bazaarvoice.auth.hmac.server.Authenticator;
+import com.bazaarvoice.auth.hmac.server.DefaultRequestHandler;
+import com.bazaarvoice.auth.hmac.server.HmacAuthProvider;
+import com.sun.jersey.api.container.ContainerFactory;
+import com.sun.jersey.api.core.DefaultResourceConfig;
+import com.sun.jersey.api.core.ResourceConfig;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Measures what {@link HmacAuthProvider} costs per request in a Jersey 1.x application.
+ */
+public class Jersey1LoadTest extends LoadTest {
+    public static void main(String[] args) throws Exception {
+        new Jersey1LoadTest().run(args);
+    }
+
+    @Override
+    protected String getName() {
+        return "Jersey 1.x";
+    }
+
+    @Override
+    protected HttpHandler createHandler(Authenticator<String> authenticator) {
+        ResourceConfig config = new DefaultResourceConfig();
+        config.getSingletons().add(new HmacAuthProvider<String>(new DefaultRequestHandler<String>(authenticator)));
+        config.getSingletons().add(new LoadTestResource());
+        return ContainerFactory.createContainer(HttpHandler.class, config);
+    }
+}
@@ -0,0 +1,208 @@
+package com.bazaarvoice.auth.hmac.benchmarks.load;
+
+import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
+import com.bazaarvoice.auth.hmac.common.SignatureGenerator;
+import com.bazaarvoice.auth.hmac.common.TimeUtils;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends requests from several threads to one path of a server, signed or not, and measures how long each
+ * takes to be answered.
+ * <p>
+ * Requests are sent with {@link HttpURLConnection}, which keeps one connection open per thread, and signed
+ * with the version 3 protocol. The signature is computed before the request is timed, so that its cost on the
+ * client is reported apart from the cost of authentication on the server. When a rate is given, each request
+ * is timed from when it was due to be sent rather than from when it was sent, so that a server that falls
+ * behind is charged for the requests that queued up behind a slow one.
+ */
+public class LoadGenerator {
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    private final URI baseUri;
+    private final LoadTestOptions options;
+    private final byte[] content;
+    private final SignatureGenerator signatureGenerator = new SignatureGenerator();
+
+    public LoadGenerator(URI baseUri, LoadTestOptions options) {
+        this.baseUri = baseUri;
+        this.options = options;
+        if ("POST".equals(options.getMethod())) {
+            content = new byte[options.getBodySize()];
+            new Random(0).nextBytes(content);
+        } else {
+            content = null;
+        }
+    }
+
+    /**
+     * Send requests for the warmup period, and then measure them for the test's duration.
+     *
+     * @param path the path to send the requests to
+     * @param apiKey the API key to sign the requests with, or null to send them unsigned
+     * @param secretKey the secret key to sign the requests with
+     * @return the requests sent after the warmup period
+     */
+    public LoadTestResult run(String path, String apiKey, String secretKey) throws InterruptedException {
+        int threads = options.getThreads();
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(options.getWarmupSeconds());
+        long measureUntil = measureFrom + TimeUnit.SECONDS.toNanos(options.getDurationSeconds());
+        long interval = options.getRate() > 0 ? TimeUnit.SECONDS.toNanos(1) * threads / options.getRate() : 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("hmac-load-generator-%d")
+                .setDaemon(true)
+                .build());
+        try {
+            List<Future<Worker>> futures = new ArrayList<Future<Worker>>(threads);
+            for (int i = 0; i < threads; i++) {
+                // Spread the threads' requests evenly over each interval
+                long first = start + interval * i / threads;
+                futures.add(executor.submit(new Worker(path, apiKey, secretKey, first, interval, measureFrom, measureUntil)));
+            }
+
+            long[] latencies = new long[0];
+            long errors = 0;
+            long signingNanos = 0;
+            for (Future<Worker> future : futures) {
+                Worker worker = future.get();
+                int offset = latencies.length;
+                latencies = Arrays.copyOf(latencies, offset + worker.count);
+                System.arraycopy(worker.latencies, 0, latencies, offset, worker.count);
+                errors += worker.errors;
+                signingNanos += worker.signingNanos;
+            }
+            return new LoadTestResult(latencies, errors, measureUntil - measureFrom, signingNanos);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private class Worker implements Callable<Worker> {
+        private final String path;
+        private final String apiKey;
+        private final String secretKey;
+        private final long interval;
+        private final long measureFrom;
+        private final long measureUntil;
+        private long next;
+
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+        private long signingNanos;
+
+        private Worker(String path, String apiKey, String secretKey, long first, long interval, long measureFrom, long measureUntil) {
+            this.path = apiKey != null ? path + "?" + RequestConfiguration.DEFAULT_API_KEY_QUERY_PARAM + "=" + apiKey : path;
+            this.apiKey = apiKey;
+            this.secretKey = secretKey;
+            this.next = first;
+            this.interval = interval;
+            this.measureFrom = measureFrom;
+            this.measureUntil = measureUntil;
+        }
+
+        @Override
+        public Worker call() throws IOException {
+            URL url = baseUri.resolve(path).toURL();
+            while (true) {
+                long due = interval > 0 ? awaitNext() : System.nanoTime();
+                if (due >= measureUntil || Thread.currentThread().isInterrupted()) {
+                    return this;
+                }
+
+                long signingStart = System.nanoTime();
+                String timestamp = null;
+                String signature = null;
+                if (apiKey != null) {
+                    timestamp = TimeUtils.getCurrentTimestamp();
+                    signature = signatureGenerator.generate(secretKey, options.getMethod(), timestamp, path, content);
+                }
+                long sendStart = System.nanoTime();
+
+                boolean succeeded = send(url, timestamp, signature);
+                long end = System.nanoTime();
+                if (due >= measureFrom) {
+                    signingNanos += sendStart - signingStart;
+                    if (succeeded) {
+                        record(end - (interval > 0 ? due : sendStart));
+                    } else {
+                        errors++;
+                    }
+                }
+            }
+        }
+
+        private long awaitNext() {
+            long due = next;
+            next += interval;
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+                LockSupport.parkNanos(wait);
+            }
+            return due;
+        }
+
+        private boolean send(URL url, String timestamp, String signature) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                connection.setRequestMethod(options.getMethod());
+                connection.setConnectTimeout(TIMEOUT_MILLIS);
+                connection.setReadTimeout(TIMEOUT_MILLIS);
+                if (signature != null) {
+                    connection.setRequestProperty(RequestConfiguration.DEFAULT_SIGNATURE_HTTP_HEADER, signature);
+                    connection.setRequestProperty(RequestConfiguration.DEFAULT_TIMESTAMP_HTTP_HEADER, timestamp);
+                    connection.setRequestProperty(RequestConfiguration.DEFAULT_VERSION_HTTP_HEADER,
+                            RequestConfiguration.DEFAULT_VERSION.getValue());
+                }
+                if (content != null) {
+                    connection.setDoOutput(true);
+                    connection.setFixedLengthStreamingMode(content.length);
+                    connection.setRequestProperty("Content-Type", "application/octet-stream");
+                    OutputStream out = connection.getOutputStream();
+                    out.write(content);
+                    out.close();
+                }
+
+                int status = connection.getResponseCode();
+                InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+                if (in != null) {
+                    // Read the whole response, so that the connection is kept open for the next request
+                    ByteStreams.copy(in, ByteStreams.nullOutputStream());
+                    in.close();
+                }
+                return status / 100 == 2;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        private void record(long latency) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latency;
+        }
+    }
+}
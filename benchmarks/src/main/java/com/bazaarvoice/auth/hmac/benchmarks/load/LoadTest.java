@@ -0,0 +1,84 @@
+package com.bazaarvoice.auth.hmac.benchmarks.load;
+
+import com.bazaarvoice.auth.hmac.server.Authenticator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves {@link LoadTestResource} from the JDK's HTTP server on the loopback interface, drives it first without
+ * and then with authentication, and reports how much authentication added to each request.
+ * <p>
+ * Subclasses adapt a version of Jersey to the JDK's HTTP server, so that every version is measured in the
+ * same container.
+ */
+public abstract class LoadTest {
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    /**
+     * @return the name under which the results are reported
+     */
+    protected abstract String getName();
+
+    /**
+     * Create a Jersey application serving {@link LoadTestResource}, which authenticates requests with the
+     * given authenticator.
+     */
+    protected abstract HttpHandler createHandler(Authenticator<String> authenticator);
+
+    public void run(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+
+        // Otherwise the end of each chunked response waits for the client's delayed ACK, adding 40ms to every request
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("hmac-load-test-server-%d")
+                .setDaemon(true)
+                .build());
+        server.createContext("/", createHandler(new LoadTestAuthenticator()));
+        server.setExecutor(executor);
+        server.start();
+        try {
+            URI baseUri = URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort());
+            LoadGenerator generator = new LoadGenerator(baseUri, options);
+
+            System.out.println(getName() + ": " + options);
+            LoadTestResult baseline = generator.run(LoadTestResource.ANONYMOUS_PATH, null, null);
+            LoadTestResult authenticated = generator.run(LoadTestResource.AUTHENTICATED_PATH,
+                    LoadTestAuthenticator.API_KEY, LoadTestAuthenticator.SECRET_KEY);
+            report(System.out, baseline, authenticated);
+        } finally {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    private void report(PrintStream out, LoadTestResult baseline, LoadTestResult authenticated) {
+        out.printf("%-15s %10s %8s %10s %10s %10s %10s%n", "", "requests", "errors", "req/s", "p50 us", "p99 us", "p999 us");
+        printResult(out, "baseline", baseline);
+        printResult(out, "authenticated", authenticated);
+
+        out.printf("%-15s %10s %8s %+10.0f", "overhead", "", "", authenticated.getThroughput() - baseline.getThroughput());
+        for (double quantile : QUANTILES) {
+            out.printf(" %+10.1f", authenticated.getLatencyMicros(quantile) - baseline.getLatencyMicros(quantile));
+        }
+        out.println();
+        out.printf("Signing on the client took %.1f us per request, not included above%n", authenticated.getMeanSigningMicros());
+    }
+
+    private void printResult(PrintStream out, String name, LoadTestResult result) {
+        out.printf("%-15s %10d %8d %10.0f", name, result.getRequests(), result.getErrors(), result.getThroughput());
+        for (double quantile : QUANTILES) {
+            out.printf(" %10.1f", result.getLatencyMicros(quantile));
+        }
+        out.println();
+    }
+}
@@ -0,0 +1,28 @@
+package com.bazaarvoice.auth.hmac.benchmarks.load;
+
+import com.bazaarvoice.auth.hmac.common.Credentials;
+import com.bazaarvoice.auth.hmac.server.AbstractCachingAuthenticator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Authenticates the load generator's one API key, whose principal stays cached for the whole test.
+ */
+public class LoadTestAuthenticator extends AbstractCachingAuthenticator<String> {
+    public static final String API_KEY = "load-test-api-key";
+    public static final String SECRET_KEY = "load-test-secret-key";
+
+    public LoadTestAuthenticator() {
+        super(15, 15, TimeUnit.MINUTES, 1000);
+    }
+
+    @Override
+    protected String loadPrincipal(Credentials credentials) {
+        return API_KEY.equals(credentials.getApiKey()) ? "load-test" : null;
+    }
+
+    @Override
+    protected String getSecretKeyFromPrincipal(String principal) {
+        return SECRET_KEY;
+    }
+}
@@ -0,0 +1,89 @@
+package com.bazaarvoice.auth.hmac.benchmarks.load;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Settings of a load test, parsed from command line arguments such as {@code --threads 16 --rate 5000}.
+ */
+public class LoadTestOptions {
+    private int threads = 8;
+    private int rate = 0;
+    private int warmupSeconds = 10;
+    private int durationSeconds = 30;
+    private String method = "POST";
+    private int bodySize = 1024;
+
+    public static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (int i = 0; i < args.length; i += 2) {
+            checkArgument(i + 1 < args.length, "Missing value for %s", args[i]);
+            String name = args[i];
+            String value = args[i + 1];
+            if ("--threads".equals(name)) {
+                options.threads = Integer.parseInt(value);
+            } else if ("--rate".equals(name)) {
+                options.rate = Integer.parseInt(value);
+            } else if ("--warmup".equals(name)) {
+                options.warmupSeconds = Integer.parseInt(value);
+            } else if ("--duration".equals(name)) {
+                options.durationSeconds = Integer.parseInt(value);
+            } else if ("--method".equals(name)) {
+                options.method = value.toUpperCase();
+            } else if ("--body-size".equals(name)) {
+                options.bodySize = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + name);
+            }
+        }
+
+        checkArgument(options.threads > 0, "Threads must be positive");
+        checkArgument(options.rate >= 0, "Rate must not be negative");
+        checkArgument(options.warmupSeconds >= 0, "Warmup must not be negative");
+        checkArgument(options.durationSeconds > 0, "Duration must be positive");
+        checkArgument("GET".equals(options.method) || "POST".equals(options.method), "Method must be GET or POST");
+        checkArgument(options.bodySize >= 0, "Body size must not be negative");
+        return options;
+    }
+
+    /**
+     * @return the number of client threads, each with its own connection
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return the requests per second to send across all threads, or 0 to send each request as soon as the
+     * previous one on the same thread has completed
+     */
+    public int getRate() {
+        return rate;
+    }
+
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the size of the body of each POST request
+     */
+    public int getBodySize() {
+        return bodySize;
+    }
+
+    @Override
+    public String toString() {
+        String body = "POST".equals(method) ? " with " + bodySize + " byte bodies" : "";
+        String pace = rate > 0 ? rate + " requests/s" : "unthrottled";
+        return method + body + ", " + threads + " threads, " + pace + ", " + durationSeconds + "s after "
+                + warmupSeconds + "s warmup";
+    }
+}
@@ -0,0 +1,45 @@
+package com.bazaarvoice.auth.hmac.benchmarks.load;
+
+import com.bazaarvoice.auth.hmac.server.HmacAuth;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+import static javax.ws.rs.core.MediaType.TEXT_PLAIN;
+
+/**
+ * The same trivial resource with and without authentication, so that the difference between the two is what
+ * authentication costs. Only JAX-RS annotations are used, so it serves both Jersey 1.x and Jersey 2.x.
+ */
+@Path("/")
+@Produces(TEXT_PLAIN)
+public class LoadTestResource {
+    public static final String ANONYMOUS_PATH = "/anonymous";
+    public static final String AUTHENTICATED_PATH = "/authenticated";
+
+    @GET
+    @Path(ANONYMOUS_PATH)
+    public String get() {
+        return "ok";
+    }
+
+    @POST
+    @Path(ANONYMOUS_PATH)
+    public String post(byte[] content) {
+        return Integer.toString(content.length);
+    }
+
+    @GET
+    @Path(AUTHENTICATED_PATH)
+    public String getAuthenticated(@HmacAuth String principal) {
+        return "ok";
+    }
+
+    @POST
+    @Path(AUTHENTICATED_PATH)
+    public String postAuthenticated(@HmacAuth String principal, byte[] content) {
+        return Integer.toString(content.length);
+    }
+}
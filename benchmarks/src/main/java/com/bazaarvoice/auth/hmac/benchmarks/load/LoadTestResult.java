@@ -0,0 +1,63 @@
+package com.bazaarvoice.auth.hmac.benchmarks.load;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The requests completed while a load test was measuring, with the latency of every one of them.
+ */
+public class LoadTestResult {
+    private final long[] latencies;
+    private final long errors;
+    private final long elapsedNanos;
+    private final long signingNanos;
+
+    /**
+     * @param latencies the latency of each successful request in nanoseconds, in any order
+     * @param errors the number of requests that failed or were not answered with a 2xx status
+     * @param elapsedNanos how long the requests were measured for
+     * @param signingNanos the total time spent signing the requests on the client
+     */
+    public LoadTestResult(long[] latencies, long errors, long elapsedNanos, long signingNanos) {
+        this.latencies = latencies.clone();
+        Arrays.sort(this.latencies);
+        this.errors = errors;
+        this.elapsedNanos = elapsedNanos;
+        this.signingNanos = signingNanos;
+    }
+
+    public long getRequests() {
+        return latencies.length;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return the successful requests per second
+     */
+    public double getThroughput() {
+        return latencies.length * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * @param quantile the quantile, e.g. 0.99 for the 99th percentile
+     * @return the latency below which the given share of the successful requests completed, in microseconds
+     */
+    public double getLatencyMicros(double quantile) {
+        if (latencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(latencies.length - 1, Math.ceil(quantile * latencies.length) - 1);
+        return latencies[Math.max(0, index)] / 1000.0;
+    }
+
+    /**
+     * @return the mean time it took the client to sign a request, in microseconds
+     */
+    public double getMeanSigningMicros() {
+        long signed = latencies.length + errors;
+        return signed > 0 ? signingNanos / 1000.0 / signed : 0;
+    }
+}
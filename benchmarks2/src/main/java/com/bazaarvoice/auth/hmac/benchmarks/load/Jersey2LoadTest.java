@@ -0,0 +1,45 @@
+package com.bazaarvoice.auth.hmac.benchmarks.load;
+
+import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
+import com.bazaarvoice.auth.hmac.server.Authenticator;
+import com.bazaarvoice.auth.hmac.server.HmacAuthFeature;
+import com.sun.net.httpserver.HttpHandler;
+import org.glassfish.hk2.api.TypeLiteral;
+import org.glassfish.hk2.utilities.Binder;
+import org.glassfish.hk2.utilities.binding.AbstractBinder;
+import org.glassfish.jersey.server.ContainerFactory;
+import org.glassfish.jersey.server.ResourceConfig;
+
+/**
+ * Measures what {@link HmacAuthFeature} costs per request in a Jersey 2.x application.
+ */
+public class Jersey2LoadTest extends LoadTest {
+    public static void main(String[] args) throws Exception {
+        new Jersey2LoadTest().run(args);
+    }
+
+    @Override
+    protected String getName() {
+        return "Jersey 2.x";
+    }
+
+    @Override
+    protected HttpHandler createHandler(Authenticator<String> authenticator) {
+        ResourceConfig config = new ResourceConfig();
+        config.register(new HmacAuthFeature<String>());
+        config.register(createBinder(authenticator));
+        config.register(LoadTestResource.class);
+        return ContainerFactory.createContainer(HttpHandler.class, config);
+    }
+
+    private static <P> Binder createBinder(final Authenticator<P> authenticator) {
+        return new AbstractBinder() {
+            @Override
+            protected void configure() {
+                // As in the sample application, the P parameter is what lets HK2 inject the Authenticator
+                bind(authenticator).to(new TypeLiteral<Authenticator<P>>() {});
+                bind(new RequestConfiguration()).to(RequestConfiguration.class);
+            }
+        };
+    }
+}
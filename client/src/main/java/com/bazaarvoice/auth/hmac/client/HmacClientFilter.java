@@ -1,5 +1,6 @@
 package com.bazaarvoice.auth.hmac.client;
 
+import com.bazaarvoice.auth.hmac.common.Clock;
 import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
 import com.bazaarvoice.auth.hmac.common.SignatureGenerator;
 import com.sun.jersey.api.client.ClientHandlerException;
@@ -83,12 +84,28 @@ public class HmacClientFilter extends ClientFilter {
      * @param requestConfiguration your settings for this endpoint.
      */
     public HmacClientFilter(String apiKey, String secretKey, MessageBodyWorkers messageBodyWorkers, URI endpointToSecure, RequestConfiguration requestConfiguration) {
+        this(apiKey, secretKey, messageBodyWorkers, endpointToSecure, requestConfiguration, Clock.systemClock());
+    }
+
+    /**
+     * Create a filter that will encode every request made to the specified endpoint, timestamping requests
+     * with the given clock.
+     *
+     * @param apiKey the API key
+     * @param secretKey the secret key
+     * @param messageBodyWorkers the {@link MessageBodyWorkers} utilized by the client
+     * @param endpointToSecure the endpoint {@link URI} to secure with this filter, or null for all requests
+     * @param requestConfiguration your settings for this endpoint.
+     * @param clock the source of request timestamps, e.g. a {@link com.bazaarvoice.auth.hmac.common.CoarseClock}
+     */
+    public HmacClientFilter(String apiKey, String secretKey, MessageBodyWorkers messageBodyWorkers, URI endpointToSecure, RequestConfiguration requestConfiguration, Clock clock) {
         checkNotNull(apiKey, "apiKey");
         checkNotNull(secretKey, "secretKey");
         checkNotNull(messageBodyWorkers, "messageBodyWorkers");
+        checkNotNull(clock, "clock");
 
         this.endpointToSecure = endpointToSecure;
-        this.requestEncoder = new RequestEncoder(apiKey, secretKey, messageBodyWorkers, new SignatureGenerator(), requestConfiguration);
+        this.requestEncoder = new RequestEncoder(apiKey, secretKey, messageBodyWorkers, new SignatureGenerator(), requestConfiguration, clock);
     }
 
     @Override
@@ -1,10 +1,12 @@
 package com.bazaarvoice.auth.hmac.client;
 
+import com.bazaarvoice.auth.hmac.common.Clock;
 import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
+import com.bazaarvoice.auth.hmac.common.SignatureBuilder;
 import com.bazaarvoice.auth.hmac.common.SignatureGenerator;
-import com.bazaarvoice.auth.hmac.common.TimeUtils;
 import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientRequestAdapter;
 import com.sun.jersey.api.client.RequestWriter;
 import com.sun.jersey.spi.MessageBodyWorkers;
 
@@ -20,10 +22,24 @@ import java.net.URI;
  */
 public class RequestEncoder extends RequestWriter {
 
-    private final String apiKey;
+    private static final ClientRequestAdapter UNADAPTED = new ClientRequestAdapter() {
+        @Override
+        public OutputStream adapt(ClientRequest request, OutputStream out) {
+            return out;
+        }
+    };
+
     private final String secretKey;
     private final SignatureGenerator signatureGenerator;
     private final RequestConfiguration requestConfiguration;
+    private final Clock clock;
+
+    // Everything about the request that is the same for every request is worked out once
+    private final String apiKeyQuery;
+    private final String signatureHttpHeader;
+    private final String timestampHttpHeader;
+    private final String versionHttpHeader;
+    private final String versionValue;
 
     public RequestEncoder(String apiKey,
                           String secretKey,
@@ -31,73 +47,143 @@ public class RequestEncoder extends RequestWriter {
                           SignatureGenerator signatureGenerator,
                           RequestConfiguration requestConfiguration) {
 
+        this(apiKey, secretKey, messageBodyWorkers, signatureGenerator, requestConfiguration, Clock.systemClock());
+    }
+
+    public RequestEncoder(String apiKey,
+                          String secretKey,
+                          MessageBodyWorkers messageBodyWorkers,
+                          SignatureGenerator signatureGenerator,
+                          RequestConfiguration requestConfiguration,
+                          Clock clock) {
+
         super(messageBodyWorkers);
-        this.apiKey = apiKey;
         this.secretKey = secretKey;
         this.signatureGenerator = signatureGenerator;
         this.requestConfiguration = requestConfiguration;
+        this.clock = clock;
+
+        // Encode the API key the way UriBuilder.queryParam does, once
+        this.apiKeyQuery = UriBuilder.fromUri("")
+                .queryParam(requestConfiguration.getApiKeyQueryParamName(), apiKey)
+                .build()
+                .getRawQuery();
+        this.signatureHttpHeader = requestConfiguration.getSignatureHttpHeader();
+        this.timestampHttpHeader = requestConfiguration.getTimestampHttpHeader();
+        this.versionHttpHeader = requestConfiguration.getVersionHttpHeader();
+        this.versionValue = requestConfiguration.getVersion().getValue();
     }
 
     public void encode(ClientRequest request) {
-        String timestamp = TimeUtils.getCurrentTimestamp();
-        addApiKey(request);
+        String timestamp = clock.timestamp();
+        // One builder assembles both the URI and the signed path
+        StringBuilder builder = new StringBuilder(256);
+        addApiKey(request, builder);
         addTimestamp(request, timestamp);
-        addSignature(request, timestamp);
+        addSignature(request, timestamp, builder);
         addVersion(request);
     }
 
-    private void addApiKey(ClientRequest request) {
-        URI uriWithApiKey = UriBuilder.fromUri(request.getURI())
-                .queryParam(this.requestConfiguration.getApiKeyQueryParamName(), apiKey)
-                .build();
+    private void addApiKey(ClientRequest request, StringBuilder builder) {
+        // Append the API key to the query, keeping any fragment at the end
+        URI uri = request.getURI();
+        String uriString = uri.toString();
+        String fragment = uri.getRawFragment();
+        int end = fragment != null ? uriString.length() - fragment.length() - 1 : uriString.length();
+        String query = uri.getRawQuery();
+        int pathEnd = query != null ? end - query.length() - 1 : end;
+
+        builder.setLength(0);
+        builder.append(uriString, 0, pathEnd);
+        if (uri.getRawAuthority() != null && uri.getRawPath().isEmpty()) {
+            // As UriBuilder does, give a URI without a path the root path
+            builder.append('/');
+        }
+        builder.append(uriString, pathEnd, end);
+        if (query == null) {
+            builder.append('?');
+        } else if (!query.isEmpty()) {
+            builder.append('&');
+        }
+        builder.append(apiKeyQuery);
+        builder.append(uriString, end, uriString.length());
 
-        request.setURI(uriWithApiKey);
+        request.setURI(URI.create(builder.toString()));
     }
 
-    private void addSignature(ClientRequest request, String timestamp) {
-        String signature = buildSignature(request, timestamp);
-        request.getHeaders().putSingle(this.requestConfiguration.getSignatureHttpHeader(), signature);
+    private void addSignature(ClientRequest request, String timestamp, StringBuilder builder) {
+        String signature = buildSignature(request, timestamp, builder);
+        request.getHeaders().putSingle(signatureHttpHeader, signature);
     }
 
     private void addTimestamp(ClientRequest request, String timestamp) {
-        request.getHeaders().putSingle(this.requestConfiguration.getTimestampHttpHeader(), timestamp);
+        request.getHeaders().putSingle(timestampHttpHeader, timestamp);
     }
 
     private void addVersion(ClientRequest request) {
-        request.getHeaders().putSingle(this.requestConfiguration.getVersionHttpHeader(), this.requestConfiguration.getVersion().getValue());
+        request.getHeaders().putSingle(versionHttpHeader, versionValue);
     }
 
-    private String buildSignature(ClientRequest request, String timestamp) {
+    private String buildSignature(ClientRequest request, String timestamp, StringBuilder builder) {
         String method = getMethod(request);
-        String path = getPath(request);
-        byte[] content = this.requestConfiguration.isDataInSignature() ? getContent(request) : null;
+        String path = getPath(request, builder);
+        SignatureBuilder signature = signatureGenerator.builder(secretKey, method, timestamp, path);
+
+        if (this.requestConfiguration.isDataInSignature()) {
+            addContent(request, signature);
+        }
 
-        return signatureGenerator.generate(secretKey, method, timestamp, path, content);
+        return signature.sign();
     }
 
     private String getMethod(ClientRequest request) {
         return request.getMethod();
     }
 
-    private String getPath(ClientRequest request) {
+    private String getPath(ClientRequest request, StringBuilder builder) {
         // Get the path and any query parameters (e.g. /api/v1/pizza?sort=toppings&apiKey=someKey)
-        return String.format("%s?%s", request.getURI().getPath(), request.getURI().getQuery());
-    }
-
-    private byte[] getContent(ClientRequest request) {
-        return getSerializedEntity(request);
+        URI uri = request.getURI();
+        builder.setLength(0);
+        return builder.append(uri.getPath()).append('?').append(uri.getQuery()).toString();
     }
 
     /**
-     * Get the serialized representation of the request entity. This is used when generating the client
-     * signature, because this is the representation that the server will receive and use when it generates
-     * the server-side signature to compare to the client-side signature.
+     * Add the serialized representation of the request entity to the signature. This is used when generating the
+     * client signature, because this is the representation that the server will receive and use when it generates
+     * the server-side signature to compare to the client-side signature. The entity is hashed as it is
+     * serialized, rather than being collected in memory first, unless it is to be buffered and sent as serialized.
      *
      * @see com.sun.jersey.client.urlconnection.URLConnectionClientHandler
      */
-    private byte[] getSerializedEntity(ClientRequest request) {
-        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    private void addContent(ClientRequest request, SignatureBuilder signature) {
+        if (this.requestConfiguration.isBufferedEntitySigning()) {
+            addBufferedContent(request, signature);
+        } else {
+            writeEntity(request, signature.asOutputStream());
+        }
+    }
 
+    /**
+     * Serialize the request entity into a buffer, add the buffer to the signature, and make it the entity that
+     * is sent, so that the entity is only serialized once. The request's adapters, e.g. for content encoding,
+     * have been applied to the buffer, so they are not applied again when it is sent.
+     */
+    private void addBufferedContent(ClientRequest request, SignatureBuilder signature) {
+        if (request.getEntity() == null) {
+            return;
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        writeEntity(request, buffer);
+        byte[] content = buffer.toByteArray();
+        signature.update(content);
+
+        // The content type is kept in the request headers, and the length is taken from the byte array
+        request.setEntity(content);
+        request.setAdapter(UNADAPTED);
+    }
+
+    private void writeEntity(ClientRequest request, final OutputStream outputStream) {
         try {
             // By using the RequestWriter parent class, we match the behavior of entity writing from
             // for example, com.sun.jersey.client.urlconnection.URLConnectionClientHandler.
@@ -113,8 +199,6 @@ public class RequestEncoder extends RequestWriter {
         } catch (IOException e) {
             throw new ClientHandlerException("Unable to serialize request entity", e);
         }
-
-        return outputStream.toByteArray();
     }
 
 }
@@ -166,6 +166,37 @@ public class HmacClientFilterTest {
         }
     }
 
+    @Test
+    public void validateSignatureWhenContentIsBuffered() throws Exception {
+        Connection connection = null;
+        try {
+            // Start the server
+            RequestConfiguration requestConfiguration =
+                    RequestConfiguration.builder()
+                            .withBufferedEntitySigning(true)
+                            .build();
+            ValidatingHttpServer server = new SignatureValidatingHttpServer(port, secretKey, requestConfiguration);
+            connection = server.connect();
+
+            // Create a client with the filter that is under test, and compress the content it buffers
+            Client client = createClient();
+            client.addFilter(new HmacClientFilter(apiKey, secretKey, client.getMessageBodyWorkers(), requestConfiguration));
+            client.addFilter(new GZIPContentEncodingFilter(true));
+
+            // Send a pizza in the request body, which is serialized and compressed only once
+            Pizza pizza = new Pizza();
+            pizza.setTopping("olive");
+            client.resource(server.getUri())
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .put(pizza);
+
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
     @Test
     public void validateSignatureWhenContentIsBinary() throws Exception {
         Connection connection = null;
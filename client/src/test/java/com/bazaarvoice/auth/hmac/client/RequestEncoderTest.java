@@ -0,0 +1,95 @@
+package com.bazaarvoice.auth.hmac.client;
+
+import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
+import com.bazaarvoice.auth.hmac.common.SignatureBuilder;
+import com.bazaarvoice.auth.hmac.common.SignatureGenerator;
+import com.sun.jersey.api.client.ClientRequest;
+import org.junit.Test;
+
+import javax.ws.rs.core.UriBuilder;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the request URI is built as it was with {@link UriBuilder}, except that a URI without a path is
+ * given the root path, which is what is sent and so what the server verifies the signature against.
+ */
+public class RequestEncoderTest {
+    private static final String API_KEY = "some api/key";
+    private static final String SECRET_KEY = "someSecretKey";
+
+    @Test
+    public void addsApiKeyToUriWithoutPath() {
+        assertEncodedLikeUriBuilder("http://localhost:8080", "http://localhost:8080/");
+    }
+
+    @Test
+    public void addsApiKeyToUriWithRootPath() {
+        assertEncodedLikeUriBuilder("http://localhost:8080/");
+    }
+
+    @Test
+    public void addsApiKeyToUriWithQuery() {
+        assertEncodedLikeUriBuilder("http://localhost/pizza?sort=toppings&size=large");
+    }
+
+    @Test
+    public void addsApiKeyToUriWithEmptyQuery() {
+        assertEncodedLikeUriBuilder("http://localhost/pizza?");
+    }
+
+    @Test
+    public void addsApiKeyBeforeFragment() {
+        assertEncodedLikeUriBuilder("http://localhost/pizza#toppings");
+        assertEncodedLikeUriBuilder("http://localhost/pizza?sort=toppings#toppings");
+        assertEncodedLikeUriBuilder("http://localhost#toppings", "http://localhost/#toppings");
+    }
+
+    @Test
+    public void signsRootPathOfUriWithoutPath() {
+        ClientRequest request = encode("http://localhost:8080", new SignatureGenerator());
+        URI sent = request.getURI();
+        assertEquals("/", sent.getPath());
+        assertEquals(expectedSignature(request, sent.getPath() + "?" + sent.getQuery()),
+                request.getHeaders().getFirst(RequestConfiguration.DEFAULT_SIGNATURE_HTTP_HEADER));
+    }
+
+    @Test
+    public void signsWithGivenSignatureGenerator() {
+        final AtomicInteger signatures = new AtomicInteger();
+        SignatureGenerator generator = new SignatureGenerator() {
+            @Override
+            public SignatureBuilder builder(String secretKey, String method, String timestamp, String path) {
+                signatures.incrementAndGet();
+                return super.builder(secretKey, method, timestamp, path);
+            }
+        };
+
+        encode("http://localhost/pizza", generator);
+        assertEquals(1, signatures.get());
+    }
+
+    private void assertEncodedLikeUriBuilder(String uri) {
+        assertEncodedLikeUriBuilder(uri, uri);
+    }
+
+    private void assertEncodedLikeUriBuilder(String uri, String uriWithPath) {
+        URI expected = UriBuilder.fromUri(uriWithPath)
+                .queryParam(RequestConfiguration.DEFAULT_API_KEY_QUERY_PARAM, API_KEY)
+                .build();
+        assertEquals(expected.toString(), encode(uri, new SignatureGenerator()).getURI().toString());
+    }
+
+    private ClientRequest encode(String uri, SignatureGenerator generator) {
+        ClientRequest request = ClientRequest.create().build(URI.create(uri), "GET");
+        new RequestEncoder(API_KEY, SECRET_KEY, null, generator, new RequestConfiguration()).encode(request);
+        return request;
+    }
+
+    private String expectedSignature(ClientRequest request, String path) {
+        String timestamp = (String) request.getHeaders().getFirst(RequestConfiguration.DEFAULT_TIMESTAMP_HTTP_HEADER);
+        return new SignatureGenerator().generate(SECRET_KEY, "GET", timestamp, path, null);
+    }
+}
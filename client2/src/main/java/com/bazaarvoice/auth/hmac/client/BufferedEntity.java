@@ -0,0 +1,17 @@
+package com.bazaarvoice.auth.hmac.client;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A request entity that has already been serialized, which is sent as the bytes it holds without copying them.
+ */
+class BufferedEntity extends ByteArrayOutputStream implements StreamingOutput {
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        writeTo(output);
+    }
+}
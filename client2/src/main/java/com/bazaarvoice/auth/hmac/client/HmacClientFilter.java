@@ -1,5 +1,6 @@
 package com.bazaarvoice.auth.hmac.client;
 
+import com.bazaarvoice.auth.hmac.common.Clock;
 import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
 import com.bazaarvoice.auth.hmac.common.SignatureGenerator;
 import org.glassfish.jersey.client.ClientRequest;
@@ -78,11 +79,26 @@ public class HmacClientFilter implements ClientRequestFilter {
      * @param requestConfiguration your settings for this endpoint.
      */
     public HmacClientFilter(String apiKey, String secretKey, URI endpointToSecure, RequestConfiguration requestConfiguration) {
+        this(apiKey, secretKey, endpointToSecure, requestConfiguration, Clock.systemClock());
+    }
+
+    /**
+     * Create a filter that will encode every request made to the specified endpoint, timestamping requests
+     * with the given clock.
+     *
+     * @param apiKey the API key
+     * @param secretKey the secret key
+     * @param endpointToSecure the endpoint {@link URI} to secure with this filter, or null for all requests
+     * @param requestConfiguration your settings for this endpoint.
+     * @param clock the source of request timestamps, e.g. a {@link com.bazaarvoice.auth.hmac.common.CoarseClock}
+     */
+    public HmacClientFilter(String apiKey, String secretKey, URI endpointToSecure, RequestConfiguration requestConfiguration, Clock clock) {
         checkNotNull(apiKey, "apiKey");
         checkNotNull(secretKey, "secretKey");
+        checkNotNull(clock, "clock");
 
         this.endpointToSecure = endpointToSecure;
-        this.requestEncoder = new RequestEncoder(apiKey, secretKey, new SignatureGenerator(), requestConfiguration);
+        this.requestEncoder = new RequestEncoder(apiKey, secretKey, new SignatureGenerator(), requestConfiguration, clock);
     }
 
     @Override
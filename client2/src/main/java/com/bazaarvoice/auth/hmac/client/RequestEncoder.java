@@ -1,14 +1,16 @@
 package com.bazaarvoice.auth.hmac.client;
 
+import com.bazaarvoice.auth.hmac.common.Clock;
 import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
+import com.bazaarvoice.auth.hmac.common.SignatureBuilder;
 import com.bazaarvoice.auth.hmac.common.SignatureGenerator;
-import com.bazaarvoice.auth.hmac.common.TimeUtils;
+import org.glassfish.jersey.client.ClientProperties;
 import org.glassfish.jersey.client.ClientRequest;
 import org.glassfish.jersey.message.internal.OutboundMessageContext;
 
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.UriBuilder;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
@@ -19,76 +21,160 @@ import java.net.URI;
  */
 public class RequestEncoder {
 
-    private final String apiKey;
     private final String secretKey;
     private final SignatureGenerator signatureGenerator;
     private final RequestConfiguration requestConfiguration;
+    private final Clock clock;
+
+    // Everything about the request that is the same for every request is worked out once
+    private final String apiKeyQuery;
+    private final String signatureHttpHeader;
+    private final String timestampHttpHeader;
+    private final String versionHttpHeader;
+    private final String versionValue;
 
     public RequestEncoder(String apiKey,
                           String secretKey,
                           SignatureGenerator signatureGenerator,
                           RequestConfiguration requestConfiguration) {
 
-        this.apiKey = apiKey;
+        this(apiKey, secretKey, signatureGenerator, requestConfiguration, Clock.systemClock());
+    }
+
+    public RequestEncoder(String apiKey,
+                          String secretKey,
+                          SignatureGenerator signatureGenerator,
+                          RequestConfiguration requestConfiguration,
+                          Clock clock) {
+
         this.secretKey = secretKey;
         this.signatureGenerator = signatureGenerator;
         this.requestConfiguration = requestConfiguration;
+        this.clock = clock;
+
+        // Encode the API key the way UriBuilder.queryParam does, once
+        this.apiKeyQuery = UriBuilder.fromUri("")
+                .queryParam(requestConfiguration.getApiKeyQueryParamName(), apiKey)
+                .build()
+                .getRawQuery();
+        this.signatureHttpHeader = requestConfiguration.getSignatureHttpHeader();
+        this.timestampHttpHeader = requestConfiguration.getTimestampHttpHeader();
+        this.versionHttpHeader = requestConfiguration.getVersionHttpHeader();
+        this.versionValue = requestConfiguration.getVersion().getValue();
     }
 
     public void encode(ClientRequest request) {
-        String timestamp = TimeUtils.getCurrentTimestamp();
-        addApiKey(request);
+        String timestamp = clock.timestamp();
+        // One builder assembles both the URI and the signed path
+        StringBuilder builder = new StringBuilder(256);
+        addApiKey(request, builder);
         addTimestamp(request, timestamp);
-        addSignature(request, timestamp);
+        addSignature(request, timestamp, builder);
         addVersion(request);
     }
 
-    private void addApiKey(ClientRequest request) {
-        URI uriWithApiKey = UriBuilder.fromUri(request.getUri())
-                .queryParam(this.requestConfiguration.getApiKeyQueryParamName(), apiKey)
-                .build();
+    private void addApiKey(ClientRequest request, StringBuilder builder) {
+        // Append the API key to the query, keeping any fragment at the end
+        URI uri = request.getUri();
+        String uriString = uri.toString();
+        String fragment = uri.getRawFragment();
+        int end = fragment != null ? uriString.length() - fragment.length() - 1 : uriString.length();
+        String query = uri.getRawQuery();
+        int pathEnd = query != null ? end - query.length() - 1 : end;
+
+        builder.setLength(0);
+        builder.append(uriString, 0, pathEnd);
+        if (uri.getRawAuthority() != null && uri.getRawPath().isEmpty()) {
+            // As UriBuilder does, give a URI without a path the root path
+            builder.append('/');
+        }
+        builder.append(uriString, pathEnd, end);
+        if (query == null) {
+            builder.append('?');
+        } else if (!query.isEmpty()) {
+            builder.append('&');
+        }
+        builder.append(apiKeyQuery);
+        builder.append(uriString, end, uriString.length());
 
-        request.setUri(uriWithApiKey);
+        request.setUri(URI.create(builder.toString()));
     }
 
-    private void addSignature(ClientRequest request, String timestamp) {
-        String signature = buildSignature(request, timestamp);
-        request.getHeaders().putSingle(this.requestConfiguration.getSignatureHttpHeader(), signature);
+    private void addSignature(ClientRequest request, String timestamp, StringBuilder builder) {
+        String signature = buildSignature(request, timestamp, builder);
+        request.getHeaders().putSingle(signatureHttpHeader, signature);
     }
 
     private void addTimestamp(ClientRequest request, String timestamp) {
-        request.getHeaders().putSingle(this.requestConfiguration.getTimestampHttpHeader(), timestamp);
+        request.getHeaders().putSingle(timestampHttpHeader, timestamp);
     }
 
     private void addVersion(ClientRequest request) {
-        request.getHeaders().putSingle(this.requestConfiguration.getVersionHttpHeader(), this.requestConfiguration.getVersion().getValue());
+        request.getHeaders().putSingle(versionHttpHeader, versionValue);
     }
 
-    private String buildSignature(ClientRequest request, String timestamp) {
+    private String buildSignature(ClientRequest request, String timestamp, StringBuilder builder) {
         String method = getMethod(request);
-        String path = getPath(request);
+        String path = getPath(request, builder);
+        SignatureBuilder signature = signatureGenerator.builder(secretKey, method, timestamp, path);
 
-        byte[] content = this.requestConfiguration.isDataInSignature() && request.hasEntity() ? getContent(request) : null;
+        if (this.requestConfiguration.isDataInSignature() && request.hasEntity()) {
+            addContent(request, signature);
+        }
 
-        return signatureGenerator.generate(secretKey, method, timestamp, path, content);
+        return signature.sign();
     }
 
     private String getMethod(ClientRequest request) {
         return request.getMethod();
     }
 
-    private String getPath(ClientRequest request) {
+    private String getPath(ClientRequest request, StringBuilder builder) {
         // Get the path and any query parameters (e.g. /api/v1/pizza?sort=toppings&apiKey=someKey)
-        return String.format("%s?%s", request.getUri().getPath(), request.getUri().getQuery());
+        URI uri = request.getUri();
+        builder.setLength(0);
+        return builder.append(uri.getPath()).append('?').append(uri.getQuery()).toString();
     }
 
-    private byte[] getContent(ClientRequest request) {
-        return getSerializedEntity(request);
+    /**
+     * Add the serialized representation of the request entity to the signature, hashing it as it is serialized
+     * rather than collecting it in memory first, unless the entity is to be buffered and sent as serialized.
+     */
+    private void addContent(ClientRequest request, SignatureBuilder signature) {
+        if (this.requestConfiguration.isBufferedEntitySigning()) {
+            addBufferedContent(request, signature);
+        } else {
+            writeEntity(request, signature.asOutputStream());
+        }
+    }
+
+    /**
+     * Serialize the request entity into a buffer, add the buffer to the signature, and make it the entity that
+     * is sent, so that the entity is only serialized once.
+     * <p>
+     * Writer interceptors run again when the buffer is sent, so a content encoding would be applied to bytes that
+     * were already encoded, and the server would receive something other than what was signed. Rather than send
+     * a request that cannot be authenticated, refuse to buffer one that is to be encoded.
+     */
+    private void addBufferedContent(ClientRequest request, SignatureBuilder signature) {
+        if (request.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)
+                || request.resolveProperty(ClientProperties.USE_ENCODING, Object.class) != null) {
+            throw new IllegalStateException("Buffered entity signing cannot be combined with content encoding");
+        }
+
+        BufferedEntity buffer = new BufferedEntity();
+        writeEntity(request, buffer);
+        try {
+            buffer.writeTo(signature.asOutputStream());
+        } catch (IOException ioe) {
+            throw new WebApplicationException("Error reading content during signature", ioe);
+        }
+
+        request.setEntity(buffer, request.getEntityAnnotations(), request.getMediaType());
     }
 
-    private byte[] getSerializedEntity(ClientRequest request) {
+    private void writeEntity(ClientRequest request, final OutputStream outputStream) {
         ClientRequest requestCopy = new ClientRequest(request);
-        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         requestCopy.setStreamProvider(new OutboundMessageContext.StreamProvider() {
 
             @Override
@@ -101,7 +187,6 @@ public class RequestEncoder {
         } catch (IOException ioe) {
             throw new WebApplicationException("Error reading content during signature", ioe);
         }
-        return outputStream.toByteArray();
     }
 
 }
@@ -0,0 +1,170 @@
+package com.bazaarvoice.auth.hmac.client;
+
+import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
+import com.bazaarvoice.auth.hmac.common.SignatureGenerator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.filter.EncodingFilter;
+import org.glassfish.jersey.message.GZipEncoder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Variant;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the client-side Jersey filter by sending requests to an in-memory HTTP server, which records what it
+ * receives so that the signature can be checked against the bytes that were actually sent.
+ */
+public class HmacClientFilterTest {
+    private static final String API_KEY = "someApiKey";
+    private static final String SECRET_KEY = "someSecretKey";
+
+    private final RequestConfiguration bufferedConfiguration = RequestConfiguration.builder()
+            .withBufferedEntitySigning(true)
+            .build();
+
+    private HttpServer server;
+    private volatile Received received;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                received = new Received(exchange);
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void signsTheBufferedBytesThatAreSent() {
+        String content = "{\"name\":\"pizza\",\"toppings\":[\"mushrooms\"]}";
+
+        target(bufferedConfiguration).path("pizza").queryParam("size", "large")
+                .request()
+                .post(Entity.entity(content, MediaType.APPLICATION_JSON_TYPE));
+
+        assertArrayEquals(content.getBytes(), received.content);
+        assertEquals(expectedSignature(received), received.signature);
+    }
+
+    @Test
+    public void signsTheSameBytesWhetherOrNotTheEntityIsBuffered() {
+        byte[] content = new byte[64 * 1024];
+        Arrays.fill(content, (byte) 'x');
+
+        target(new RequestConfiguration()).path("pizza")
+                .request()
+                .post(Entity.entity(content, MediaType.APPLICATION_OCTET_STREAM_TYPE));
+        Received unbuffered = received;
+
+        target(bufferedConfiguration).path("pizza")
+                .request()
+                .post(Entity.entity(content, MediaType.APPLICATION_OCTET_STREAM_TYPE));
+
+        assertArrayEquals(unbuffered.content, received.content);
+        assertEquals(expectedSignature(unbuffered), unbuffered.signature);
+        assertEquals(expectedSignature(received), received.signature);
+    }
+
+    @Test
+    public void refusesToBufferContentWithAContentEncoding() {
+        try {
+            target(bufferedConfiguration).register(GZipEncoder.class).path("pizza")
+                    .request()
+                    .post(Entity.entity("content", new Variant(MediaType.TEXT_PLAIN_TYPE, (String) null, "gzip")));
+            fail();
+        } catch (ProcessingException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertNull(received);
+    }
+
+    @Test
+    public void refusesToBufferContentForAClientThatEncodesRequests() {
+        try {
+            target(bufferedConfiguration).register(GZipEncoder.class).register(EncodingFilter.class)
+                    .property(ClientProperties.USE_ENCODING, "gzip")
+                    .path("pizza")
+                    .request()
+                    .post(Entity.entity("content", MediaType.TEXT_PLAIN_TYPE));
+            fail();
+        } catch (ProcessingException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertNull(received);
+    }
+
+    private WebTarget target(RequestConfiguration requestConfiguration) {
+        Client client = ClientBuilder.newClient();
+        client.register(new HmacClientFilter(API_KEY, SECRET_KEY, null, requestConfiguration));
+        InetSocketAddress address = server.getAddress();
+        return client.target(URI.create("http://" + address.getHostString() + ":" + address.getPort()));
+    }
+
+    private static String expectedSignature(Received received) {
+        return new SignatureGenerator().generate(SECRET_KEY, received.method, received.timestamp,
+                received.pathAndQuery, received.content);
+    }
+
+    /**
+     * What the server received, read on the server's thread.
+     */
+    private static class Received {
+        private final String method;
+        private final String pathAndQuery;
+        private final String timestamp;
+        private final String signature;
+        private final byte[] content;
+
+        private Received(HttpExchange exchange) throws IOException {
+            URI uri = exchange.getRequestURI();
+            method = exchange.getRequestMethod();
+            pathAndQuery = uri.getPath() + "?" + uri.getQuery();
+            timestamp = exchange.getRequestHeaders().getFirst(RequestConfiguration.DEFAULT_TIMESTAMP_HTTP_HEADER);
+            signature = exchange.getRequestHeaders().getFirst(RequestConfiguration.DEFAULT_SIGNATURE_HTTP_HEADER);
+            content = readFully(exchange.getRequestBody());
+        }
+
+        private static byte[] readFully(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
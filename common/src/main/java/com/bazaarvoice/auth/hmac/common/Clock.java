@@ -0,0 +1,52 @@
+package com.bazaarvoice.auth.hmac.common;
+
+/**
+ * The source of the current time for signing requests and validating their timestamps. The formatted
+ * request timestamp is cached per millisecond, so a busy client formats it at most once per millisecond.
+ */
+public abstract class Clock {
+    private static final Clock SYSTEM = new Clock() {
+        @Override
+        public long millis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private volatile FormattedTime lastTimestamp = new FormattedTime(Long.MIN_VALUE, null);
+
+    /**
+     * @return a clock that reads {@link System#currentTimeMillis()}
+     */
+    public static Clock systemClock() {
+        return SYSTEM;
+    }
+
+    /**
+     * @return the current time, in milliseconds since the epoch
+     */
+    public abstract long millis();
+
+    /**
+     * @return the current time, formatted as a request timestamp
+     * @see TimeUtils#formatTimestamp
+     */
+    public String timestamp() {
+        long now = millis();
+        FormattedTime last = lastTimestamp;
+        if (last.millis != now) {
+            last = new FormattedTime(now, TimeUtils.formatTimestamp(now));
+            lastTimestamp = last;
+        }
+        return last.text;
+    }
+
+    private static class FormattedTime {
+        private final long millis;
+        private final String text;
+
+        private FormattedTime(long millis, String text) {
+            this.millis = millis;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.bazaarvoice.auth.hmac.common;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A clock that reads the system time only once per tick, on a background thread, and otherwise returns the
+ * time of the last tick. This trades precision, which timestamp validation does not need, for a clock that
+ * costs no more than a volatile read.
+ * <p>
+ * The ticker thread is a daemon thread; {@link #close} stops it.
+ */
+public class CoarseClock extends Clock implements Closeable {
+    private final ScheduledExecutorService ticker;
+    private volatile long millis;
+
+    /**
+     * @param precision the time between ticks
+     * @param timeUnit the unit {@code precision} is expressed in
+     */
+    public CoarseClock(long precision, TimeUnit timeUnit) {
+        checkArgument(precision > 0, "Precision must be positive");
+
+        this.millis = System.currentTimeMillis();
+        this.ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("hmac-coarse-clock-%d")
+                .setDaemon(true)
+                .build());
+        ticker.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                millis = System.currentTimeMillis();
+            }
+        }, precision, precision, timeUnit);
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+}
@@ -1,5 +1,9 @@
 package com.bazaarvoice.auth.hmac.common;
 
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteSource;
+
+import java.io.IOException;
 import java.util.Arrays;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -12,17 +16,33 @@ public class Credentials {
     private final String timestamp;
     private final String method;
     private final byte[] content;
+    private final ByteSource contentSource;
 
     public Credentials(Version version, String apiKey, String signature, String path,
                        String timestamp, String method, byte[] content) {
+        this(version, apiKey, signature, path, timestamp, method, content, null);
+    }
+
+    /**
+     * Creates credentials whose request body is held by a {@link ByteSource}, e.g. one that was too large to
+     * keep in memory.
+     */
+    public Credentials(Version version, String apiKey, String signature, String path,
+                       String timestamp, String method, ByteSource contentSource) {
+        this(version, apiKey, signature, path, timestamp, method, null, contentSource);
+    }
 
-        this.version    = checkNotNull(version);
-        this.apiKey     = checkNotNull(apiKey);
-        this.signature  = checkNotNull(signature);
-        this.path       = checkNotNull(path);
-        this.timestamp  = checkNotNull(timestamp);
-        this.method     = checkNotNull(method);
-        this.content    = content;                  // optional - not all requests have a request body
+    private Credentials(Version version, String apiKey, String signature, String path,
+                        String timestamp, String method, byte[] content, ByteSource contentSource) {
+
+        this.version       = checkNotNull(version);
+        this.apiKey        = checkNotNull(apiKey);
+        this.signature     = checkNotNull(signature);
+        this.path          = checkNotNull(path);
+        this.timestamp     = checkNotNull(timestamp);
+        this.method        = checkNotNull(method);
+        this.content       = content;               // optional - not all requests have a request body
+        this.contentSource = contentSource;         // optional - used instead of content for large request bodies
     }
 
     public static CredentialsBuilder builder() {
@@ -53,10 +73,34 @@ public class Credentials {
         return method;
     }
 
+    /**
+     * @return the request body, read into memory if it is only available from a {@link ByteSource}
+     */
     public byte[] getContent() {
+        if (content == null && contentSource != null) {
+            try {
+                return contentSource.read();
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
         return content;
     }
 
+    /**
+     * @return the request body as a {@link ByteSource}, which is empty if the request has no body
+     */
+    public ByteSource getContentSource() {
+        if (contentSource != null) {
+            return contentSource;
+        }
+        return content != null ? ByteSource.wrap(content) : ByteSource.empty();
+    }
+
+    /**
+     * Content held in memory is compared by value. Content held by a {@link ByteSource} is compared by identity,
+     * since reading it may mean reading the request body or a file it was spilled to.
+     */
     @Override
     public boolean equals(Object obj) {
         if (this == obj) { return true; }
@@ -70,7 +114,8 @@ public class Credentials {
                 && path.equals(that.path)
                 && timestamp.equals(that.timestamp)
                 && method.equals(that.method)
-                && Arrays.equals(content, that.content);
+                && Arrays.equals(content, that.content)
+                && contentSource == that.contentSource;
     }
 
     @Override
@@ -82,6 +127,7 @@ public class Credentials {
         result = 31 * result + (timestamp != null ? timestamp.hashCode() : 0);
         result = 31 * result + (method != null ? method.hashCode() : 0);
         result = 31 * result + Arrays.hashCode(content);
+        result = 31 * result + System.identityHashCode(contentSource);
         return result;
     }
 
@@ -93,9 +139,10 @@ public class Credentials {
         private String timestamp = "";
         private String method = "";
         private byte[] content = new byte[0];
+        private ByteSource contentSource;
 
         public Credentials build() {
-            return new Credentials(version, apiKey, signature, path, timestamp, method, content);
+            return new Credentials(version, apiKey, signature, path, timestamp, method, content, contentSource);
         }
 
         public CredentialsBuilder withVersion(Version version) {
@@ -130,6 +177,13 @@ public class Credentials {
 
         public CredentialsBuilder withContent(byte[] content) {
             this.content = content;
+            this.contentSource = null;
+            return this;
+        }
+
+        public CredentialsBuilder withContentSource(ByteSource contentSource) {
+            this.contentSource = contentSource;
+            this.content = null;
             return this;
         }
     }
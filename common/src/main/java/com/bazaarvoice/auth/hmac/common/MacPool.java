@@ -0,0 +1,173 @@
+package com.bazaarvoice.auth.hmac.common;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Hands out {@link Mac} instances that are already initialized with a secret key, so that signing and
+ * verifying a request does not pay for a provider lookup and a key schedule every time.
+ * <p>
+ * Each thread keeps a small, least-recently-used set of keyed instances of its own. When a thread needs a
+ * key it does not have yet, its instance is cloned from a shared prototype that was initialized once for that
+ * key. A {@code Mac} is owned exclusively by the caller between {@link #acquire} and {@link #release}, so
+ * callers that hold one across several calls (e.g. while a request body streams in) are safe.
+ * <p>
+ * Per-thread instances only pay off on threads that are reused. A pool with no instances per thread, such as
+ * {@link #getShared()}, returns released instances to a set of idle instances per key that any thread can take
+ * from instead, which suits virtual threads and other threads that are started per task.
+ */
+public class MacPool {
+    public static final String HMAC_SHA256 = "HmacSHA256";
+    public static final int DEFAULT_KEYS_PER_THREAD = 64;
+    public static final long DEFAULT_MAX_PROTOTYPES = 10000;
+
+    private static final String UTF_8 = "UTF-8";
+    private static final MacPool DEFAULT = new MacPool(DEFAULT_KEYS_PER_THREAD, DEFAULT_MAX_PROTOTYPES);
+    private static final MacPool SHARED = new MacPool(0, DEFAULT_MAX_PROTOTYPES);
+
+    private final int keysPerThread;
+    private final Cache<String, SigningKey> prototypes;
+
+    // Only JDK classes are stored in the thread local so that pooled threads never pin this class loader
+    private final ThreadLocal<LinkedHashMap<String, Mac>> threadMacs = new ThreadLocal<LinkedHashMap<String, Mac>>();
+
+    /**
+     * @return the pool shared by {@link Signer} and {@link SignatureGenerator} when none is specified
+     */
+    public static MacPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return a pool that keeps no instances per thread, for callers running on virtual threads
+     */
+    public static MacPool getShared() {
+        return SHARED;
+    }
+
+    /**
+     * @param keysPerThread the number of keyed instances each thread keeps for reuse, or 0 to share idle
+     *                      instances between all threads
+     * @param maxPrototypes the number of keys for which an initialized prototype is kept
+     */
+    public MacPool(int keysPerThread, long maxPrototypes) {
+        this.keysPerThread = keysPerThread;
+        this.prototypes = CacheBuilder.newBuilder()
+                .maximumSize(maxPrototypes)
+                .build();
+    }
+
+    /**
+     * Take an initialized {@code Mac} for the given secret key. The caller owns it until it is handed back
+     * through {@link #release}; instances that are never released are simply garbage collected.
+     *
+     * @param secretKey the secret key
+     * @return a {@code Mac} that is initialized with the secret key and ready for {@code update}
+     */
+    public Mac acquire(String secretKey) {
+        if (keysPerThread > 0) {
+            LinkedHashMap<String, Mac> macs = threadMacs.get();
+            if (macs != null) {
+                Mac mac = macs.remove(secretKey);
+                if (mac != null) {
+                    return mac;
+                }
+            }
+        }
+        return getPrototype(secretKey).acquire();
+    }
+
+    /**
+     * Hand a {@code Mac} obtained from {@link #acquire} back to the pool, so that the current thread, or with no
+     * instances per thread any thread, can reuse it.
+     *
+     * @param secretKey the secret key the {@code Mac} was acquired for
+     * @param mac the {@code Mac}
+     */
+    public void release(String secretKey, Mac mac) {
+        if (keysPerThread <= 0) {
+            SigningKey key = prototypes.getIfPresent(secretKey);
+            if (key != null) {
+                key.release(mac);
+            }
+            return;
+        }
+
+        // Discard any partial input left behind by a caller that failed part way through a signature
+        mac.reset();
+
+        LinkedHashMap<String, Mac> macs = threadMacs.get();
+        if (macs == null) {
+            macs = new LinkedHashMap<String, Mac>(16, 0.75f, true);
+            threadMacs.set(macs);
+        }
+        macs.put(secretKey, mac);
+
+        if (macs.size() > keysPerThread) {
+            Iterator<Map.Entry<String, Mac>> eldest = macs.entrySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Create a new {@code Mac} initialized with the given secret key, bypassing the pool entirely.
+     *
+     * @param secretKey the secret key
+     * @return the initialized {@code Mac}
+     */
+    public static Mac newMac(String secretKey) {
+        try {
+            byte[] secretKeyBytes = secretKey.getBytes(UTF_8);
+            SecretKeySpec secretKeySpec = new SecretKeySpec(secretKeyBytes, HMAC_SHA256);
+            Mac mac = Mac.getInstance(HMAC_SHA256);
+            mac.init(secretKeySpec);
+            return mac;
+
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("Invalid character encoding: " + UTF_8, e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Invalid MAC algorithm: " + HMAC_SHA256, e);
+        } catch (InvalidKeyException e) {
+            throw new IllegalStateException("Invalid MAC secret key", e);
+        }
+    }
+
+    /**
+     * Copy an initialized {@code Mac}, falling back to a fresh instance for providers that cannot clone.
+     */
+    static Mac copyOf(Mac prototype, String secretKey) {
+        try {
+            return (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            return newMac(secretKey);
+        }
+    }
+
+    private SigningKey getPrototype(final String secretKey) {
+        try {
+            return prototypes.get(secretKey, new Callable<SigningKey>() {
+                public SigningKey call() throws Exception {
+                    return new SigningKey(secretKey);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to initialize MAC", e.getCause());
+        } catch (UncheckedExecutionException e) {
+            // newMac only throws unchecked exceptions, which should reach the caller unchanged
+            throw (RuntimeException) e.getCause();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.bazaarvoice.auth.hmac.common;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -15,6 +16,8 @@ public class RequestConfiguration {
     public static final String DEFAULT_VERSION_HTTP_HEADER   = "X-Auth-Version";
     public static final String DEFAULT_API_KEY_QUERY_PARAM   = "apiKey";
     public static final Version DEFAULT_VERSION              = Version.V3;
+    public static final long DEFAULT_CONTENT_BUFFER_THRESHOLD = 1024 * 1024;
+    public static final long DEFAULT_MAX_SIGNED_CONTENT_LENGTH = Long.MAX_VALUE;
 
     private Map<Version, Boolean> dataInSignatureMap = new HashMap<Version, Boolean>();
 
@@ -23,21 +26,31 @@ public class RequestConfiguration {
     private final String versionHttpHeader;
     private final String apiKeyQueryParamName;
     private final Version version;
+    private final boolean streamingContentVerification;
+    private final long contentBufferThreshold;
+    private final File contentBufferDirectory;
+    private final long maxSignedContentLength;
+    private final boolean bufferedEntitySigning;
 
     public static Builder builder() {
         return new Builder();
     }
 
     public RequestConfiguration() {
-        this(DEFAULT_SIGNATURE_HTTP_HEADER, DEFAULT_TIMESTAMP_HTTP_HEADER, DEFAULT_VERSION_HTTP_HEADER, DEFAULT_API_KEY_QUERY_PARAM, DEFAULT_VERSION, null);
+        this(DEFAULT_SIGNATURE_HTTP_HEADER, DEFAULT_TIMESTAMP_HTTP_HEADER, DEFAULT_VERSION_HTTP_HEADER, DEFAULT_API_KEY_QUERY_PARAM, DEFAULT_VERSION, null, false, DEFAULT_CONTENT_BUFFER_THRESHOLD, null, DEFAULT_MAX_SIGNED_CONTENT_LENGTH, false);
     }
 
-    private RequestConfiguration(String signatureHttpHeader, String timestampHttpHeader, String versionHttpHeader, String apiKeyQueryParamName, Version version, Map<Version, Boolean> dataInSignatureMap) {
+    private RequestConfiguration(String signatureHttpHeader, String timestampHttpHeader, String versionHttpHeader, String apiKeyQueryParamName, Version version, Map<Version, Boolean> dataInSignatureMap, boolean streamingContentVerification, long contentBufferThreshold, File contentBufferDirectory, long maxSignedContentLength, boolean bufferedEntitySigning) {
         this.signatureHttpHeader = signatureHttpHeader;
         this.timestampHttpHeader = timestampHttpHeader;
         this.versionHttpHeader = versionHttpHeader;
         this.apiKeyQueryParamName = apiKeyQueryParamName;
         this.version = version;
+        this.streamingContentVerification = streamingContentVerification;
+        this.contentBufferThreshold = contentBufferThreshold;
+        this.contentBufferDirectory = contentBufferDirectory;
+        this.maxSignedContentLength = maxSignedContentLength;
+        this.bufferedEntitySigning = bufferedEntitySigning;
 
         if (dataInSignatureMap == null || dataInSignatureMap.isEmpty()) {
             // Initialize dataInSignatureMap defaults
@@ -80,6 +93,54 @@ public class RequestConfiguration {
         return dataInSignatureMap.get(version);
     }
 
+    /**
+     * Whether the server verifies the signature over the request content while the content streams to the
+     * resource, instead of reading all of it into memory before the resource is called. When enabled, content
+     * that a resource method takes as an {@code InputStream} or {@code Reader} is only verified once the method
+     * reaches its end, and reading it fails if its signature turns out to be invalid, so such methods must read
+     * the whole entity before acting on it. Content read into any other type is verified before the method is
+     * called.
+     */
+    public boolean isStreamingContentVerification() {
+        return streamingContentVerification;
+    }
+
+    /**
+     * The size in bytes above which a request body that the server reads before authenticating the request is
+     * spilled to a temporary file instead of being held in memory.
+     */
+    public long getContentBufferThreshold() {
+        return contentBufferThreshold;
+    }
+
+    /**
+     * The directory for temporary files holding large request bodies, or null for the system default.
+     */
+    public File getContentBufferDirectory() {
+        return contentBufferDirectory;
+    }
+
+    /**
+     * The largest request body, in bytes, that the server will read to verify a signature over it. Longer
+     * requests are rejected with a 413 status, based on their {@code Content-Length} header before anything is
+     * read where possible, and as soon as the limit is exceeded otherwise.
+     */
+    public long getMaxSignedContentLength() {
+        return maxSignedContentLength;
+    }
+
+    /**
+     * Whether the client serializes the request entity once into a buffer, signs the buffer, and sends the
+     * buffer as the request body, instead of serializing the entity once to sign it and again to send it. This
+     * saves the second serialization at the cost of holding the whole body in memory. With the Jersey 2.x client,
+     * writer interceptors that transform the body, such as content encoding, would be applied both while the
+     * buffer is filled and when it is sent, so they cannot be combined with this. A request with a
+     * {@code Content-Encoding} header, or sent by a client configured to encode requests, is refused.
+     */
+    public boolean isBufferedEntitySigning() {
+        return bufferedEntitySigning;
+    }
+
     public static class Builder {
         private String signatureHttpHeader = DEFAULT_SIGNATURE_HTTP_HEADER;
         private String timestampHttpHeader = DEFAULT_TIMESTAMP_HTTP_HEADER;
@@ -87,6 +148,11 @@ public class RequestConfiguration {
         private String apiKeyQueryParamName = DEFAULT_API_KEY_QUERY_PARAM;
         private Version version = DEFAULT_VERSION;
         private Map<Version, Boolean> dataInSignatureMap = new HashMap<Version, Boolean>();
+        private boolean streamingContentVerification;
+        private long contentBufferThreshold = DEFAULT_CONTENT_BUFFER_THRESHOLD;
+        private File contentBufferDirectory;
+        private long maxSignedContentLength = DEFAULT_MAX_SIGNED_CONTENT_LENGTH;
+        private boolean bufferedEntitySigning;
 
         private Builder() {}
 
@@ -120,12 +186,43 @@ public class RequestConfiguration {
             return this;
         }
 
+        public Builder withStreamingContentVerification(boolean streamingContentVerification) {
+            this.streamingContentVerification = streamingContentVerification;
+            return this;
+        }
+
+        public Builder withContentBufferThreshold(long contentBufferThreshold) {
+            this.contentBufferThreshold = contentBufferThreshold;
+            return this;
+        }
+
+        public Builder withContentBufferDirectory(File contentBufferDirectory) {
+            this.contentBufferDirectory = contentBufferDirectory;
+            return this;
+        }
+
+        public Builder withMaxSignedContentLength(long maxSignedContentLength) {
+            this.maxSignedContentLength = maxSignedContentLength;
+            return this;
+        }
+
+        public Builder withBufferedEntitySigning(boolean bufferedEntitySigning) {
+            this.bufferedEntitySigning = bufferedEntitySigning;
+            return this;
+        }
+
         public RequestConfiguration build() {
             if (version == null) {
                 throw new IllegalArgumentException("Version cannot be null");
             }
+            if (contentBufferThreshold < 0) {
+                throw new IllegalArgumentException("Content buffer threshold cannot be negative");
+            }
+            if (maxSignedContentLength < 0) {
+                throw new IllegalArgumentException("Maximum signed content length cannot be negative");
+            }
 
-            return new RequestConfiguration(signatureHttpHeader, timestampHttpHeader, versionHttpHeader, apiKeyQueryParamName, version, dataInSignatureMap);
+            return new RequestConfiguration(signatureHttpHeader, timestampHttpHeader, versionHttpHeader, apiKeyQueryParamName, version, dataInSignatureMap, streamingContentVerification, contentBufferThreshold, contentBufferDirectory, maxSignedContentLength, bufferedEntitySigning);
         }
     }
 }
@@ -0,0 +1,137 @@
+package com.bazaarvoice.auth.hmac.common;
+
+import com.google.common.io.BaseEncoding;
+
+import javax.crypto.Mac;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Builds a request signature incrementally. The method, timestamp and path are hashed up front, and the
+ * request content can then be fed in as many chunks as it arrives in, so a request body never has to be
+ * held in memory just to sign it.
+ * <p>
+ * The signature is identical to the one {@link SignatureGenerator#generate} produces for the same content.
+ * A builder is not thread safe and can produce only one signature.
+ */
+public class SignatureBuilder {
+    private static final byte DELIMITER = '\n';
+
+    private final MacPool macPool;
+    private final String secretKey;
+    private final SigningKey signingKey;
+    private Mac mac;
+    private boolean hasContent;
+
+    SignatureBuilder(MacPool macPool, String secretKey, String method, String timestamp, String path) {
+        this(macPool, secretKey, null, macPool.acquire(secretKey), method, timestamp, path);
+    }
+
+    SignatureBuilder(SigningKey signingKey, String method, String timestamp, String path) {
+        this(null, signingKey.getSecretKey(), signingKey, signingKey.acquire(), method, timestamp, path);
+    }
+
+    private SignatureBuilder(MacPool macPool, String secretKey, SigningKey signingKey, Mac mac,
+                             String method, String timestamp, String path) {
+        this.macPool = macPool;
+        this.secretKey = secretKey;
+        this.signingKey = signingKey;
+        this.mac = mac;
+
+        mac.update(method.getBytes());
+        mac.update(DELIMITER);
+        mac.update(timestamp.getBytes());
+        mac.update(DELIMITER);
+        mac.update(path.getBytes());
+    }
+
+    /**
+     * Add request content to the signature.
+     *
+     * @param content the next chunk of content, may be null
+     * @return this builder
+     */
+    public SignatureBuilder update(byte[] content) {
+        if (content != null) {
+            update(content, 0, content.length);
+        }
+        return this;
+    }
+
+    /**
+     * Add request content to the signature.
+     *
+     * @param content a buffer holding the next chunk of content
+     * @param offset the offset of the chunk in {@code content}
+     * @param length the length of the chunk
+     * @return this builder
+     */
+    public SignatureBuilder update(byte[] content, int offset, int length) {
+        if (length > 0) {
+            startContent();
+            mac.update(content, offset, length);
+        }
+        return this;
+    }
+
+    /**
+     * Add the remaining bytes of a buffer to the signature. The buffer's position is advanced to its limit.
+     *
+     * @param content the next chunk of content
+     * @return this builder
+     */
+    public SignatureBuilder update(ByteBuffer content) {
+        if (content.hasRemaining()) {
+            startContent();
+            mac.update(content);
+        }
+        return this;
+    }
+
+    /**
+     * @return an {@code OutputStream} that adds everything written to it to the signature
+     */
+    public OutputStream asOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                update(new byte[] {(byte) b});
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                update(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Complete the signature.
+     *
+     * @return the signature, encoded as URL-safe base 64
+     */
+    public String sign() {
+        checkState(mac != null, "Signature has already been generated");
+        try {
+            return BaseEncoding.base64Url().encode(mac.doFinal());
+        } finally {
+            if (signingKey != null) {
+                signingKey.release(mac);
+            } else {
+                macPool.release(secretKey, mac);
+            }
+            mac = null;
+        }
+    }
+
+    private void startContent() {
+        checkState(mac != null, "Signature has already been generated");
+        if (!hasContent) {
+            // The content is only separated from the path when there is some
+            mac.update(DELIMITER);
+            hasContent = true;
+        }
+    }
+}
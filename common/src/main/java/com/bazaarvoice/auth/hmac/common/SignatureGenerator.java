@@ -1,34 +1,49 @@
 package com.bazaarvoice.auth.hmac.common;
 
-import com.google.common.base.Throwables;
-
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-
 /**
  * Generates an HMAC-based signature using a secret key and various other properties
  */
 public class SignatureGenerator {
-    private static final char DELIMITER = '\n';
+    private final MacPool macPool;
+
+    public SignatureGenerator() {
+        this(MacPool.getDefault());
+    }
+
+    public SignatureGenerator(MacPool macPool) {
+        this.macPool = macPool;
+    }
 
     public String generate(String secretKey, String method, String timestamp, String path, byte[] content) {
-        try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            out.write(method.getBytes());
-            out.write(DELIMITER);
-            out.write(timestamp.getBytes());
-            out.write(DELIMITER);
-            out.write(path.getBytes());
-            if (content != null && content.length > 0) {
-                out.write(DELIMITER);
-                out.write(content);
-            }
+        return builder(secretKey, method, timestamp, path)
+                .update(content)
+                .sign();
+    }
 
-            Signer signer = new Signer(secretKey);
-            return signer.createSignature(out.toByteArray());
+    /**
+     * Start a signature whose request content will be supplied incrementally.
+     *
+     * @param secretKey the secret key
+     * @param method the HTTP method
+     * @param timestamp the request timestamp
+     * @param path the request path, including the query string
+     * @return a builder to which the request content can be added
+     */
+    public SignatureBuilder builder(String secretKey, String method, String timestamp, String path) {
+        return new SignatureBuilder(macPool, secretKey, method, timestamp, path);
+    }
 
-        } catch (IOException e) {
-            throw Throwables.propagate(e);
-        }
+    /**
+     * Start a signature with a key that has already been initialized, whose request content will be supplied
+     * incrementally.
+     *
+     * @param signingKey the secret key
+     * @param method the HTTP method
+     * @param timestamp the request timestamp
+     * @param path the request path, including the query string
+     * @return a builder to which the request content can be added
+     */
+    public SignatureBuilder builder(SigningKey signingKey, String method, String timestamp, String path) {
+        return new SignatureBuilder(signingKey, method, timestamp, path);
     }
 }
@@ -3,19 +3,18 @@ package com.bazaarvoice.auth.hmac.common;
 import com.google.common.io.BaseEncoding;
 
 import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-import java.io.UnsupportedEncodingException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 
 public class Signer {
-    private static final String HMAC_SHA256 = "HmacSHA256";
-    private static final String UTF_8 = "UTF-8";
-
     private final String secretKey;
+    private final MacPool macPool;
 
     public Signer(String secretKey) {
+        this(secretKey, MacPool.getDefault());
+    }
+
+    public Signer(String secretKey, MacPool macPool) {
         this.secretKey = secretKey;
+        this.macPool = macPool;
     }
 
     public String createSignature(byte[] message) {
@@ -24,20 +23,11 @@ public class Signer {
     }
 
     private byte[] calculateDigest(byte[] message) {
+        Mac mac = macPool.acquire(secretKey);
         try {
-            byte[] secretKeyBytes = secretKey.getBytes(UTF_8);
-            SecretKeySpec secretKeySpec = new SecretKeySpec(secretKeyBytes, HMAC_SHA256);
-            Mac mac = Mac.getInstance(HMAC_SHA256);
-            mac.init(secretKeySpec);
-            mac.update(message);
-            return mac.doFinal();
-
-        } catch (UnsupportedEncodingException e) {
-            throw new IllegalStateException("Invalid character encoding: " + UTF_8, e);
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException("Invalid MAC algorithm: " + HMAC_SHA256, e);
-        } catch (InvalidKeyException e) {
-            throw new IllegalStateException("Invalid MAC secret key", e);
+            return mac.doFinal(message);
+        } finally {
+            macPool.release(secretKey, mac);
         }
     }
 }
@@ -0,0 +1,66 @@
+package com.bazaarvoice.auth.hmac.common;
+
+import javax.crypto.Mac;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A secret key that has already been turned into an initialized {@link Mac}, for callers that keep hold of
+ * the key (e.g. in a cache) and sign or verify with it repeatedly. Unlike {@link MacPool}, nothing has to be
+ * looked up by key: instances are cloned from the key's own prototype and returned to the key's own set of
+ * idle instances, which any thread can take from.
+ */
+public class SigningKey {
+    private static final int MAX_IDLE = Runtime.getRuntime().availableProcessors() * 2;
+
+    private final String secretKey;
+    private final Mac prototype;
+    private final Queue<Mac> idle = new ConcurrentLinkedQueue<Mac>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    /**
+     * @param secretKey the secret key
+     * @throws IllegalStateException if a {@code Mac} cannot be initialized with the secret key
+     */
+    public SigningKey(String secretKey) {
+        this.secretKey = checkNotNull(secretKey);
+        this.prototype = MacPool.newMac(secretKey);
+    }
+
+    public String getSecretKey() {
+        return secretKey;
+    }
+
+    /**
+     * Take an initialized {@code Mac} for this key. The caller owns it until it is handed back through
+     * {@link #release}.
+     *
+     * @return a {@code Mac} that is ready for {@code update}
+     */
+    public Mac acquire() {
+        Mac mac = idle.poll();
+        if (mac != null) {
+            idleCount.decrementAndGet();
+            return mac;
+        }
+        return MacPool.copyOf(prototype, secretKey);
+    }
+
+    /**
+     * Hand a {@code Mac} obtained from {@link #acquire} back, so that it can be reused.
+     *
+     * @param mac the {@code Mac}
+     */
+    public void release(Mac mac) {
+        // Discard any partial input left behind by a caller that failed part way through a signature
+        mac.reset();
+        if (idleCount.incrementAndGet() <= MAX_IDLE) {
+            idle.offer(mac);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+}
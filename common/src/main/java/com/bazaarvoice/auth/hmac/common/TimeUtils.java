@@ -2,14 +2,85 @@ package com.bazaarvoice.auth.hmac.common;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
-import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 
+/**
+ * Reads and writes request timestamps. Clients send timestamps in the form {@code yyyy-MM-ddTHH:mm:ss.SSSZ},
+ * which {@link #parseMillis} and {@link #formatTimestamp} handle directly, without going through Joda-Time;
+ * any other ISO-8601 timestamp is parsed by Joda-Time as before.
+ */
 public class TimeUtils {
+    // yyyy-MM-ddTHH:mm:ss.SSS followed by either Z or an offset of the form +HH:mm
+    private static final int LOCAL_LENGTH = 23;
+    private static final int UTC_LENGTH = LOCAL_LENGTH + 1;
+    private static final int OFFSET_LENGTH = LOCAL_LENGTH + 6;
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+    private static final long MIN_FAST_MILLIS = -62167219200000L;  // 0000-01-01T00:00:00.000Z
+    private static final long MAX_FAST_MILLIS = 253402300799999L;  // 9999-12-31T23:59:59.999Z
+
+    private static final ThreadLocal<char[]> FORMAT_BUFFER = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return "0000-00-00T00:00:00.000Z".toCharArray();
+        }
+    };
 
     public static String getCurrentTimestamp() {
-        DateTimeFormatter formatter = ISODateTimeFormat.dateTime();
-        return formatter.print(nowInUTC());
+        return Clock.systemClock().timestamp();
+    }
+
+    /**
+     * Format a time as a UTC timestamp of the form {@code yyyy-MM-ddTHH:mm:ss.SSSZ}, as
+     * {@code ISODateTimeFormat.dateTime()} would.
+     *
+     * @param millis the time, in milliseconds since the epoch
+     * @return the timestamp
+     */
+    public static String formatTimestamp(long millis) {
+        if (millis < MIN_FAST_MILLIS || millis > MAX_FAST_MILLIS) {
+            return ISODateTimeFormat.dateTime().print(new DateTime(millis, DateTimeZone.UTC));
+        }
+
+        long days = floorDiv(millis, MILLIS_PER_DAY);
+        int millisOfDay = (int) (millis - days * MILLIS_PER_DAY);
+
+        // Civil date from days since the epoch, see http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+        char[] buffer = FORMAT_BUFFER.get();
+        writeDigits(buffer, 0, 4, year);
+        writeDigits(buffer, 5, 2, month);
+        writeDigits(buffer, 8, 2, day);
+        writeDigits(buffer, 11, 2, millisOfDay / 3600000);
+        writeDigits(buffer, 14, 2, millisOfDay / 60000 % 60);
+        writeDigits(buffer, 17, 2, millisOfDay / 1000 % 60);
+        writeDigits(buffer, 20, 3, millisOfDay % 1000);
+        return new String(buffer);
+    }
+
+    /**
+     * Parse an ISO-8601 timestamp.
+     *
+     * @param timestamp the timestamp
+     * @return the time, in milliseconds since the epoch
+     * @throws IllegalArgumentException if the timestamp is not valid
+     */
+    public static long parseMillis(String timestamp) {
+        long millis = parseFast(timestamp);
+        if (millis == Long.MIN_VALUE) {
+            millis = parse(timestamp).getMillis();
+        }
+        return millis;
     }
 
     public static DateTime parse(String timestamp) {
@@ -19,4 +90,105 @@ public class TimeUtils {
     public static DateTime nowInUTC() {
         return new DateTime(DateTimeZone.UTC);
     }
+
+    /**
+     * @return the time, or {@code Long.MIN_VALUE} if the timestamp is not in one of the forms handled here
+     */
+    private static long parseFast(String timestamp) {
+        int length = timestamp.length();
+        if ((length != UTC_LENGTH && length != OFFSET_LENGTH)
+                || timestamp.charAt(4) != '-' || timestamp.charAt(7) != '-' || timestamp.charAt(10) != 'T'
+                || timestamp.charAt(13) != ':' || timestamp.charAt(16) != ':' || timestamp.charAt(19) != '.') {
+            return Long.MIN_VALUE;
+        }
+
+        int year = readDigits(timestamp, 0, 4);
+        int month = readDigits(timestamp, 5, 2);
+        int day = readDigits(timestamp, 8, 2);
+        int hour = readDigits(timestamp, 11, 2);
+        int minute = readDigits(timestamp, 14, 2);
+        int second = readDigits(timestamp, 17, 2);
+        int millis = readDigits(timestamp, 20, 3);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0) {
+            return Long.MIN_VALUE;
+        }
+
+        long offsetMillis = 0;
+        char zone = timestamp.charAt(LOCAL_LENGTH);
+        if (length == UTC_LENGTH) {
+            if (zone != 'Z') {
+                return Long.MIN_VALUE;
+            }
+        } else {
+            int offsetHours = readDigits(timestamp, LOCAL_LENGTH + 1, 2);
+            int offsetMinutes = readDigits(timestamp, LOCAL_LENGTH + 4, 2);
+            if ((zone != '+' && zone != '-') || timestamp.charAt(LOCAL_LENGTH + 3) != ':'
+                    || offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59) {
+                return Long.MIN_VALUE;
+            }
+            offsetMillis = (offsetHours * 60 + offsetMinutes) * MILLIS_PER_MINUTE;
+            if (zone == '-') {
+                offsetMillis = -offsetMillis;
+            }
+        }
+
+        long localMillis = daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60 + minute) * 60 + second) * 1000L + millis;
+        return localMillis - offsetMillis;
+    }
+
+    /**
+     * Days since the epoch of a date, see http://howardhinnant.github.io/date_algorithms.html
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        long era = floorDiv(y, 400);
+        int yearOfEra = (int) (y - era * 400);
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leapYear = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leapYear ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * @return the number, or -1 if the characters are not all digits
+     */
+    private static int readDigits(String s, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void writeDigits(char[] buffer, int offset, int count, int value) {
+        for (int i = offset + count - 1; i >= offset; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? quotient - 1 : quotient;
+    }
 }
@@ -1,29 +1,75 @@
 package com.bazaarvoice.auth.hmac.server;
 
+import com.bazaarvoice.auth.hmac.common.Clock;
 import com.bazaarvoice.auth.hmac.common.Credentials;
+import com.bazaarvoice.auth.hmac.common.MacPool;
+import com.bazaarvoice.auth.hmac.common.SignatureBuilder;
 import com.bazaarvoice.auth.hmac.common.SignatureGenerator;
+import com.bazaarvoice.auth.hmac.common.SigningKey;
 import com.bazaarvoice.auth.hmac.common.TimeUtils;
-import org.joda.time.DateTime;
-import org.joda.time.Duration;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
-import java.security.MessageDigest;
+import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
-import static com.bazaarvoice.auth.hmac.common.TimeUtils.nowInUTC;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * AbstractAuthenticator is an abstract implementation of {@link Authenticator} that validates a set of
  * request credentials and returns the principal that the credentials identify. This class provides common
  * validation features, such as ensuring that the request has a valid timestamp and signature.
+ * <p>
+ * The credentials are checked by a chain of {@link AuthenticationStage}s before the signature is verified.
+ * By default the timestamp is checked first and the principal is looked up second, so neither the principal
+ * nor the request content is loaded for a stale request. Subclasses can change the chain by overriding
+ * {@link #getStages}.
+ * <p>
+ * Requests can also be authenticated {@link #authenticateAsync asynchronously}. The principal is then looked up
+ * by {@link #getPrincipalAsync}, which subclasses whose principals come from a remote store should override to
+ * return without blocking; by default it calls {@link #getPrincipal}.
  *
  * @param <Principal> the type of principal the authenticator returns
  */
-public abstract class AbstractAuthenticator<Principal> implements Authenticator<Principal> {
-    private static final Logger LOG = LoggerFactory.getLogger(AbstractAuthenticator.class);
+public abstract class AbstractAuthenticator<Principal> implements StreamingAuthenticator<Principal>, AsyncAuthenticator<Principal> {
 
     private final long allowedTimestampRange;           // in milliseconds
+    private final Clock clock;
+    private final ReplayDetector replayDetector;
+    private volatile SignatureGenerator signatureGenerator = new SignatureGenerator();
+    private final AuthenticationStage<Principal> timestampStage = new AuthenticationStage<Principal>() {
+        @Override
+        public String getName() {
+            return "timestamp";
+        }
+
+        @Override
+        public boolean apply(AuthenticationContext<Principal> context) {
+            // Make sure the timestamp has not expired - this is to protect against replay attacks
+            return validateTimestamp(context.getCredentials().getTimestamp());
+        }
+    };
+    private final AuthenticationStage<Principal> principalStage = new AuthenticationStage<Principal>() {
+        @Override
+        public String getName() {
+            return "principal";
+        }
+
+        @Override
+        public boolean apply(AuthenticationContext<Principal> context) {
+            // Get the principal identified by the credentials
+            lookUpPrincipal(context);
+            return context.getPrincipal() != null;
+        }
+    };
+    private volatile List<AuthenticationStage<Principal>> stages;
+    private volatile AuthenticationListener listener;
+    private volatile FailureLog failureLog = FailureLog.getDefault();
 
     /**
      * Constructs an instance using a default timestamp range of 15 minutes. This is the length of time
@@ -44,32 +90,175 @@ public abstract class AbstractAuthenticator<Principal> implements Authenticator<
      * @param timeUnit the unit {@code allowedTimestampSlop} is expressed in
      */
     protected AbstractAuthenticator(long allowedTimestampSlop, TimeUnit timeUnit) {
+        this(allowedTimestampSlop, timeUnit, Clock.systemClock());
+    }
+
+    /**
+     * Constructs an instance using the specified timestamp range, which validates request timestamps against
+     * the given clock.
+     *
+     * @param allowedTimestampSlop the length of time for which the timestamp on a request can differ
+     *                             from the server time when the request is received
+     * @param timeUnit the unit {@code allowedTimestampSlop} is expressed in
+     * @param clock the source of the server time, e.g. a {@link com.bazaarvoice.auth.hmac.common.CoarseClock}
+     */
+    protected AbstractAuthenticator(long allowedTimestampSlop, TimeUnit timeUnit, Clock clock) {
+        this(allowedTimestampSlop, timeUnit, clock, null);
+    }
+
+    /**
+     * Constructs an instance using the specified timestamp range, which validates request timestamps against
+     * the given clock and rejects requests that have already been authenticated once.
+     *
+     * @param allowedTimestampSlop the length of time for which the timestamp on a request can differ
+     *                             from the server time when the request is received
+     * @param timeUnit the unit {@code allowedTimestampSlop} is expressed in
+     * @param clock the source of the server time, e.g. a {@link com.bazaarvoice.auth.hmac.common.CoarseClock}
+     * @param replayDetector records authenticated requests to reject replays of them, e.g. an
+     *                       {@link InMemoryReplayDetector} covering the same timestamp range, or null to
+     *                       accept replays
+     */
+    protected AbstractAuthenticator(long allowedTimestampSlop, TimeUnit timeUnit, Clock clock, ReplayDetector replayDetector) {
         this.allowedTimestampRange = timeUnit.toMillis(allowedTimestampSlop);
+        this.clock = checkNotNull(clock);
+        this.replayDetector = replayDetector;
     }
 
     @Override
     public Principal authenticate(Credentials credentials) {
-        // Make sure the timestamp has not expired - this is to protect against replay attacks
-        if (!validateTimestamp(credentials.getTimestamp())) {
-            LOG.info("Invalid timestamp");
-            return null;
-        }
+        return verify(credentials, beginAuthentication(credentials));
+    }
 
-        // Get the principal identified by the credentials
-        Principal principal = getPrincipal(credentials);
-        if (principal == null) {
-            LOG.info("Could not get principal");
-            return null;
+    @Override
+    public ListenableFuture<Principal> authenticateAsync(final Credentials credentials) {
+        AuthenticationListener listener = this.listener;
+        long start = listener != null ? System.nanoTime() : 0;
+        AuthenticationContext<Principal> context = new AuthenticationContext<Principal>(credentials);
+        ListenableFuture<ContentVerifier<Principal>> verifier;
+        try {
+            verifier = applyStagesAsync(context, getStageChain(), 0, listener, start);
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
         }
+        return Futures.transform(verifier, new Function<ContentVerifier<Principal>, Principal>() {
+            @Override
+            public Principal apply(ContentVerifier<Principal> verifier) {
+                return verify(credentials, verifier);
+            }
+        });
+    }
 
-        // Get the secret key and use it to validate the request signature
-        String secretKey = getSecretKeyFromPrincipal(principal);
-        if (!validateSignature(credentials, secretKey)) {
-            LOG.info("Invalid signature");
-            return null;
+    @Override
+    public ContentVerifier<Principal> beginAuthentication(Credentials credentials) {
+        AuthenticationListener listener = this.listener;
+        long start = listener != null ? System.nanoTime() : 0;
+
+        AuthenticationContext<Principal> context = new AuthenticationContext<Principal>(credentials);
+        for (AuthenticationStage<Principal> stage : getStageChain()) {
+            long stageStart = listener != null ? System.nanoTime() : 0;
+            if (!completeStage(context, stage, stage.apply(context), listener, start, stageStart)) {
+                return null;
+            }
         }
+        return completeStages(context, listener, start);
+    }
+
+    /**
+     * Report the timings and outcome of each request authenticated from now on to the given listener, e.g. an
+     * {@link AuthenticationMetrics}.
+     *
+     * @param listener the listener, or null to stop reporting
+     */
+    public void setAuthenticationListener(AuthenticationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the listener requests are reported to, or null if there is none
+     */
+    public AuthenticationListener getAuthenticationListener() {
+        return listener;
+    }
+
+    /**
+     * Log authentication failures from now on to the given log instead of {@link FailureLog#getDefault()}, e.g.
+     * one with a different summary interval or per-key limit.
+     *
+     * @param failureLog the log
+     */
+    public void setFailureLog(FailureLog failureLog) {
+        this.failureLog = checkNotNull(failureLog);
+    }
+
+    /**
+     * @return the log authentication failures are recorded in
+     */
+    public FailureLog getFailureLog() {
+        return failureLog;
+    }
 
-        return principal;
+    /**
+     * Sign requests whose principal's secret key is not already at hand with {@code Mac} instances from the given
+     * pool instead of {@link MacPool#getDefault()}, e.g. {@link MacPool#getShared()} when requests are
+     * authenticated on virtual threads.
+     *
+     * @param macPool the pool
+     */
+    public void setMacPool(MacPool macPool) {
+        this.signatureGenerator = new SignatureGenerator(checkNotNull(macPool));
+    }
+
+    /**
+     * The checks to run, in order, before the request signature is verified. One of them must set the
+     * principal on the context; {@link #getPrincipalStage} does this using {@link #getPrincipal}. This is
+     * called once, the first time a request is authenticated.
+     *
+     * @return the stages, by default the timestamp stage followed by the principal stage
+     */
+    protected List<AuthenticationStage<Principal>> getStages() {
+        return ImmutableList.of(getTimestampStage(), getPrincipalStage());
+    }
+
+    /**
+     * @return the stage that rejects requests whose timestamp is outside the allowed range
+     */
+    protected final AuthenticationStage<Principal> getTimestampStage() {
+        return timestampStage;
+    }
+
+    /**
+     * @return the stage that looks up the principal identified by the credentials, and rejects the request
+     * if there is none
+     */
+    protected final AuthenticationStage<Principal> getPrincipalStage() {
+        return principalStage;
+    }
+
+    /**
+     * Look up the principal identified by the request credentials and set it on the context, along with its
+     * secret key if the key is already at hand.
+     *
+     * @param context the state of the request
+     */
+    void lookUpPrincipal(AuthenticationContext<Principal> context) {
+        context.setPrincipal(getPrincipal(context.getCredentials()));
+    }
+
+    /**
+     * Look up the principal identified by the request credentials without blocking, and set it on the context
+     * once it has been found.
+     *
+     * @param context the state of the request
+     * @return a future that completes once the principal has been set
+     */
+    ListenableFuture<?> lookUpPrincipalAsync(final AuthenticationContext<Principal> context) {
+        return Futures.transform(getPrincipalAsync(context.getCredentials()), new Function<Principal, Object>() {
+            @Override
+            public Object apply(Principal principal) {
+                context.setPrincipal(principal);
+                return principal;
+            }
+        });
     }
 
     /**
@@ -80,6 +269,22 @@ public abstract class AbstractAuthenticator<Principal> implements Authenticator<
      */
     protected abstract Principal getPrincipal(Credentials credentials);
 
+    /**
+     * Retrieve the principal object identified by the request credentials without blocking, for requests that
+     * are {@link #authenticateAsync authenticated asynchronously}. This calls {@link #getPrincipal} on the
+     * calling thread; override it if the principal has to be fetched from elsewhere.
+     *
+     * @param credentials the credentials specified on the request
+     * @return a future of the principal object, or of null if there is none
+     */
+    protected ListenableFuture<Principal> getPrincipalAsync(Credentials credentials) {
+        try {
+            return Futures.immediateFuture(getPrincipal(credentials));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
     /**
      * Retrieve the secret key for the given principal.
      *
@@ -99,45 +304,229 @@ public abstract class AbstractAuthenticator<Principal> implements Authenticator<
      * @return true if the timestamp is valid
      */
     private boolean validateTimestamp(String timestamp) {
-        DateTime requestTime = TimeUtils.parse(timestamp);
-        long difference = Math.abs(new Duration(requestTime, nowInUTC()).getMillis());
+        long difference = Math.abs(clock.millis() - TimeUtils.parseMillis(timestamp));
         return difference <= allowedTimestampRange;
     }
 
     /**
-     * Validate the signature on the request by generating a new signature here and making sure
-     * they match. The only way for them to match is if both signature are generated using the
-     * same secret key. If they match, this means that the requester has a valid secret key and
-     * can be a trusted source.
+     * Start a signature given the set of request credentials and a secret key. The request content still has
+     * to be added before the signature is complete. The only way for the signature to match the one on the
+     * request is if both are generated using the same secret key, which means that the requester has a valid
+     * secret key and can be a trusted source.
      *
      * @param credentials the credentials specified on the request
-     * @param secretKey the secret key that will be used to generate the signature
-     * @return true if the signature is valid
+     * @param principal the principal identified by the credentials
+     * @param signingKey the principal's initialized secret key, or null to get the secret key from
+     *                   {@link #getSecretKeyFromPrincipal}
+     * @return the signature, awaiting the request content
+     */
+    private SignatureBuilder startSignature(Credentials credentials, Principal principal, SigningKey signingKey) {
+        if (signingKey != null) {
+            return signatureGenerator.builder(
+                    signingKey,
+                    credentials.getMethod(),
+                    credentials.getTimestamp(),
+                    credentials.getPath());
+        }
+        return signatureGenerator.builder(
+                getSecretKeyFromPrincipal(principal),
+                credentials.getMethod(),
+                credentials.getTimestamp(),
+                credentials.getPath());
+    }
+
+    /**
+     * Run the stages of the chain from the given one on, waiting for the principal stage without blocking.
      */
-    private boolean validateSignature(Credentials credentials, String secretKey) {
-        String clientSignature = credentials.getSignature();
-        String serverSignature = createSignature(credentials, secretKey);
-        return MessageDigest.isEqual(clientSignature.getBytes(), serverSignature.getBytes());
+    private ListenableFuture<ContentVerifier<Principal>> applyStagesAsync(final AuthenticationContext<Principal> context,
+                                                                          final List<AuthenticationStage<Principal>> chain,
+                                                                          int from,
+                                                                          final AuthenticationListener listener,
+                                                                          final long start) {
+        for (int i = from; i < chain.size(); i++) {
+            final AuthenticationStage<Principal> stage = chain.get(i);
+            final long stageStart = listener != null ? System.nanoTime() : 0;
+            if (stage == principalStage) {
+                final int next = i + 1;
+                return Futures.transform(lookUpPrincipalAsync(context), new AsyncFunction<Object, ContentVerifier<Principal>>() {
+                    @Override
+                    public ListenableFuture<ContentVerifier<Principal>> apply(Object ignored) {
+                        if (!completeStage(context, stage, context.getPrincipal() != null, listener, start, stageStart)) {
+                            return Futures.immediateFuture(null);
+                        }
+                        return applyStagesAsync(context, chain, next, listener, start);
+                    }
+                });
+            }
+            if (!completeStage(context, stage, stage.apply(context), listener, start, stageStart)) {
+                return Futures.immediateFuture(null);
+            }
+        }
+        return Futures.immediateFuture(completeStages(context, listener, start));
     }
 
     /**
-     * Create a signature given the set of request credentials and a secret key.
+     * Report a stage that has been applied, and the outcome of the request if the stage rejected it.
      *
-     * @param credentials the credentials specified on the request
-     * @param secretKey the secret key that will be used to generate the signature
-     * @return the signature
+     * @return whether the request passed the stage
      */
-    private String createSignature(Credentials credentials, String secretKey) {
-        return new SignatureGenerator().generate(
-                secretKey,
-                credentials.getMethod(),
-                credentials.getTimestamp(),
-                credentials.getPath(),
-                credentials.getContent());
+    private boolean completeStage(AuthenticationContext<Principal> context, AuthenticationStage<Principal> stage,
+                                  boolean passed, AuthenticationListener listener, long start, long stageStart) {
+        if (listener != null) {
+            listener.stepCompleted(stage.getName(), System.nanoTime() - stageStart);
+        }
+        if (!passed) {
+            Credentials credentials = context.getCredentials();
+            AuthenticationOutcome outcome = getRejectionOutcome(stage);
+            failureLog.record(outcome, credentials.getApiKey(), credentials.getVersion());
+            if (listener != null) {
+                listener.requestCompleted(outcome, System.nanoTime() - start);
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * Start verifying the signature once every stage has passed.
+     *
+     * @return a verifier for the request content, or null if no stage set a principal
+     */
+    private ContentVerifier<Principal> completeStages(AuthenticationContext<Principal> context,
+                                                      AuthenticationListener listener, long start) {
+        Credentials credentials = context.getCredentials();
+        Principal principal = context.getPrincipal();
+        if (principal == null) {
+            failureLog.record(AuthenticationOutcome.UNKNOWN_PRINCIPAL, credentials.getApiKey(), credentials.getVersion());
+            if (listener != null) {
+                listener.requestCompleted(AuthenticationOutcome.UNKNOWN_PRINCIPAL, System.nanoTime() - start);
+            }
+            return null;
+        }
+
+        // Get the secret key and start the signature that the request content will be verified against
+        SignatureBuilder signature = startSignature(credentials, principal, context.getSigningKey());
+        return new Verifier(principal, signature, credentials, listener, start);
+    }
+
+    /**
+     * Verify the signature over the request content, which is only read now that every other check has passed.
+     *
+     * @return the principal if the signature is valid, otherwise null
+     * @throws ContentReadException if the content cannot be read
+     */
+    private Principal verify(Credentials credentials, ContentVerifier<Principal> verifier) {
+        if (verifier == null) {
+            return null;
+        }
+
+        // Use the secret key to validate the request signature
+        AuthenticationListener listener = this.listener;
+        long start = 0;
+        try {
+            ByteSource content = credentials.getContentSource();
+            if (listener != null && content instanceof LazyContentSource && !((LazyContentSource) content).isRead()) {
+                // Read the content up front, so that reading it is timed apart from signing it
+                start = System.nanoTime();
+                ((LazyContentSource) content).load();
+                listener.stepCompleted(AuthenticationListener.CONTENT, System.nanoTime() - start);
+            }
+            start = listener != null ? System.nanoTime() : 0;
+            verifier.update(content);
+        } catch (IOException e) {
+            if (verifier instanceof AbstractAuthenticator<?>.Verifier) {
+                ((AbstractAuthenticator<?>.Verifier) verifier).reportError();
+            }
+            throw new ContentReadException(e);
+        }
+        boolean valid = verifier.verify();
+        if (listener != null) {
+            listener.stepCompleted(AuthenticationListener.SIGNATURE, System.nanoTime() - start);
+        }
+        return valid ? verifier.getPrincipal() : null;
+    }
+
+    private AuthenticationOutcome getRejectionOutcome(AuthenticationStage<Principal> stage) {
+        if (stage == timestampStage) {
+            return AuthenticationOutcome.INVALID_TIMESTAMP;
+        }
+        if (stage == principalStage) {
+            return AuthenticationOutcome.UNKNOWN_PRINCIPAL;
+        }
+        return AuthenticationOutcome.REJECTED;
+    }
+
+    private List<AuthenticationStage<Principal>> getStageChain() {
+        List<AuthenticationStage<Principal>> chain = stages;
+        if (chain == null) {
+            chain = ImmutableList.copyOf(getStages());
+            stages = chain;
+        }
+        return chain;
     }
 
     @Override
     public String getApiKeyName() {
         return DEFAULT_API_KEY_PARAM;
     }
+
+    /**
+     * Verifies the signature of a request, and records it with the replay detector and reports its outcome to
+     * the failure log and the listener once it has been verified.
+     */
+    private class Verifier extends ContentVerifier<Principal> {
+        private final Credentials credentials;
+        private final AuthenticationListener listener;
+        private final long start;
+        private boolean replayed;
+        private boolean reported;
+
+        private Verifier(Principal principal, SignatureBuilder signature, Credentials credentials,
+                         AuthenticationListener listener, long start) {
+            super(principal, signature, credentials.getSignature());
+            this.credentials = credentials;
+            this.listener = listener;
+            this.start = start;
+        }
+
+        @Override
+        public boolean verify() {
+            boolean valid = super.verify();
+            if (!reported) {
+                reported = true;
+                AuthenticationOutcome outcome = valid ? AuthenticationOutcome.AUTHENTICATED
+                        : replayed ? AuthenticationOutcome.REPLAYED : AuthenticationOutcome.BAD_SIGNATURE;
+                if (!valid) {
+                    failureLog.record(outcome, credentials.getApiKey(), credentials.getVersion());
+                }
+                if (listener != null) {
+                    listener.requestCompleted(outcome, System.nanoTime() - start);
+                }
+            }
+            return valid;
+        }
+
+        /**
+         * Report the request as failed because its content could not be read.
+         */
+        private void reportError() {
+            if (!reported) {
+                reported = true;
+                failureLog.record(AuthenticationOutcome.ERROR, credentials.getApiKey(), credentials.getVersion());
+                if (listener != null) {
+                    listener.requestCompleted(AuthenticationOutcome.ERROR, System.nanoTime() - start);
+                }
+            }
+        }
+
+        @Override
+        protected boolean acceptVerified() {
+            // Requests are only recorded once they are authenticated, so that unauthenticated ones cannot fill
+            // the replay detector
+            if (replayDetector != null && !replayDetector.record(credentials)) {
+                replayed = true;
+                return false;
+            }
+            return true;
+        }
+    }
 }
\ No newline at end of file
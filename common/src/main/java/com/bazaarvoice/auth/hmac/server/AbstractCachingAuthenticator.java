@@ -1,27 +1,135 @@
 package com.bazaarvoice.auth.hmac.server;
 
+import com.bazaarvoice.auth.hmac.common.Clock;
 import com.bazaarvoice.auth.hmac.common.Credentials;
-import com.google.common.base.Optional;
+import com.bazaarvoice.auth.hmac.common.SigningKey;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.Callable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public abstract class AbstractCachingAuthenticator<Principal> extends AbstractAuthenticator<Principal> {
+/**
+ * An {@link AbstractAuthenticator} that caches principals by API key. The secret key of each cached principal
+ * is cached with it, already initialized for signing, so authenticating a request whose principal is cached
+ * does not call {@link #getSecretKeyFromPrincipal} or derive the key again.
+ * <p>
+ * When {@link PrincipalCacheConfiguration.Builder#withRefreshAfterWrite refreshing} is enabled, a cached
+ * principal that is due for a refresh is reloaded in the background while requests keep getting the cached one,
+ * so a frequently used API key never has to wait for {@link #loadPrincipal}. Concurrent requests for a principal
+ * that is not cached share a single load, and wait for it without holding a lock, so requests can be
+ * authenticated on virtual threads. They wait no longer than the
+ * {@link PrincipalCacheConfiguration.Builder#withLoadTimeout load timeout}.
+ * <p>
+ * Requests {@link #authenticateAsync authenticated asynchronously} that miss the cache load their principal
+ * with {@link #loadPrincipalAsync}.
+ * <p>
+ * Unless an executor is configured, principals are refreshed by a pool of threads that the authenticator owns;
+ * {@link #close} it once it is no longer used to stop them.
+ *
+ * @param <Principal> the type of principal the authenticator returns
+ */
+public abstract class AbstractCachingAuthenticator<Principal> extends AbstractAuthenticator<Principal> implements Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(AbstractCachingAuthenticator.class);
 
-    private final Cache<String, Optional<Principal>> cache;
+    private final Cache<String, CacheEntry<Principal>> cache;
+    private final long refreshAfterWriteNanos;
+    private final long loadTimeoutMillis;
+    private final Executor loaderExecutor;
+    private final ExecutorService ownedLoaderExecutor;
+    private final NegativeKeyCache unknownKeys;
+    private final PrincipalCacheStats cacheStats;
+    private final CacheEntry<Principal> absent = new CacheEntry<Principal>(null, null, null);
+    private final File snapshotFile;
+    private final AtomicBoolean shutdownHookRegistered = new AtomicBoolean();
+    private volatile boolean closed;
+
+    // Principals being loaded, by API key, so that concurrent requests for one key share a single load
+    private final ConcurrentMap<String, SettableFuture<CacheEntry<Principal>>> loading =
+            new ConcurrentHashMap<String, SettableFuture<CacheEntry<Principal>>>();
 
     protected AbstractCachingAuthenticator(long allowedTimestampSlop, long cacheTimeout, TimeUnit timeUnit, long maxCacheElements) {
-        super(allowedTimestampSlop, timeUnit);
+        this(allowedTimestampSlop, cacheTimeout, timeUnit, maxCacheElements, Clock.systemClock());
+    }
+
+    protected AbstractCachingAuthenticator(long allowedTimestampSlop, long cacheTimeout, TimeUnit timeUnit, long maxCacheElements, Clock clock) {
+        this(allowedTimestampSlop, cacheTimeout, timeUnit, maxCacheElements, clock, null);
+    }
+
+    protected AbstractCachingAuthenticator(long allowedTimestampSlop, long cacheTimeout, TimeUnit timeUnit, long maxCacheElements, Clock clock, ReplayDetector replayDetector) {
+        // API keys without a principal are cached with the principals, as they always have been
+        this(allowedTimestampSlop, timeUnit, clock, replayDetector, PrincipalCacheConfiguration.builder()
+                .withExpireAfterWrite(cacheTimeout, timeUnit)
+                .withMaximumSize(maxCacheElements)
+                .withNegativeMaximumSize(0)
+                .build());
+    }
+
+    protected AbstractCachingAuthenticator(long allowedTimestampSlop, TimeUnit timeUnit, Clock clock, ReplayDetector replayDetector, PrincipalCacheConfiguration cacheConfiguration) {
+        super(allowedTimestampSlop, timeUnit, clock, replayDetector);
         cache = CacheBuilder.newBuilder()
-            .maximumSize(maxCacheElements)
-            .expireAfterWrite(cacheTimeout, timeUnit)
+            .maximumSize(cacheConfiguration.getMaximumSize())
+            .expireAfterWrite(cacheConfiguration.getExpireAfterWriteMillis(), TimeUnit.MILLISECONDS)
+            .removalListener(new RemovalListener<String, CacheEntry<Principal>>() {
+                @Override
+                public void onRemoval(RemovalNotification<String, CacheEntry<Principal>> notification) {
+                    if (notification.getCause() == RemovalCause.SIZE) {
+                        cacheStats.recordEviction();
+                    } else if (notification.getCause() == RemovalCause.EXPIRED) {
+                        cacheStats.recordExpiration();
+                    }
+                }
+            })
             .build();
+        refreshAfterWriteNanos = TimeUnit.MILLISECONDS.toNanos(cacheConfiguration.getRefreshAfterWriteMillis());
+        loadTimeoutMillis = cacheConfiguration.getLoadTimeoutMillis();
+        ownedLoaderExecutor = cacheConfiguration.getLoaderExecutor() == null && refreshAfterWriteNanos > 0
+                ? newLoaderExecutor(cacheConfiguration)
+                : null;
+        loaderExecutor = ownedLoaderExecutor != null ? ownedLoaderExecutor : cacheConfiguration.getLoaderExecutor();
+        cacheStats = new PrincipalCacheStats(cache);
+        unknownKeys = cacheConfiguration.getNegativeMaximumSize() > 0
+                ? new NegativeKeyCache(cacheConfiguration.getNegativeMaximumSize(), cacheConfiguration.getNegativeExpireAfterWriteMillis())
+                : null;
+
+        snapshotFile = cacheConfiguration.getSnapshotFile();
     }
 
     /**
@@ -29,35 +137,97 @@ public abstract class AbstractCachingAuthenticator<Principal> extends AbstractAu
      */
     protected void clearCache() {
         cache.invalidateAll();
+        if (unknownKeys != null) {
+            unknownKeys.clear();
+        }
+    }
+
+    /**
+     * Stop the threads that refresh principals in the background, if the authenticator created them; an executor
+     * that was {@link PrincipalCacheConfiguration.Builder#withLoaderExecutor configured} is left running. Requests
+     * can still be authenticated afterwards, but cached principals are no longer refreshed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (ownedLoaderExecutor != null) {
+            ownedLoaderExecutor.shutdown();
+        }
+    }
+
+    /**
+     * @return statistics of the principal cache, which can also be published through JMX
+     */
+    public PrincipalCacheStats getCacheStats() {
+        return cacheStats;
     }
 
     /**
      * Do the loading of the Principal based on the Credentials.  Note that this will only be called if the Credentials
-     * object is not found in the in-memory cache.
+     * object is not found in the in-memory cache, or when a cached Principal is refreshed in the background; a refresh
+     * passes the Credentials of the request the Principal was first loaded for, without their content.
      *
-     * <p>Note: it is safe to return null from this method if the Principal is not found for these Credentials, and that will be cached.
+     * <p>Note: it is safe to return null from this method if the Principal is not found for these Credentials, and that will be
+     * cached, apart from the Principals if so configured by {@link PrincipalCacheConfiguration.Builder#withNegativeMaximumSize}.
      * @param credentials   the credentials
      */
     protected abstract Principal loadPrincipal(Credentials credentials);
 
     /**
-     * If the Principal for this Credentials is already cached, return it.  Otherwise call {@link #loadPrincipal} and cache the results.
+     * Load the Principal based on the Credentials without blocking, for requests that are
+     * {@link #authenticateAsync authenticated asynchronously} and miss the cache. This calls {@link #loadPrincipal}
+     * on the calling thread; override it if the Principal has to be fetched from elsewhere. The result is cached
+     * just as that of {@link #loadPrincipal} is.
+     *
+     * @param credentials   the credentials
+     * @return a future of the Principal, or of null if there is none
      */
-    @Override
-    protected final Principal getPrincipal(final Credentials credentials) {
+    protected ListenableFuture<Principal> loadPrincipalAsync(Credentials credentials) {
         try {
-            Optional<Principal> principalOptional = cache.get(credentials.getApiKey(), new Callable<Optional<Principal>>() {
-                public Optional<Principal> call() throws Exception {
-                    return Optional.fromNullable(loadPrincipal(credentials));
-                }
-            });
-            return principalOptional.orNull();
-        } catch (ExecutionException e) {
-            LOG.warn("Exception when loading the cache for credentials with API key " + credentials.getApiKey());
-            return null;
+            return Futures.immediateFuture(loadPrincipal(credentials));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
         }
     }
 
+    /**
+     * If the Principal for this Credentials is already cached, return it.  Otherwise call {@link #loadPrincipal} and cache the results.
+     */
+    @Override
+    protected final Principal getPrincipal(Credentials credentials) {
+        return getEntry(credentials).principal;
+    }
+
+    /**
+     * If the Principal for this Credentials is already cached, return it.  Otherwise call {@link #loadPrincipalAsync} and cache the results.
+     */
+    @Override
+    protected final ListenableFuture<Principal> getPrincipalAsync(Credentials credentials) {
+        return Futures.transform(getEntryAsync(credentials), new Function<CacheEntry<Principal>, Principal>() {
+            @Override
+            public Principal apply(CacheEntry<Principal> entry) {
+                return entry.principal;
+            }
+        });
+    }
+
+    @Override
+    void lookUpPrincipal(AuthenticationContext<Principal> context) {
+        CacheEntry<Principal> entry = getEntry(context.getCredentials());
+        context.setPrincipal(entry.principal, entry.signingKey);
+    }
+
+    @Override
+    ListenableFuture<?> lookUpPrincipalAsync(final AuthenticationContext<Principal> context) {
+        return Futures.transform(getEntryAsync(context.getCredentials()), new Function<CacheEntry<Principal>, Object>() {
+            @Override
+            public Object apply(CacheEntry<Principal> entry) {
+                context.setPrincipal(entry.principal, entry.signingKey);
+                return entry;
+            }
+        });
+    }
+
     /**
      * Put this principal directly into cache.  This can avoid lookup on
      * user request and "prepay" the lookup cost.
@@ -65,6 +235,370 @@ public abstract class AbstractCachingAuthenticator<Principal> extends AbstractAu
      * @param principal     the principal
      */
     protected void cachePrincipal(String apiKey, Principal principal) {
-        cache.put(apiKey, Optional.fromNullable(principal));
+        if (principal == null) {
+            if (unknownKeys != null) {
+                cache.invalidate(apiKey);
+                unknownKeys.add(apiKey);
+            } else {
+                cache.put(apiKey, absent);
+            }
+            return;
+        }
+        if (unknownKeys != null) {
+            unknownKeys.remove(apiKey);
+        }
+        cache.put(apiKey, newEntry(principal, Credentials.builder().withApiKey(apiKey).build()));
+    }
+
+    /**
+     * Load the principals for a number of API keys at once and cache them, e.g. to warm up the cache at startup.
+     * The principals are loaded by {@link #loadPrincipals}.
+     *
+     * @param apiKeys the API keys
+     */
+    public void loadAll(Iterable<String> apiKeys) {
+        Set<String> keys = ImmutableSet.copyOf(apiKeys);
+        Map<String, Principal> principals = loadPrincipals(keys);
+        for (String apiKey : keys) {
+            cachePrincipal(apiKey, principals.get(apiKey));
+        }
+    }
+
+    /**
+     * Load the principals for a number of API keys. This calls {@link #loadPrincipal} for each key in turn;
+     * override it to fetch them in bulk instead.
+     *
+     * @param apiKeys the API keys
+     * @return the principals found, by API key; keys that have no principal can be left out
+     */
+    protected Map<String, Principal> loadPrincipals(Set<String> apiKeys) {
+        Map<String, Principal> principals = Maps.newHashMap();
+        for (String apiKey : apiKeys) {
+            Principal principal = loadPrincipal(Credentials.builder().withApiKey(apiKey).build());
+            if (principal != null) {
+                principals.put(apiKey, principal);
+            }
+        }
+        return principals;
+    }
+
+    /**
+     * Load the principals whose API keys were saved to the configured
+     * {@link PrincipalCacheConfiguration.Builder#withSnapshotFile snapshot file}, if it exists.
+     *
+     * @return the number of API keys in the snapshot
+     * @throws IOException if the snapshot cannot be read
+     */
+    public int loadSnapshot() throws IOException {
+        if (snapshotFile == null || !snapshotFile.exists()) {
+            return 0;
+        }
+        List<String> apiKeys = Lists.newArrayList(Splitter.on('\n').trimResults().omitEmptyStrings()
+                .split(Files.toString(snapshotFile, Charsets.UTF_8)));
+        loadAll(apiKeys);
+        LOG.info("Loaded {} principals from snapshot {}", apiKeys.size(), snapshotFile);
+        return apiKeys.size();
+    }
+
+    /**
+     * Save the API keys of the cached principals to the configured
+     * {@link PrincipalCacheConfiguration.Builder#withSnapshotFile snapshot file}, e.g. when the server is stopped.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void writeSnapshot() throws IOException {
+        if (snapshotFile == null) {
+            throw new IllegalStateException("No snapshot file has been configured");
+        }
+        writeSnapshot(snapshotFile);
+    }
+
+    /**
+     * Save the API keys of the cached principals to the configured snapshot file when the JVM shuts down, for
+     * servers that are not stopped in an orderly way that could call {@link #writeSnapshot()}. The hook is only
+     * registered once, however many times this is called, and keeps the authenticator from being garbage
+     * collected until the JVM exits.
+     */
+    public void writeSnapshotOnShutdown() {
+        if (snapshotFile == null) {
+            throw new IllegalStateException("No snapshot file has been configured");
+        }
+        if (shutdownHookRegistered.compareAndSet(false, true)) {
+            Runtime.getRuntime().addShutdownHook(new Thread("hmac-principal-cache-snapshot") {
+                @Override
+                public void run() {
+                    try {
+                        writeSnapshot(snapshotFile);
+                    } catch (IOException e) {
+                        LOG.warn("Could not save principal cache snapshot to " + snapshotFile, e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Save the API keys of the cached principals, one per line. The file is replaced in one step, so a reader
+     * never sees a partial snapshot.
+     *
+     * @param file the file to save to
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void writeSnapshot(File file) throws IOException {
+        List<String> apiKeys = Lists.newArrayList();
+        for (Map.Entry<String, CacheEntry<Principal>> entry : cache.asMap().entrySet()) {
+            String apiKey = entry.getKey();
+            if (entry.getValue().principal != null && apiKey.indexOf('\n') < 0) {
+                apiKeys.add(apiKey);
+            }
+        }
+
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        Files.write(Joiner.on('\n').join(apiKeys), temporaryFile, Charsets.UTF_8);
+        if (!temporaryFile.renameTo(file) && !(file.delete() && temporaryFile.renameTo(file))) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private CacheEntry<Principal> getEntry(final Credentials credentials) {
+        CacheEntry<Principal> entry = getCachedEntry(credentials);
+        if (entry != null) {
+            return entry;
+        }
+
+        SettableFuture<CacheEntry<Principal>> load = SettableFuture.create();
+        SettableFuture<CacheEntry<Principal>> existing = loading.putIfAbsent(credentials.getApiKey(), load);
+        if (existing != null) {
+            return awaitLoad(credentials, existing);
+        }
+        removeWhenDone(credentials, load);
+
+        try {
+            return completeLoad(credentials, load, timedLoadPrincipal(credentials));
+        } catch (RuntimeException e) {
+            load.setException(e);
+            throw e;
+        } catch (Error e) {
+            load.setException(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for a principal that another request is loading, parked rather than holding a lock. If it takes too
+     * long, the load is failed, so that the next request for the principal starts another.
+     */
+    private CacheEntry<Principal> awaitLoad(Credentials credentials, SettableFuture<CacheEntry<Principal>> load) {
+        try {
+            return Uninterruptibles.getUninterruptibly(load, loadTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (TimeoutException e) {
+            UncheckedTimeoutException timeout = new UncheckedTimeoutException(
+                    "Timed out loading the principal for API key " + credentials.getApiKey());
+            load.setException(timeout);
+            throw timeout;
+        }
+    }
+
+    private ListenableFuture<CacheEntry<Principal>> getEntryAsync(final Credentials credentials) {
+        CacheEntry<Principal> entry = getCachedEntry(credentials);
+        if (entry != null) {
+            return Futures.immediateFuture(entry);
+        }
+
+        final SettableFuture<CacheEntry<Principal>> load = SettableFuture.create();
+        SettableFuture<CacheEntry<Principal>> existing = loading.putIfAbsent(credentials.getApiKey(), load);
+        if (existing != null) {
+            return existing;
+        }
+        removeWhenDone(credentials, load);
+
+        final long start = System.nanoTime();
+        ListenableFuture<Principal> principal;
+        try {
+            principal = loadPrincipalAsync(credentials);
+        } catch (RuntimeException e) {
+            principal = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(principal, new FutureCallback<Principal>() {
+            @Override
+            public void onSuccess(Principal principal) {
+                cacheStats.recordLoad(System.nanoTime() - start, false);
+                try {
+                    completeLoad(credentials, load, principal);
+                } catch (RuntimeException e) {
+                    load.setException(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                cacheStats.recordLoad(System.nanoTime() - start, true);
+                LOG.warn("Exception when loading the cache for credentials with API key " + credentials.getApiKey());
+                load.setException(t);
+            }
+        });
+        return load;
+    }
+
+    /**
+     * Cache a principal that has been loaded, and hand it to the requests waiting for it.
+     */
+    private CacheEntry<Principal> completeLoad(Credentials credentials, SettableFuture<CacheEntry<Principal>> load,
+                                               Principal principal) {
+        CacheEntry<Principal> entry = absent;
+        if (principal != null) {
+            entry = newEntry(principal, credentials);
+            cache.put(credentials.getApiKey(), entry);
+        } else if (unknownKeys != null) {
+            unknownKeys.add(credentials.getApiKey());
+        } else {
+            cache.put(credentials.getApiKey(), absent);
+        }
+        load.set(entry);
+        return entry;
+    }
+
+    /**
+     * Stop sharing a load with new requests once it is done, however it ends.
+     */
+    private void removeWhenDone(Credentials credentials, final SettableFuture<CacheEntry<Principal>> load) {
+        final String apiKey = credentials.getApiKey();
+        load.addListener(new Runnable() {
+            @Override
+            public void run() {
+                loading.remove(apiKey, load);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    /**
+     * @return the cached entry for the credentials' API key, {@code absent} if the key is known to have no
+     * principal, or null if it has to be loaded
+     */
+    private CacheEntry<Principal> getCachedEntry(Credentials credentials) {
+        // A cached entry that is due for a refresh is returned as it is, while it reloads in the background
+        CacheEntry<Principal> entry = cache.getIfPresent(credentials.getApiKey());
+        if (entry == absent) {
+            cacheStats.recordNegativeHit();
+            return entry;
+        }
+        if (entry != null) {
+            cacheStats.recordHit();
+            if (!closed && entry.startRefresh(refreshAfterWriteNanos)) {
+                refresh(credentials.getApiKey(), entry);
+            }
+            return entry;
+        }
+        if (unknownKeys != null && unknownKeys.contains(credentials.getApiKey())) {
+            cacheStats.recordNegativeHit();
+            return absent;
+        }
+
+        cacheStats.recordMiss();
+        return null;
+    }
+
+    /**
+     * Reload a cached principal on the loader executor, and replace it unless it has been replaced or removed
+     * in the meantime. A principal that has gone away is removed from the cache and its API key remembered as
+     * unknown, rather than cached, so it is not reloaded again and again.
+     */
+    private void refresh(final String apiKey, final CacheEntry<Principal> oldEntry) {
+        try {
+            loaderExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Principal principal;
+                    try {
+                        principal = timedLoadPrincipal(oldEntry.credentials);
+                    } catch (RuntimeException e) {
+                        // Keep the cached principal, and try again on the next request for it
+                        LOG.warn("Exception when refreshing the cache for credentials with API key " + apiKey, e);
+                        oldEntry.refreshing.set(false);
+                        return;
+                    }
+
+                    if (principal != null) {
+                        cache.asMap().replace(apiKey, oldEntry, newEntry(principal, oldEntry.credentials));
+                    } else if (cache.asMap().remove(apiKey, oldEntry) && unknownKeys != null) {
+                        unknownKeys.add(apiKey);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Could not refresh the cache for credentials with API key " + apiKey, e);
+            oldEntry.refreshing.set(false);
+        }
+    }
+
+    private Principal timedLoadPrincipal(Credentials credentials) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Principal principal = loadPrincipal(credentials);
+            failed = false;
+            return principal;
+        } finally {
+            cacheStats.recordLoad(System.nanoTime() - start, failed);
+        }
+    }
+
+    private CacheEntry<Principal> newEntry(Principal principal, Credentials credentials) {
+        SigningKey signingKey = null;
+        if (principal != null) {
+            try {
+                signingKey = new SigningKey(getSecretKeyFromPrincipal(principal));
+            } catch (RuntimeException e) {
+                // Leave the key to be derived for each request, which reports the problem as it always has
+                LOG.warn("Could not initialize the secret key of a principal", e);
+            }
+        }
+        return new CacheEntry<Principal>(principal, signingKey, credentials);
+    }
+
+    @VisibleForTesting
+    Executor getLoaderExecutor() {
+        return loaderExecutor;
+    }
+
+    private static ExecutorService newLoaderExecutor(PrincipalCacheConfiguration cacheConfiguration) {
+        return Executors.newFixedThreadPool(cacheConfiguration.getLoaderThreads(), new ThreadFactoryBuilder()
+                .setNameFormat("hmac-principal-loader-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    private static class CacheEntry<Principal> {
+        private final Principal principal;
+        private final SigningKey signingKey;
+        private final Credentials credentials;
+        private final long loadedAtNanos = System.nanoTime();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private CacheEntry(Principal principal, SigningKey signingKey, Credentials credentials) {
+            this.principal = principal;
+            this.signingKey = signingKey;
+            // Keep what is needed to reload the principal, but not the content of the request it was loaded for
+            this.credentials = credentials == null ? null : Credentials.builder()
+                    .withVersion(credentials.getVersion())
+                    .withApiKey(credentials.getApiKey())
+                    .withSignature(credentials.getSignature())
+                    .withPath(credentials.getPath())
+                    .withTimestamp(credentials.getTimestamp())
+                    .withMethod(credentials.getMethod())
+                    .build();
+        }
+
+        /**
+         * @return true if the principal is due for a refresh and no other request has started one
+         */
+        private boolean startRefresh(long refreshAfterWriteNanos) {
+            return refreshAfterWriteNanos > 0
+                    && principal != null
+                    && System.nanoTime() - loadedAtNanos >= refreshAfterWriteNanos
+                    && refreshing.compareAndSet(false, true);
+        }
     }
 }
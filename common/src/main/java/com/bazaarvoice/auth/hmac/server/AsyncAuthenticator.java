@@ -0,0 +1,25 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.bazaarvoice.auth.hmac.common.Credentials;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * An {@link Authenticator} that can authenticate a request without blocking the calling thread while the
+ * principal is fetched, e.g. from a remote credential store.
+ *
+ * @param <Principal> the type of principal the authenticator returns
+ */
+public interface AsyncAuthenticator<Principal> extends Authenticator<Principal> {
+
+    /**
+     * Given a set of user-supplied credentials, start authenticating them.
+     * <p>If the credentials are valid and map to a principal, the future completes with a non-null principal.
+     * <p>If the credentials are invalid, the future completes with null.
+     * <p>If the credentials cannot be validated due to an underlying error condition, the future fails.
+     * <p>The request content, if any, is read by whichever thread completes the principal lookup.
+     *
+     * @param credentials a set of user-supplied credentials
+     * @return a future of either an authenticated principal or null
+     */
+    ListenableFuture<Principal> authenticateAsync(Credentials credentials);
+}
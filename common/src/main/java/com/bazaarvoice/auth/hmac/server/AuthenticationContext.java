@@ -0,0 +1,54 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.bazaarvoice.auth.hmac.common.Credentials;
+import com.bazaarvoice.auth.hmac.common.SigningKey;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The state of a request as it passes through the {@link AuthenticationStage}s of an authenticator.
+ *
+ * @param <Principal> the type of principal the authenticator returns
+ */
+public class AuthenticationContext<Principal> {
+    private final Credentials credentials;
+    private Principal principal;
+    private SigningKey signingKey;
+
+    public AuthenticationContext(Credentials credentials) {
+        this.credentials = checkNotNull(credentials);
+    }
+
+    public Credentials getCredentials() {
+        return credentials;
+    }
+
+    /**
+     * @return the principal identified by the credentials, or null if no stage has looked it up yet
+     */
+    public Principal getPrincipal() {
+        return principal;
+    }
+
+    public void setPrincipal(Principal principal) {
+        setPrincipal(principal, null);
+    }
+
+    /**
+     * Set the principal together with its secret key, when the key has already been initialized.
+     *
+     * @param principal the principal identified by the credentials
+     * @param signingKey the principal's secret key, or null to get it from the authenticator
+     */
+    public void setPrincipal(Principal principal, SigningKey signingKey) {
+        this.principal = principal;
+        this.signingKey = signingKey;
+    }
+
+    /**
+     * @return the secret key of the principal, or null if it has not been initialized yet
+     */
+    public SigningKey getSigningKey() {
+        return signingKey;
+    }
+}
@@ -0,0 +1,34 @@
+package com.bazaarvoice.auth.hmac.server;
+
+/**
+ * Receives the timings of the steps a request goes through while it is authenticated, and how its
+ * authentication ended. Set one on an {@link AbstractAuthenticator} with
+ * {@link AbstractAuthenticator#setAuthenticationListener}; the request handlers of both servers report the
+ * steps that happen before the authenticator is called through the same listener.
+ * <p>
+ * The steps are named {@code "decode"} for reading the credentials from the request, the name of each
+ * {@link AuthenticationStage} (by default {@code "timestamp"} and {@code "principal"}), {@code "content"} for
+ * reading the request body and {@code "signature"} for computing and comparing the signature. Steps that a
+ * request does not get as far as are not reported. Listeners are called on request threads and must be
+ * thread safe and quick.
+ *
+ * @see AuthenticationMetrics
+ */
+public interface AuthenticationListener {
+    String DECODE = "decode";
+    String CONTENT = "content";
+    String SIGNATURE = "signature";
+
+    /**
+     * @param step the name of the step
+     * @param elapsedNanos how long the step took
+     */
+    void stepCompleted(String step, long elapsedNanos);
+
+    /**
+     * @param outcome how authentication ended
+     * @param elapsedNanos how long authentication took, from when the authenticator was called or, for
+     *                     requests rejected before that, from when the request handler was
+     */
+    void requestCompleted(AuthenticationOutcome outcome, long elapsedNanos);
+}
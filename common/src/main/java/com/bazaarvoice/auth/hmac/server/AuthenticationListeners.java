@@ -0,0 +1,37 @@
+package com.bazaarvoice.auth.hmac.server;
+
+/**
+ * Helpers for request handlers that report to the {@link AuthenticationListener} of their authenticator.
+ */
+final class AuthenticationListeners {
+    private AuthenticationListeners() {
+    }
+
+    /**
+     * @return the listener of the authenticator, or null if it has none
+     */
+    static AuthenticationListener of(Authenticator<?> authenticator) {
+        return authenticator instanceof AbstractAuthenticator
+                ? ((AbstractAuthenticator<?>) authenticator).getAuthenticationListener()
+                : null;
+    }
+
+    /**
+     * @return the time to measure from, or 0 if there is no listener to report to
+     */
+    static long start(AuthenticationListener listener) {
+        return listener != null ? System.nanoTime() : 0;
+    }
+
+    static void stepCompleted(AuthenticationListener listener, String step, long start) {
+        if (listener != null) {
+            listener.stepCompleted(step, System.nanoTime() - start);
+        }
+    }
+
+    static void requestCompleted(AuthenticationListener listener, AuthenticationOutcome outcome, long start) {
+        if (listener != null) {
+            listener.requestCompleted(outcome, System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An {@link AuthenticationListener} that keeps a latency histogram per step and a count per outcome, and can
+ * publish them through JMX. Recording a value takes a map lookup and a few atomic increments.
+ */
+public class AuthenticationMetrics implements AuthenticationListener, AuthenticationMetricsMXBean {
+    private static final String OBJECT_NAME_PREFIX = "com.bazaarvoice.auth.hmac:type=Authentication,name=";
+
+    private final ConcurrentMap<String, LatencyHistogram> steps = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final AtomicLongArray outcomes = new AtomicLongArray(AuthenticationOutcome.values().length);
+
+    /**
+     * Register these metrics with the platform MBean server.
+     *
+     * @param name distinguishes these metrics from those of other authenticators
+     * @return the name the metrics were registered under
+     */
+    public ObjectName registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to register authentication MBean", e);
+        }
+    }
+
+    @Override
+    public void stepCompleted(String step, long elapsedNanos) {
+        LatencyHistogram histogram = steps.get(step);
+        if (histogram == null) {
+            steps.putIfAbsent(step, new LatencyHistogram());
+            histogram = steps.get(step);
+        }
+        histogram.record(elapsedNanos);
+    }
+
+    @Override
+    public void requestCompleted(AuthenticationOutcome outcome, long elapsedNanos) {
+        outcomes.incrementAndGet(outcome.ordinal());
+    }
+
+    public long getOutcomeCount(AuthenticationOutcome outcome) {
+        return outcomes.get(outcome.ordinal());
+    }
+
+    /**
+     * @param step the name of the step
+     * @param quantile the quantile, between 0 and 1
+     * @return the latency below which the given fraction of the step's timings fall, or 0 if there are none
+     */
+    public double getStepMillisPercentile(String step, double quantile) {
+        LatencyHistogram histogram = steps.get(step);
+        return histogram == null ? 0.0 : histogram.getPercentileMillis(quantile);
+    }
+
+    @Override
+    public Map<String, Long> getOutcomeCounts() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (AuthenticationOutcome outcome : AuthenticationOutcome.values()) {
+            counts.put(outcome.name(), getOutcomeCount(outcome));
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getStepCounts() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, LatencyHistogram> step : steps.entrySet()) {
+            counts.put(step.getKey(), step.getValue().getCount());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getStepMeanMillis() {
+        Map<String, Double> means = new TreeMap<String, Double>();
+        for (Map.Entry<String, LatencyHistogram> step : steps.entrySet()) {
+            means.put(step.getKey(), step.getValue().getMeanMillis());
+        }
+        return means;
+    }
+
+    @Override
+    public Map<String, Double> getStepMillis50thPercentile() {
+        return getStepPercentiles(0.5);
+    }
+
+    @Override
+    public Map<String, Double> getStepMillis99thPercentile() {
+        return getStepPercentiles(0.99);
+    }
+
+    @Override
+    public Map<String, Double> getStepMillis999thPercentile() {
+        return getStepPercentiles(0.999);
+    }
+
+    private Map<String, Double> getStepPercentiles(double quantile) {
+        Map<String, Double> percentiles = new TreeMap<String, Double>();
+        for (Map.Entry<String, LatencyHistogram> step : steps.entrySet()) {
+            percentiles.put(step.getKey(), step.getValue().getPercentileMillis(quantile));
+        }
+        return percentiles;
+    }
+}
@@ -0,0 +1,20 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link AuthenticationMetrics}. Maps are keyed by outcome or by step name.
+ */
+public interface AuthenticationMetricsMXBean {
+    Map<String, Long> getOutcomeCounts();
+
+    Map<String, Long> getStepCounts();
+
+    Map<String, Double> getStepMeanMillis();
+
+    Map<String, Double> getStepMillis50thPercentile();
+
+    Map<String, Double> getStepMillis99thPercentile();
+
+    Map<String, Double> getStepMillis999thPercentile();
+}
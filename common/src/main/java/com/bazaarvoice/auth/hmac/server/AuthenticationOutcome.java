@@ -0,0 +1,25 @@
+package com.bazaarvoice.auth.hmac.server;
+
+/**
+ * How the authentication of a request ended, as reported to an {@link AuthenticationListener}.
+ */
+public enum AuthenticationOutcome {
+    /** The request was authenticated. */
+    AUTHENTICATED,
+    /** The credentials could not be read from the request. */
+    DECODE_ERROR,
+    /** The request timestamp was outside the allowed range. */
+    INVALID_TIMESTAMP,
+    /** No principal was found for the API key. */
+    UNKNOWN_PRINCIPAL,
+    /** The request was rejected by a custom {@link AuthenticationStage}. */
+    REJECTED,
+    /** The request signature did not match. */
+    BAD_SIGNATURE,
+    /** The request had already been authenticated once. */
+    REPLAYED,
+    /** The request content was larger than may be signed. */
+    CONTENT_TOO_LARGE,
+    /** Authentication failed with an unexpected exception. */
+    ERROR
+}
@@ -0,0 +1,24 @@
+package com.bazaarvoice.auth.hmac.server;
+
+/**
+ * One of the checks that {@link AbstractAuthenticator} runs, in order, before it verifies the request
+ * signature. Stages should be ordered from cheapest to most expensive, so that most invalid requests are
+ * rejected before the principal is looked up or the request content is read.
+ *
+ * @param <Principal> the type of principal the authenticator returns
+ */
+public interface AuthenticationStage<Principal> {
+    /**
+     * @return a short name for the stage, used when reporting which stage rejected a request
+     */
+    String getName();
+
+    /**
+     * Check the request. A stage may also record what it finds, such as the principal, in the context for
+     * later stages.
+     *
+     * @param context the request being authenticated
+     * @return true to continue with the next stage, or false to reject the request
+     */
+    boolean apply(AuthenticationContext<Principal> context);
+}
@@ -0,0 +1,283 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.ByteSource;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds a request body that has to be read in full before the request can be authenticated, while keeping
+ * the heap used by large bodies bounded.
+ * <p>
+ * Bodies up to a configurable threshold are kept in memory, in fixed-size chunks that are recycled through a
+ * shared pool once the buffer is released. Larger bodies are spilled to a temporary file and read back
+ * through its {@link FileChannel}. Where the platform allows it, the file is unlinked as soon as it has been
+ * opened, so nothing is left on disk even if the buffer is never released.
+ * <p>
+ * Any number of independent streams can be opened on the buffer until it is {@link #close closed}.
+ */
+public class ContentBuffer extends ByteSource implements Closeable {
+    private static final int CHUNK_SIZE = 8192;
+    private static final int MAX_POOLED_CHUNKS = 1024;
+    private static final Queue<byte[]> CHUNK_POOL = new ConcurrentLinkedQueue<byte[]>();
+    private static final AtomicInteger POOLED_CHUNKS = new AtomicInteger();
+    private static final AtomicInteger OPEN_SPILLED_BUFFERS = new AtomicInteger();
+
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private long size;
+    private File file;
+    private FileChannel channel;
+
+    /**
+     * Read an entire stream into a new buffer. The stream is not closed.
+     *
+     * @param in the stream to read
+     * @param memoryThreshold the number of bytes above which the content is spilled to a temporary file
+     * @param directory the directory for temporary files, or null for the system default
+     * @return the buffer, which should be closed once its content is no longer needed
+     */
+    public static ContentBuffer read(InputStream in, long memoryThreshold, File directory) throws IOException {
+        ContentBuffer buffer = new ContentBuffer();
+        boolean filled = false;
+        try {
+            buffer.fill(in, memoryThreshold, directory);
+            filled = true;
+            return buffer;
+        } finally {
+            if (!filled) {
+                buffer.close();
+            }
+        }
+    }
+
+    private ContentBuffer() {
+    }
+
+    /**
+     * @return true if the content was spilled to a temporary file
+     */
+    public boolean isSpilled() {
+        return channel != null;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        checkOpen();
+        return new ContentStream(false);
+    }
+
+    /**
+     * Open a stream over the content that releases this buffer when the stream is closed. This is meant to
+     * replace a request entity once it has been authenticated, so that a resource that closes the entity
+     * releases the buffer as soon as it is done with it. Neither containers nor message body readers close
+     * request entities, so the buffer must still be closed once the request has been handled.
+     */
+    public InputStream openReleasingStream() throws IOException {
+        checkOpen();
+        return new ContentStream(true);
+    }
+
+    /**
+     * Release the memory or temporary file holding the content. Streams opened on the buffer fail after this.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        for (byte[] chunk : chunks) {
+            releaseChunk(chunk);
+        }
+        chunks.clear();
+
+        if (channel != null) {
+            OPEN_SPILLED_BUFFERS.decrementAndGet();
+            try {
+                channel.close();
+            } finally {
+                if (file != null && !file.delete()) {
+                    file.deleteOnExit();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of buffers that have spilled to a temporary file and not been closed yet
+     */
+    @VisibleForTesting
+    static int getOpenSpilledBuffers() {
+        return OPEN_SPILLED_BUFFERS.get();
+    }
+
+    private void fill(InputStream in, long memoryThreshold, File directory) throws IOException {
+        byte[] chunk = acquireChunk();
+        int used = 0;
+        while (true) {
+            int count = in.read(chunk, used, chunk.length - used);
+            if (count == -1) {
+                break;
+            }
+            used += count;
+            size += count;
+
+            if (size > memoryThreshold) {
+                chunks.add(chunk);
+                spill(in, directory, used);
+                return;
+            }
+            if (used == chunk.length) {
+                chunks.add(chunk);
+                chunk = acquireChunk();
+                used = 0;
+            }
+        }
+
+        if (used > 0) {
+            chunks.add(chunk);
+        } else {
+            releaseChunk(chunk);
+        }
+    }
+
+    private void spill(InputStream in, File directory, int usedInLastChunk) throws IOException {
+        file = File.createTempFile("hmac-content", ".tmp", directory);
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        OPEN_SPILLED_BUFFERS.incrementAndGet();
+        if (file.delete()) {
+            // The open channel keeps the content readable; nothing needs to be cleaned up on disk any more
+            file = null;
+        }
+
+        // Move what has been read so far to the file, then copy the rest of the stream straight through
+        for (int i = 0; i < chunks.size(); i++) {
+            int length = (i == chunks.size() - 1) ? usedInLastChunk : CHUNK_SIZE;
+            writeFully(ByteBuffer.wrap(chunks.get(i), 0, length));
+        }
+        byte[] buffer = chunks.remove(chunks.size() - 1);
+        for (byte[] chunk : chunks) {
+            releaseChunk(chunk);
+        }
+        chunks.clear();
+
+        try {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                writeFully(ByteBuffer.wrap(buffer, 0, count));
+                size += count;
+            }
+        } finally {
+            releaseChunk(buffer);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed.get()) {
+            throw new IOException("Content buffer has been released");
+        }
+    }
+
+    private static byte[] acquireChunk() {
+        byte[] chunk = CHUNK_POOL.poll();
+        if (chunk == null) {
+            return new byte[CHUNK_SIZE];
+        }
+        POOLED_CHUNKS.decrementAndGet();
+        return chunk;
+    }
+
+    private static void releaseChunk(byte[] chunk) {
+        if (POOLED_CHUNKS.incrementAndGet() <= MAX_POOLED_CHUNKS) {
+            CHUNK_POOL.offer(chunk);
+        } else {
+            POOLED_CHUNKS.decrementAndGet();
+        }
+    }
+
+    /**
+     * Reads the content from the in-memory chunks or, if it was spilled, from the file at its own position so
+     * that streams do not interfere with one another.
+     */
+    private class ContentStream extends InputStream {
+        private final boolean releaseOnClose;
+        private long position;
+
+        private ContentStream(boolean releaseOnClose) {
+            this.releaseOnClose = releaseOnClose;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkOpen();
+            if (position >= size) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+
+            int count;
+            if (channel != null) {
+                count = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, size - position)), position);
+            } else {
+                int offsetInChunk = (int) (position % CHUNK_SIZE);
+                count = (int) Math.min(Math.min(len, CHUNK_SIZE - offsetInChunk), size - position);
+                System.arraycopy(chunks.get((int) (position / CHUNK_SIZE)), offsetInChunk, b, off, count);
+            }
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            checkOpen();
+            long skipped = Math.max(0, Math.min(n, size - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            checkOpen();
+            return (int) Math.min(Integer.MAX_VALUE, size - position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (releaseOnClose) {
+                ContentBuffer.this.close();
+            }
+        }
+    }
+}
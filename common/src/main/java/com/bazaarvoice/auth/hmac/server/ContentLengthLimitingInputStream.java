@@ -0,0 +1,79 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Wraps a request entity stream so that reading more than a maximum number of bytes from it fails with the
+ * exception returned by {@link #contentTooLarge}. Unlike a truncating stream, this never lets a consumer see
+ * a partial entity as if it were the whole one.
+ */
+public abstract class ContentLengthLimitingInputStream extends FilterInputStream {
+    private final long maxLength;
+    private long remaining;
+
+    protected ContentLengthLimitingInputStream(InputStream in, long maxLength) {
+        super(in);
+        this.maxLength = maxLength;
+        this.remaining = maxLength;
+    }
+
+    /**
+     * @return the exception to fail the read with when the entity is longer than the maximum
+     */
+    protected abstract RuntimeException contentTooLarge();
+
+    public long getMaxLength() {
+        return maxLength;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            consumed(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        // Read at most one byte past the maximum, which is enough to tell that it has been exceeded
+        int count = super.read(b, off, remaining < len ? (int) remaining + 1 : len);
+        if (count > 0) {
+            consumed(count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(remaining < n ? remaining + 1 : n);
+        if (skipped > 0) {
+            consumed(skipped);
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    private void consumed(long count) {
+        remaining -= count;
+        if (remaining < 0) {
+            throw contentTooLarge();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import java.io.IOException;
+
+/**
+ * Thrown by an {@link AbstractAuthenticator} when the request content cannot be read to verify its signature.
+ * The request has been reported to the failure log and the listener as an {@link AuthenticationOutcome#ERROR}
+ * already, so request handlers only have to turn it into a server error.
+ */
+public class ContentReadException extends RuntimeException {
+    public ContentReadException(IOException cause) {
+        super("Error reading content", cause);
+    }
+
+    @Override
+    public IOException getCause() {
+        return (IOException) super.getCause();
+    }
+}
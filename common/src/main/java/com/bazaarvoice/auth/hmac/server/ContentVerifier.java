@@ -0,0 +1,96 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.bazaarvoice.auth.hmac.common.SignatureBuilder;
+import com.google.common.io.ByteSource;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+
+/**
+ * Verifies the signature of a request whose content is supplied incrementally. The principal identified by
+ * the request must not be trusted unless {@link #verify} returns true.
+ *
+ * @param <Principal> the type of principal identified by the request
+ * @see StreamingAuthenticator
+ */
+public class ContentVerifier<Principal> {
+    private final Principal principal;
+    private final SignatureBuilder signature;
+    private final String clientSignature;
+    private Boolean valid;
+
+    /**
+     * @param principal the principal identified by the request credentials
+     * @param signature a signature that has been started with the secret key of the principal
+     * @param clientSignature the signature specified on the request
+     */
+    public ContentVerifier(Principal principal, SignatureBuilder signature, String clientSignature) {
+        this.principal = principal;
+        this.signature = signature;
+        this.clientSignature = clientSignature;
+    }
+
+    public Principal getPrincipal() {
+        return principal;
+    }
+
+    /**
+     * Add request content to the signature being verified.
+     *
+     * @param content the next chunk of content, may be null
+     */
+    public void update(byte[] content) {
+        signature.update(content);
+    }
+
+    /**
+     * Add request content to the signature being verified.
+     *
+     * @param content the next chunk of content
+     */
+    public void update(ByteSource content) throws IOException {
+        content.copyTo(signature.asOutputStream());
+    }
+
+    /**
+     * Add request content to the signature being verified.
+     *
+     * @param content a buffer holding the next chunk of content
+     * @param offset the offset of the chunk in {@code content}
+     * @param length the length of the chunk
+     */
+    public void update(byte[] content, int offset, int length) {
+        signature.update(content, offset, length);
+    }
+
+    /**
+     * Complete the signature over the content supplied so far and compare it to the one specified on the
+     * request. Once called, further content cannot be added; calling it again returns the same result.
+     *
+     * @return true if the signature is valid
+     */
+    public boolean verify() {
+        if (valid == null) {
+            String serverSignature = signature.sign();
+            valid = MessageDigest.isEqual(clientSignature.getBytes(), serverSignature.getBytes()) && acceptVerified();
+        }
+        return valid;
+    }
+
+    /**
+     * @return true once {@link #verify} has been called, after which no more content is added
+     */
+    public boolean isComplete() {
+        return valid != null;
+    }
+
+    /**
+     * Called once the signature has been found to match, for checks that must only be made on authenticated
+     * requests, such as replay detection.
+     *
+     * @return true to accept the request
+     */
+    protected boolean acceptVerified() {
+        return true;
+    }
+}
@@ -0,0 +1,225 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.bazaarvoice.auth.hmac.common.Version;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Logs authentication failures without letting a misbehaving client flood the log. Each failure is an event
+ * with a reason, an API key and a version, logged as {@code key=value} pairs. Only the first few failures for
+ * each API key in an interval are logged as they happen; all of them are counted, and a summary of the counts,
+ * busiest first, is logged at the end of each interval that had any.
+ * <p>
+ * The number of distinct failures counted per interval is bounded, so requests with made-up keys cannot exhaust memory
+ * either; failures beyond the bound are only counted in total.
+ */
+public class FailureLog implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(FailureLog.class);
+    private static final FailureLog DEFAULT = new FailureLog(1, TimeUnit.MINUTES, 5, 1000);
+    private static final int SUMMARY_LINES = 20;
+
+    private final long intervalMillis;
+    private final int maxLoggedPerKey;
+    private final int maxTracked;
+    private final AtomicReference<Window> window = new AtomicReference<Window>(new Window());
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("hmac-failure-log-%d")
+            .setDaemon(true)
+            .build());
+
+    /**
+     * @return the log used by authenticators and request handlers unless they are given another
+     */
+    public static FailureLog getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param interval how often to log a summary
+     * @param timeUnit the unit {@code interval} is expressed in
+     * @param maxLoggedPerKey the number of failures per API key to log as they happen in each interval
+     * @param maxTracked the number of distinct failures (reason, API key and version) to count in each interval
+     */
+    public FailureLog(long interval, TimeUnit timeUnit, int maxLoggedPerKey, int maxTracked) {
+        checkArgument(interval > 0, "Interval must be positive");
+        checkArgument(maxLoggedPerKey >= 0, "Number of failures to log cannot be negative");
+        checkArgument(maxTracked > 0, "Number of tracked failures must be positive");
+        this.intervalMillis = timeUnit.toMillis(interval);
+        this.maxLoggedPerKey = maxLoggedPerKey;
+        this.maxTracked = maxTracked;
+    }
+
+    /**
+     * @return the failure log of the authenticator, or the default one if it has none
+     */
+    static FailureLog of(Authenticator<?> authenticator) {
+        return authenticator instanceof AbstractAuthenticator
+                ? ((AbstractAuthenticator<?>) authenticator).getFailureLog()
+                : DEFAULT;
+    }
+
+    /**
+     * Record an authentication failure.
+     *
+     * @param reason why authentication failed
+     * @param apiKey the API key of the request, or null if it is not known
+     * @param version the version of the request, or null if it is not known
+     * @return true if the failure was logged as it happened, false if it was only counted
+     */
+    public boolean record(AuthenticationOutcome reason, String apiKey, Version version) {
+        startSummaries();
+
+        Window current = window.get();
+        current.total.incrementAndGet();
+
+        Failure failure = new Failure(reason, apiKey, version);
+        AtomicLong count = current.counts.get(failure);
+        if (count == null) {
+            if (current.tracked.incrementAndGet() > maxTracked) {
+                current.tracked.decrementAndGet();
+                current.untracked.incrementAndGet();
+                return false;
+            }
+            AtomicLong existing = current.counts.putIfAbsent(failure, count = new AtomicLong());
+            if (existing != null) {
+                current.tracked.decrementAndGet();
+                count = existing;
+            }
+        }
+        count.incrementAndGet();
+
+        AtomicInteger logged = current.loggedPerKey.get(failure.apiKey);
+        if (logged == null) {
+            AtomicInteger existing = current.loggedPerKey.putIfAbsent(failure.apiKey, logged = new AtomicInteger());
+            if (existing != null) {
+                logged = existing;
+            }
+        }
+        int n = logged.incrementAndGet();
+        if (n > maxLoggedPerKey) {
+            return false;
+        }
+        if (n < maxLoggedPerKey) {
+            LOG.info("Authentication failed: reason={} apiKey={} version={}", reason, failure.apiKey, failure.version);
+        } else {
+            LOG.info("Authentication failed: reason={} apiKey={} version={} (further failures for this API key are summarized every {}s)",
+                    new Object[] {reason, failure.apiKey, failure.version, TimeUnit.MILLISECONDS.toSeconds(intervalMillis)});
+        }
+        return true;
+    }
+
+    /**
+     * Stop logging summaries. Failures counted since the last summary are logged now.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        logSummary();
+    }
+
+    @VisibleForTesting
+    void logSummary() {
+        Window previous = window.getAndSet(new Window());
+        long total = previous.total.get();
+        if (total == 0) {
+            return;
+        }
+
+        List<Map.Entry<Failure, AtomicLong>> failures = new ArrayList<Map.Entry<Failure, AtomicLong>>(previous.counts.entrySet());
+        Collections.sort(failures, new Comparator<Map.Entry<Failure, AtomicLong>>() {
+            @Override
+            public int compare(Map.Entry<Failure, AtomicLong> a, Map.Entry<Failure, AtomicLong> b) {
+                long difference = b.getValue().get() - a.getValue().get();
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+
+        LOG.warn("Authentication failures: total={} distinct={} untracked={}",
+                new Object[] {total, failures.size(), previous.untracked.get()});
+        for (Map.Entry<Failure, AtomicLong> failure : failures.subList(0, Math.min(SUMMARY_LINES, failures.size()))) {
+            Failure key = failure.getKey();
+            LOG.warn("Authentication failures: reason={} apiKey={} version={} count={}",
+                    new Object[] {key.reason, key.apiKey, key.version, failure.getValue().get()});
+        }
+    }
+
+    @VisibleForTesting
+    long getCount(AuthenticationOutcome reason, String apiKey, Version version) {
+        AtomicLong count = window.get().counts.get(new Failure(reason, apiKey, version));
+        return count == null ? 0 : count.get();
+    }
+
+    private void startSummaries() {
+        if (!started.get() && started.compareAndSet(false, true)) {
+            scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        logSummary();
+                    } catch (RuntimeException e) {
+                        LOG.warn("Could not log authentication failure summary", e);
+                    }
+                }
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The failures counted since the last summary.
+     */
+    private static class Window {
+        private final ConcurrentMap<Failure, AtomicLong> counts = new ConcurrentHashMap<Failure, AtomicLong>();
+        private final ConcurrentMap<String, AtomicInteger> loggedPerKey = new ConcurrentHashMap<String, AtomicInteger>();
+        private final AtomicInteger tracked = new AtomicInteger();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong untracked = new AtomicLong();
+    }
+
+    private static class Failure {
+        private final AuthenticationOutcome reason;
+        private final String apiKey;
+        private final String version;
+
+        private Failure(AuthenticationOutcome reason, String apiKey, Version version) {
+            this.reason = reason;
+            this.apiKey = apiKey != null ? apiKey : "-";
+            this.version = version != null ? version.toString() : "-";
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Failure)) {
+                return false;
+            }
+            Failure other = (Failure) obj;
+            return reason == other.reason && apiKey.equals(other.apiKey) && version.equals(other.version);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(reason, apiKey, version);
+        }
+    }
+}
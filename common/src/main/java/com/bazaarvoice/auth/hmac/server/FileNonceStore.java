@@ -0,0 +1,166 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.bazaarvoice.auth.hmac.common.Clock;
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link NonceStore} kept in a local file, which any number of processes on the same host can share. It
+ * stands in for a real shared store when testing a cluster of servers on one machine, and is not meant for
+ * production: the file is only appended to, so it grows with every authenticated request.
+ * <p>
+ * Each line of the file is a nonce's expiry time followed by its key. The file is locked while a batch is
+ * checked and appended, and every process reads what the others have appended before checking its own
+ * batch. All file access happens on a single background thread.
+ */
+public class FileNonceStore implements NonceStore, Closeable {
+    private static final int SWEEP_INTERVAL = 4096;
+
+    // File locks are held by the whole JVM, so stores in one JVM sharing a file have to take turns first
+    private static final ConcurrentMap<String, Object> JVM_LOCKS = new ConcurrentHashMap<String, Object>();
+
+    private final Object jvmLock;
+    private final FileChannel channel;
+    private final Clock clock;
+    private final ListeningExecutorService executor;
+    private final Map<String, Long> nonces = new HashMap<String, Long>();
+    private final StringBuilder partialLine = new StringBuilder();
+    private long position;
+    private int addsSinceSweep;
+
+    public FileNonceStore(File file) throws IOException {
+        this(file, Clock.systemClock());
+    }
+
+    public FileNonceStore(File file, Clock clock) throws IOException {
+        String path = file.getCanonicalPath();
+        JVM_LOCKS.putIfAbsent(path, new Object());
+        this.jvmLock = JVM_LOCKS.get(path);
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.clock = checkNotNull(clock);
+        this.executor = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("hmac-file-nonce-store-%d")
+                .setDaemon(true)
+                .build()));
+    }
+
+    @Override
+    public ListenableFuture<List<Boolean>> putIfAbsent(final List<Nonce> batch) {
+        return executor.submit(new Callable<List<Boolean>>() {
+            @Override
+            public List<Boolean> call() throws IOException {
+                synchronized (jvmLock) {
+                    return putIfAbsentLocked(batch);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        channel.close();
+    }
+
+    private List<Boolean> putIfAbsentLocked(List<Nonce> batch) throws IOException {
+        FileLock lock = channel.lock();
+        try {
+            readAppended();
+
+            long now = clock.millis();
+            List<Boolean> results = new ArrayList<Boolean>(batch.size());
+            StringBuilder lines = new StringBuilder();
+            for (Nonce nonce : batch) {
+                Long existing = nonces.get(nonce.getKey());
+                boolean added = existing == null || existing < now;
+                if (added) {
+                    nonces.put(nonce.getKey(), nonce.getExpiresAt());
+                    lines.append(nonce.getExpiresAt()).append(' ').append(nonce.getKey()).append('\n');
+                }
+                results.add(added);
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(Charsets.US_ASCII));
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+
+            addsSinceSweep += batch.size();
+            if (addsSinceSweep >= SWEEP_INTERVAL) {
+                addsSinceSweep = 0;
+                sweep(now);
+            }
+            return results;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Read the nonces that other processes have appended since this one last read the file.
+     */
+    private void readAppended() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position < channel.size()) {
+            buffer.clear();
+            int count = channel.read(buffer, position);
+            if (count <= 0) {
+                break;
+            }
+            position += count;
+
+            for (int i = 0; i < count; i++) {
+                char c = (char) buffer.get(i);
+                if (c == '\n') {
+                    addLine(partialLine.toString());
+                    partialLine.setLength(0);
+                } else {
+                    partialLine.append(c);
+                }
+            }
+        }
+    }
+
+    private void addLine(String line) {
+        int space = line.indexOf(' ');
+        if (space <= 0) {
+            return;
+        }
+        long expiresAt = Long.parseLong(line.substring(0, space));
+        String key = line.substring(space + 1);
+        Long existing = nonces.get(key);
+        if (existing == null || existing < expiresAt) {
+            nonces.put(key, expiresAt);
+        }
+    }
+
+    private void sweep(long now) {
+        for (Iterator<Long> it = nonces.values().iterator(); it.hasNext(); ) {
+            if (it.next() < now) {
+                it.remove();
+            }
+        }
+    }
+}
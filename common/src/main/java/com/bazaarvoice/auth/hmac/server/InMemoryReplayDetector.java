@@ -0,0 +1,201 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.bazaarvoice.auth.hmac.common.Credentials;
+import com.bazaarvoice.auth.hmac.common.TimeUtils;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link ReplayDetector} for a single server. Requests are remembered by a 64-bit fingerprint of their API
+ * key and signature, in a ring of buckets that each cover a slice of request timestamps. A bucket is reused
+ * once every timestamp it covers is outside the allowed range, so memory is proportional to the number of
+ * requests authenticated within the range, at 16 to 32 bytes per request.
+ * <p>
+ * The number of requests remembered is capped, {@link #DEFAULT_MAX_REQUESTS} by default, and the cap is split
+ * evenly among the buckets. Once a bucket is full, further requests with timestamps in it are rejected as if
+ * they were replays, since they could not be remembered; a warning is logged the first time this happens to a
+ * bucket. Set the cap above the number of requests expected within the allowed range.
+ * <p>
+ * Each bucket is split into independently locked stripes, so concurrent requests rarely wait on one another.
+ */
+public class InMemoryReplayDetector implements ReplayDetector {
+    /**
+     * The number of requests remembered by default, which takes at most 128MB.
+     */
+    public static final int DEFAULT_MAX_REQUESTS = 4 * 1024 * 1024;
+
+    private static final Logger LOG = LoggerFactory.getLogger(InMemoryReplayDetector.class);
+    private static final int BUCKET_COUNT = 32;
+    private static final int STRIPE_COUNT = 16;
+    private static final HashFunction FINGERPRINT = Hashing.murmur3_128();
+
+    private final long bucketWidth;
+    private final int stripeCapacity;
+    private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<Bucket>(BUCKET_COUNT);
+
+    /**
+     * @param allowedTimestampSlop the length of time for which the timestamp on a request can differ from the
+     *                             server time, as configured on the authenticator
+     * @param timeUnit the unit {@code allowedTimestampSlop} is expressed in
+     */
+    public InMemoryReplayDetector(long allowedTimestampSlop, TimeUnit timeUnit) {
+        this(allowedTimestampSlop, timeUnit, DEFAULT_MAX_REQUESTS);
+    }
+
+    /**
+     * @param allowedTimestampSlop the length of time for which the timestamp on a request can differ from the
+     *                             server time, as configured on the authenticator
+     * @param timeUnit the unit {@code allowedTimestampSlop} is expressed in
+     * @param maxRequests the number of requests with timestamps within the allowed range to remember, beyond
+     *                    which requests are rejected
+     */
+    public InMemoryReplayDetector(long allowedTimestampSlop, TimeUnit timeUnit, int maxRequests) {
+        checkArgument(allowedTimestampSlop >= 0, "Allowed timestamp slop cannot be negative");
+        checkArgument(maxRequests > 0, "Maximum number of requests must be positive");
+
+        // Valid timestamps span twice the slop; with two buckets to spare, a bucket is only reused once every
+        // timestamp it covered has expired
+        long range = 2 * timeUnit.toMillis(allowedTimestampSlop) + 1;
+        this.bucketWidth = Math.max(1, (range + BUCKET_COUNT - 3) / (BUCKET_COUNT - 2));
+
+        // The range is covered by all but two of the buckets
+        int stripes = (BUCKET_COUNT - 2) * STRIPE_COUNT;
+        this.stripeCapacity = (maxRequests + stripes - 1) / stripes;
+    }
+
+    @Override
+    public boolean record(Credentials credentials) {
+        long epoch = floorDiv(TimeUtils.parseMillis(credentials.getTimestamp()), bucketWidth);
+        return getBucket(epoch).add(fingerprint(credentials));
+    }
+
+    private Bucket getBucket(long epoch) {
+        int index = (int) (epoch & (BUCKET_COUNT - 1));
+        while (true) {
+            Bucket bucket = buckets.get(index);
+            if (bucket != null && bucket.epoch >= epoch) {
+                // A newer bucket only replaces this one once all of its timestamps have expired, so a request
+                // that finds one must have been authenticated just before that happened
+                return bucket.epoch == epoch ? bucket : Bucket.EXPIRED;
+            }
+            Bucket fresh = new Bucket(epoch, epoch * bucketWidth, stripeCapacity);
+            if (buckets.compareAndSet(index, bucket, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    private static long fingerprint(Credentials credentials) {
+        long fingerprint = FINGERPRINT.newHasher()
+                .putUnencodedChars(credentials.getApiKey())
+                .putChar('\n')
+                .putUnencodedChars(credentials.getSignature())
+                .hash()
+                .asLong();
+        // Zero marks an empty slot
+        return fingerprint != 0 ? fingerprint : 1;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? quotient - 1 : quotient;
+    }
+
+    private static class Bucket {
+        static final Bucket EXPIRED = new Bucket(Long.MIN_VALUE, Long.MIN_VALUE, 0) {
+            @Override
+            boolean add(long fingerprint) {
+                return true;
+            }
+        };
+
+        final long epoch;
+        private final long start;
+        private final FingerprintSet[] stripes = new FingerprintSet[STRIPE_COUNT];
+        private volatile boolean full;
+
+        Bucket(long epoch, long start, int stripeCapacity) {
+            this.epoch = epoch;
+            this.start = start;
+            for (int i = 0; i < STRIPE_COUNT; i++) {
+                stripes[i] = new FingerprintSet(stripeCapacity);
+            }
+        }
+
+        boolean add(long fingerprint) {
+            // The top bits pick the stripe, the bottom bits the slot within it
+            FingerprintSet stripe = stripes[(int) (fingerprint >>> 60)];
+            boolean stripeFull;
+            synchronized (stripe) {
+                if (stripe.add(fingerprint)) {
+                    return true;
+                }
+                stripeFull = stripe.isFull();
+            }
+            if (stripeFull && !full) {
+                full = true;
+                LOG.warn("Too many requests to remember, rejecting requests with timestamps from {} until they expire",
+                        TimeUtils.formatTimestamp(start));
+            }
+            return false;
+        }
+    }
+
+    /**
+     * An open addressing hash set of non-zero longs, kept at most half full, which holds up to a fixed number
+     * of them.
+     */
+    private static class FingerprintSet {
+        private final int capacity;
+        private long[] slots = new long[16];
+        private int size;
+
+        FingerprintSet(int capacity) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * @return false if the fingerprint is in the set already, or the set is full
+         */
+        boolean add(long fingerprint) {
+            int index = find(slots, fingerprint);
+            if (slots[index] == fingerprint || size == capacity) {
+                return false;
+            }
+            slots[index] = fingerprint;
+            if (++size > slots.length / 2) {
+                long[] larger = new long[slots.length * 2];
+                for (long existing : slots) {
+                    if (existing != 0) {
+                        larger[find(larger, existing)] = existing;
+                    }
+                }
+                slots = larger;
+            }
+            return true;
+        }
+
+        boolean isFull() {
+            return size == capacity;
+        }
+
+        /**
+         * @return the slot holding the fingerprint, or the empty slot it belongs in
+         */
+        private static int find(long[] slots, long fingerprint) {
+            int mask = slots.length - 1;
+            int i = (int) fingerprint & mask;
+            while (slots[i] != fingerprint && slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+    }
+}
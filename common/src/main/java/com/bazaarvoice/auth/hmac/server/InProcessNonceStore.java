@@ -0,0 +1,80 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.bazaarvoice.auth.hmac.common.Clock;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link NonceStore} held in memory, for a single server or for tests. Expired nonces are swept out
+ * periodically as new ones are added.
+ */
+public class InProcessNonceStore implements NonceStore {
+    private static final int SWEEP_INTERVAL = 4096;
+
+    private final ConcurrentMap<String, Long> nonces = new ConcurrentHashMap<String, Long>();
+    private final AtomicInteger addsSinceSweep = new AtomicInteger();
+    private final Clock clock;
+
+    public InProcessNonceStore() {
+        this(Clock.systemClock());
+    }
+
+    public InProcessNonceStore(Clock clock) {
+        this.clock = checkNotNull(clock);
+    }
+
+    @Override
+    public ListenableFuture<List<Boolean>> putIfAbsent(List<Nonce> batch) {
+        long now = clock.millis();
+        List<Boolean> results = new ArrayList<Boolean>(batch.size());
+        for (Nonce nonce : batch) {
+            results.add(putIfAbsent(nonce, now));
+        }
+
+        if (addsSinceSweep.addAndGet(batch.size()) >= SWEEP_INTERVAL) {
+            addsSinceSweep.set(0);
+            sweep(now);
+        }
+        return Futures.immediateFuture(results);
+    }
+
+    /**
+     * @return the number of nonces held, including any that have expired but not yet been swept out
+     */
+    public int size() {
+        return nonces.size();
+    }
+
+    private boolean putIfAbsent(Nonce nonce, long now) {
+        Long expiresAt = nonce.getExpiresAt();
+        while (true) {
+            Long existing = nonces.putIfAbsent(nonce.getKey(), expiresAt);
+            if (existing == null) {
+                return true;
+            }
+            if (existing >= now) {
+                return false;
+            }
+            if (nonces.replace(nonce.getKey(), existing, expiresAt)) {
+                return true;
+            }
+        }
+    }
+
+    private void sweep(long now) {
+        for (Map.Entry<String, Long> entry : nonces.entrySet()) {
+            if (entry.getValue() < now) {
+                nonces.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
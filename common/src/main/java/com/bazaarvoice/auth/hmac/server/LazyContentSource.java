@@ -0,0 +1,53 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.google.common.io.ByteSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The content of a request, which is only read from the request when it is first opened. This lets an
+ * authenticator reject a request on its headers alone without reading its body. Once read, the content is
+ * kept in a {@link ContentBuffer}, so it can be opened any number of times.
+ * <p>
+ * Not thread safe; a request is authenticated on a single thread.
+ */
+public abstract class LazyContentSource extends ByteSource {
+    private ContentBuffer buffer;
+
+    /**
+     * Read the request content into a buffer, and reset the request so that its content can be read again.
+     */
+    protected abstract ContentBuffer readContent() throws IOException;
+
+    /**
+     * @return true if the request content has been read
+     */
+    public boolean isRead() {
+        return buffer != null;
+    }
+
+    /**
+     * Read the request content now, if it has not been read yet.
+     */
+    public void load() throws IOException {
+        getBuffer();
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        return getBuffer().openStream();
+    }
+
+    @Override
+    public long size() throws IOException {
+        return getBuffer().size();
+    }
+
+    private ContentBuffer getBuffer() throws IOException {
+        if (buffer == null) {
+            buffer = readContent();
+        }
+        return buffer;
+    }
+}
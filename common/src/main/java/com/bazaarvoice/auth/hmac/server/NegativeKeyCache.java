@@ -0,0 +1,113 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Remembers, for a limited time, API keys that have no principal. Keys are only held as 64-bit hashes in a
+ * fixed-size, 4-way set associative table, so it takes 16 bytes per key regardless of how long the keys are.
+ * When a set is full, the entry closest to expiring is replaced.
+ * <p>
+ * Two keys with the same hash are indistinguishable, so a valid key could be mistaken for a recently rejected
+ * one. API keys are chosen by whoever sends the request, so keys are hashed with SipHash under a random key
+ * drawn for each cache. Without knowing that key, nobody can search for a key that collides with a valid one, and
+ * an unrelated pair of keys collides with a chance of about one in 2<sup>64</sup>.
+ */
+class NegativeKeyCache {
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int WAYS = 4;
+    private static final int STRIPES = 16;
+
+    private final HashFunction hashFunction = Hashing.sipHash24(RANDOM.nextLong(), RANDOM.nextLong());
+    private final long expireAfterWriteNanos;
+    private final Ticker ticker;
+    private final int setMask;
+    private final long[] hashes;
+    private final long[] expiresAt;
+    private final Object[] locks = new Object[STRIPES];
+
+    NegativeKeyCache(long maximumSize, long expireAfterWriteMillis) {
+        this(maximumSize, expireAfterWriteMillis, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    NegativeKeyCache(long maximumSize, long expireAfterWriteMillis, Ticker ticker) {
+        int sets = Integer.highestOneBit((int) Math.max(1, Math.min(1 << 26, (maximumSize + WAYS - 1) / WAYS)));
+        this.expireAfterWriteNanos = expireAfterWriteMillis * 1000000;
+        this.ticker = ticker;
+        this.setMask = sets - 1;
+        this.hashes = new long[sets * WAYS];
+        this.expiresAt = new long[sets * WAYS];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    boolean contains(String apiKey) {
+        long hash = hash(apiKey);
+        int set = (int) hash & setMask;
+        long now = ticker.read();
+        synchronized (locks[set & (STRIPES - 1)]) {
+            for (int i = set * WAYS; i < (set + 1) * WAYS; i++) {
+                if (hashes[i] == hash) {
+                    return expiresAt[i] - now > 0;
+                }
+            }
+        }
+        return false;
+    }
+
+    void add(String apiKey) {
+        long hash = hash(apiKey);
+        int set = (int) hash & setMask;
+        long now = ticker.read();
+        synchronized (locks[set & (STRIPES - 1)]) {
+            int slot = set * WAYS;
+            for (int i = set * WAYS; i < (set + 1) * WAYS; i++) {
+                if (hashes[i] == hash || hashes[i] == 0) {
+                    slot = i;
+                    break;
+                }
+                if (expiresAt[i] - expiresAt[slot] < 0) {
+                    slot = i;
+                }
+            }
+            hashes[slot] = hash;
+            expiresAt[slot] = now + expireAfterWriteNanos;
+        }
+    }
+
+    void remove(String apiKey) {
+        long hash = hash(apiKey);
+        int set = (int) hash & setMask;
+        synchronized (locks[set & (STRIPES - 1)]) {
+            for (int i = set * WAYS; i < (set + 1) * WAYS; i++) {
+                if (hashes[i] == hash) {
+                    hashes[i] = 0;
+                }
+            }
+        }
+    }
+
+    void clear() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            synchronized (locks[stripe]) {
+                for (int set = stripe; set <= setMask; set += STRIPES) {
+                    Arrays.fill(hashes, set * WAYS, (set + 1) * WAYS, 0);
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    long hash(String apiKey) {
+        long hash = hashFunction.hashUnencodedChars(apiKey).asLong();
+        // Zero marks an empty slot
+        return hash != 0 ? hash : 1;
+    }
+}
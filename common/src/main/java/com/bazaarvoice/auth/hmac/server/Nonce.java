@@ -0,0 +1,53 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A value that identifies an authenticated request, and the time after which the request can no longer be
+ * replayed because its timestamp is no longer accepted.
+ *
+ * @see NonceStore
+ */
+public class Nonce {
+    private final String key;
+    private final long expiresAt;
+
+    /**
+     * @param key identifies the request; made only of characters that are safe in file names and URLs
+     * @param expiresAt the time after which the nonce can be forgotten, in milliseconds since the epoch
+     */
+    public Nonce(String key, long expiresAt) {
+        this.key = checkNotNull(key);
+        this.expiresAt = expiresAt;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Nonce that = (Nonce) o;
+        return expiresAt == that.expiresAt && key.equals(that.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * key.hashCode() + (int) (expiresAt ^ (expiresAt >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return key + "@" + expiresAt;
+    }
+}
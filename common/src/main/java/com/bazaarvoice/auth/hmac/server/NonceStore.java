@@ -0,0 +1,24 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.List;
+
+/**
+ * Stores the nonces of authenticated requests where every server in a cluster can see them, so that
+ * {@link SharedReplayDetector} can reject a request that has already been authenticated by another server.
+ * <p>
+ * Implementations are expected to be backed by a remote service, so nonces are checked in batches and the
+ * result is returned as a future rather than by blocking the caller.
+ */
+public interface NonceStore {
+    /**
+     * Add each nonce that is not already present, or is present but has expired. Each nonce must be checked
+     * and added atomically, so that if two servers add the same nonce at the same time only one succeeds.
+     *
+     * @param nonces the nonces to add
+     * @return a future list with an entry for each nonce, in order: true if it was added, or false if it was
+     * already present
+     */
+    ListenableFuture<List<Boolean>> putIfAbsent(List<Nonce> nonces);
+}
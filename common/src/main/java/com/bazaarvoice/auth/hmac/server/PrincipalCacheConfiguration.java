@@ -0,0 +1,209 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Settings for the principal cache of an {@link AbstractCachingAuthenticator}.
+ */
+public class PrincipalCacheConfiguration {
+    public static final long DEFAULT_EXPIRE_AFTER_WRITE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+    public static final int DEFAULT_LOADER_THREADS = 2;
+    public static final long DEFAULT_LOAD_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    public static final long DEFAULT_NEGATIVE_EXPIRE_AFTER_WRITE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    public static final long DEFAULT_NEGATIVE_MAXIMUM_SIZE = 10000;
+
+    private final long expireAfterWriteMillis;
+    private final long refreshAfterWriteMillis;
+    private final long maximumSize;
+    private final int loaderThreads;
+    private final Executor loaderExecutor;
+    private final long loadTimeoutMillis;
+    private final long negativeExpireAfterWriteMillis;
+    private final long negativeMaximumSize;
+    private final File snapshotFile;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private PrincipalCacheConfiguration(Builder builder) {
+        this.expireAfterWriteMillis = builder.expireAfterWriteMillis;
+        this.refreshAfterWriteMillis = builder.refreshAfterWriteMillis;
+        this.maximumSize = builder.maximumSize;
+        this.loaderThreads = builder.loaderThreads;
+        this.loaderExecutor = builder.loaderExecutor;
+        this.loadTimeoutMillis = builder.loadTimeoutMillis;
+        this.negativeExpireAfterWriteMillis = builder.negativeExpireAfterWriteMillis != 0
+                ? builder.negativeExpireAfterWriteMillis
+                : Math.min(DEFAULT_NEGATIVE_EXPIRE_AFTER_WRITE_MILLIS, builder.expireAfterWriteMillis);
+        this.negativeMaximumSize = builder.negativeMaximumSize;
+        this.snapshotFile = builder.snapshotFile;
+    }
+
+    public long getExpireAfterWriteMillis() {
+        return expireAfterWriteMillis;
+    }
+
+    /**
+     * @return the age in milliseconds at which a cached principal is reloaded in the background, or 0 if
+     * principals are only loaded once they have expired
+     */
+    public long getRefreshAfterWriteMillis() {
+        return refreshAfterWriteMillis;
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public int getLoaderThreads() {
+        return loaderThreads;
+    }
+
+    /**
+     * @return the executor that reloads principals in the background, or null to use a pool of
+     * {@link #getLoaderThreads} daemon threads
+     */
+    public Executor getLoaderExecutor() {
+        return loaderExecutor;
+    }
+
+    /**
+     * @return how long in milliseconds a request waits for a principal that another request is loading
+     */
+    public long getLoadTimeoutMillis() {
+        return loadTimeoutMillis;
+    }
+
+    /**
+     * @return how long in milliseconds an API key without a principal is remembered as such
+     */
+    public long getNegativeExpireAfterWriteMillis() {
+        return negativeExpireAfterWriteMillis;
+    }
+
+    /**
+     * @return the number of API keys without a principal that are remembered apart from the principals, or 0 if
+     * they are cached with the principals
+     */
+    public long getNegativeMaximumSize() {
+        return negativeMaximumSize;
+    }
+
+    /**
+     * @return the file the API keys of cached principals are saved to and loaded from, or null if there is none
+     */
+    public File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    public static class Builder {
+        private long expireAfterWriteMillis = DEFAULT_EXPIRE_AFTER_WRITE_MILLIS;
+        private long refreshAfterWriteMillis;
+        private long maximumSize = DEFAULT_MAXIMUM_SIZE;
+        private int loaderThreads = DEFAULT_LOADER_THREADS;
+        private Executor loaderExecutor;
+        private long loadTimeoutMillis = DEFAULT_LOAD_TIMEOUT_MILLIS;
+        private long negativeExpireAfterWriteMillis;
+        private long negativeMaximumSize = DEFAULT_NEGATIVE_MAXIMUM_SIZE;
+        private File snapshotFile;
+
+        /**
+         * How long a principal stays cached. Once it expires, the next request for it waits while it is loaded.
+         */
+        public Builder withExpireAfterWrite(long duration, TimeUnit timeUnit) {
+            checkArgument(duration > 0, "Cache timeout must be positive");
+            this.expireAfterWriteMillis = timeUnit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * How old a cached principal may get before it is reloaded in the background. Requests keep getting the
+         * cached principal while it reloads, so this should be shorter than the expiry to keep frequently used
+         * principals from ever expiring. Disabled by default.
+         */
+        public Builder withRefreshAfterWrite(long duration, TimeUnit timeUnit) {
+            checkArgument(duration > 0, "Refresh interval must be positive");
+            this.refreshAfterWriteMillis = timeUnit.toMillis(duration);
+            return this;
+        }
+
+        public Builder withMaximumSize(long maximumSize) {
+            checkArgument(maximumSize >= 0, "Cache size cannot be negative");
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * The number of threads that reload principals in the background, unless an executor is set.
+         */
+        public Builder withLoaderThreads(int loaderThreads) {
+            checkArgument(loaderThreads > 0, "Number of loader threads must be positive");
+            this.loaderThreads = loaderThreads;
+            return this;
+        }
+
+        /**
+         * The executor that reloads principals in the background, instead of a pool owned by the authenticator.
+         */
+        public Builder withLoaderExecutor(Executor loaderExecutor) {
+            this.loaderExecutor = checkNotNull(loaderExecutor);
+            return this;
+        }
+
+        /**
+         * How long a request waits for a principal that another request is already loading. A request that
+         * times out fails, and so does the load it was waiting for, so that the next request for the principal
+         * starts a new one rather than waiting for a load that may never finish. Defaults to 10 seconds.
+         */
+        public Builder withLoadTimeout(long duration, TimeUnit timeUnit) {
+            checkArgument(duration > 0, "Load timeout must be positive");
+            this.loadTimeoutMillis = timeUnit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * How long an API key without a principal is remembered as such, so that requests with it are rejected
+         * without calling {@code loadPrincipal}. Defaults to 1 minute, or the cache timeout if that is shorter.
+         */
+        public Builder withNegativeExpireAfterWrite(long duration, TimeUnit timeUnit) {
+            checkArgument(duration > 0, "Negative cache timeout must be positive");
+            this.negativeExpireAfterWriteMillis = timeUnit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * The number of API keys without a principal to remember. These are held apart from the principals, so
+         * requests with unknown keys cannot push principals out of the cache. Set to 0 to cache them with the
+         * principals instead, subject to the same size and timeout.
+         */
+        public Builder withNegativeMaximumSize(long negativeMaximumSize) {
+            checkArgument(negativeMaximumSize >= 0, "Negative cache size cannot be negative");
+            this.negativeMaximumSize = negativeMaximumSize;
+            return this;
+        }
+
+        /**
+         * A file to save the API keys of cached principals to with
+         * {@link AbstractCachingAuthenticator#writeSnapshot()}, e.g. when the server stops. Calling
+         * {@link AbstractCachingAuthenticator#loadSnapshot} at startup loads those principals again, so a
+         * restarted server starts with a warm cache. Only API keys are saved, never principals or secret keys.
+         */
+        public Builder withSnapshotFile(File snapshotFile) {
+            this.snapshotFile = checkNotNull(snapshotFile);
+            return this;
+        }
+
+        public PrincipalCacheConfiguration build() {
+            checkArgument(refreshAfterWriteMillis == 0 || refreshAfterWriteMillis < expireAfterWriteMillis,
+                    "Refresh interval must be shorter than cache timeout");
+            return new PrincipalCacheConfiguration(this);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.google.common.cache.Cache;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of the principal cache of an {@link AbstractCachingAuthenticator}, to size the cache and choose its
+ * timeouts from. All counts are since the authenticator was created.
+ * <p>
+ * Load latencies are kept in a histogram whose buckets double in width, starting at 1 microsecond, so percentiles
+ * are reported as the upper bound of the bucket they fall in.
+ */
+public class PrincipalCacheStats implements PrincipalCacheStatsMBean {
+    private static final String OBJECT_NAME_PREFIX = "com.bazaarvoice.auth.hmac:type=PrincipalCache,name=";
+
+    private final Cache<?, ?> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final LatencyHistogram loadLatencies = new LatencyHistogram();
+
+    PrincipalCacheStats(Cache<?, ?> cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Register these statistics with the platform MBean server.
+     *
+     * @param name distinguishes this cache from those of other authenticators
+     * @return the name the statistics were registered under
+     */
+    public ObjectName registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to register principal cache MBean", e);
+        }
+    }
+
+    /**
+     * @return the number of requests whose principal was cached
+     */
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of requests whose principal had to be loaded
+     */
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of requests whose API key was known to have no principal
+     */
+    @Override
+    public long getNegativeHitCount() {
+        return negativeHits.get();
+    }
+
+    /**
+     * @return the fraction of requests that did not have to load a principal, or 1 if there were none
+     */
+    @Override
+    public double getHitRate() {
+        long hitCount = hits.get() + negativeHits.get();
+        long requestCount = hitCount + misses.get();
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    /**
+     * @return the number of principals loaded, for requests or in the background
+     */
+    @Override
+    public long getLoadCount() {
+        return loadLatencies.getCount();
+    }
+
+    /**
+     * @return the number of loads that threw an exception
+     */
+    @Override
+    public long getLoadFailureCount() {
+        return loadFailures.get();
+    }
+
+    @Override
+    public double getAverageLoadMillis() {
+        return loadLatencies.getMeanMillis();
+    }
+
+    @Override
+    public double getLoadMillis50thPercentile() {
+        return getLoadMillisPercentile(0.5);
+    }
+
+    @Override
+    public double getLoadMillis99thPercentile() {
+        return getLoadMillisPercentile(0.99);
+    }
+
+    @Override
+    public double getLoadMillis999thPercentile() {
+        return getLoadMillisPercentile(0.999);
+    }
+
+    /**
+     * @param quantile the quantile, between 0 and 1
+     * @return the load latency below which the given fraction of loads fall, or 0 if there were none
+     */
+    public double getLoadMillisPercentile(double quantile) {
+        return loadLatencies.getPercentileMillis(quantile);
+    }
+
+    /**
+     * @return the number of principals removed to make room for others, a sign that the cache is too small
+     */
+    @Override
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of principals removed because they were cached for longer than the cache timeout
+     */
+    @Override
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    /**
+     * @return the approximate number of principals in the cache
+     */
+    @Override
+    public long getSize() {
+        return cache.size();
+    }
+
+    void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    void recordNegativeHit() {
+        negativeHits.incrementAndGet();
+    }
+
+    void recordLoad(long nanos, boolean failed) {
+        if (failed) {
+            loadFailures.incrementAndGet();
+        }
+        loadLatencies.record(nanos);
+    }
+
+    void recordEviction() {
+        evictions.incrementAndGet();
+    }
+
+    void recordExpiration() {
+        expirations.incrementAndGet();
+    }
+}
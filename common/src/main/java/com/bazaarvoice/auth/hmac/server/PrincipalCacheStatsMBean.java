@@ -0,0 +1,32 @@
+package com.bazaarvoice.auth.hmac.server;
+
+/**
+ * The JMX view of {@link PrincipalCacheStats}.
+ */
+public interface PrincipalCacheStatsMBean {
+    long getHitCount();
+
+    long getMissCount();
+
+    long getNegativeHitCount();
+
+    double getHitRate();
+
+    long getLoadCount();
+
+    long getLoadFailureCount();
+
+    double getAverageLoadMillis();
+
+    double getLoadMillis50thPercentile();
+
+    double getLoadMillis99thPercentile();
+
+    double getLoadMillis999thPercentile();
+
+    long getEvictionCount();
+
+    long getExpirationCount();
+
+    long getSize();
+}
@@ -0,0 +1,22 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.bazaarvoice.auth.hmac.common.Credentials;
+
+/**
+ * Detects requests that are sent more than once. A signed request stays valid for as long as its timestamp
+ * is within the range the authenticator allows, so without replay detection anyone who sees a request can
+ * send it again during that time.
+ *
+ * @see AbstractAuthenticator
+ */
+public interface ReplayDetector {
+    /**
+     * Record a request whose signature has been verified, unless the same request has been recorded before.
+     * Checking and recording must be atomic, so that of two copies of a request recorded at the same time
+     * only one is accepted.
+     *
+     * @param credentials the credentials of an authenticated request
+     * @return true if the request is new, or false if it is a replay
+     */
+    boolean record(Credentials credentials);
+}
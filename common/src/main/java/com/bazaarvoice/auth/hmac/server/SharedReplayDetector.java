@@ -0,0 +1,398 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.bazaarvoice.auth.hmac.common.Clock;
+import com.bazaarvoice.auth.hmac.common.Credentials;
+import com.bazaarvoice.auth.hmac.common.TimeUtils;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link ReplayDetector} for a cluster of servers, which records requests in a shared {@link NonceStore}.
+ * <p>
+ * Every request is queued and sent to the store in batches by a background thread, and waits for the store's
+ * answer, up to a timeout, so that a request replayed to any server in the cluster is rejected. This costs a
+ * round trip to the store on every request.
+ * <p>
+ * With {@link Builder#withOptimisticRecording} a request is instead accepted without waiting for the store,
+ * unless this server may have seen it before, so a request replayed from another server is accepted, and is
+ * only logged once the store reports it. Each server screens requests against a Bloom filter of the requests
+ * it has recorded itself. A request that the filter has not seen is new to this server. One that the filter
+ * may have seen is a likely replay, so it waits for the store to confirm it, and is only rejected if the store
+ * has it too; a request replayed to the same server is therefore still rejected. The filter is sized from
+ * {@link Builder#withExpectedRate}; beyond that rate, more new requests wait for the store in error.
+ */
+public class SharedReplayDetector implements ReplayDetector, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(SharedReplayDetector.class);
+    private static final HashFunction FINGERPRINT = Hashing.murmur3_128();
+
+    private final NonceStore store;
+    private final long allowedTimestampRange;
+    private final Clock clock;
+    private final int maxBatchSize;
+    private final long maxBatchDelayNanos;
+    private final long timeoutMillis;
+    private final boolean failOpen;
+    private final boolean optimistic;
+    private final BloomFilterRing recentNonces;
+    private final BlockingQueue<PendingNonce> queue = new LinkedBlockingQueue<PendingNonce>();
+    private final Thread flusher;
+
+    public static Builder builder(NonceStore store, long allowedTimestampSlop, TimeUnit timeUnit) {
+        return new Builder(store, timeUnit.toMillis(allowedTimestampSlop));
+    }
+
+    private SharedReplayDetector(Builder builder) {
+        this.store = builder.store;
+        this.allowedTimestampRange = builder.allowedTimestampRange;
+        this.clock = builder.clock;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.maxBatchDelayNanos = builder.maxBatchDelayNanos;
+        this.timeoutMillis = builder.timeoutMillis;
+        this.failOpen = builder.failOpen;
+        this.optimistic = builder.optimistic;
+
+        // A request can be replayed for as long as its timestamp is accepted, which spans twice the slop. Each
+        // filter in the ring holds the requests of one such period.
+        long period = Math.max(1, 2 * allowedTimestampRange);
+        long expectedInsertions = Math.max(1, builder.expectedRate * period / 1000);
+        this.recentNonces = new BloomFilterRing(expectedInsertions, builder.falsePositiveProbability, period);
+
+        this.flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushBatches();
+            }
+        }, "hmac-replay-detector");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public boolean record(final Credentials credentials) {
+        HashCode fingerprint = FINGERPRINT.newHasher()
+                .putUnencodedChars(credentials.getApiKey())
+                .putChar('\n')
+                .putUnencodedChars(credentials.getSignature())
+                .hash();
+        // A Bloom filter can report a request it has never seen, so the store has the final say
+        boolean likelyReplay = recentNonces.put(fingerprint);
+
+        long expiresAt = TimeUtils.parseMillis(credentials.getTimestamp()) + allowedTimestampRange;
+        PendingNonce pending = new PendingNonce(new Nonce(fingerprint.toString(), expiresAt));
+        queue.add(pending);
+
+        if (optimistic && !likelyReplay) {
+            Futures.addCallback(pending.added, new FutureCallback<Boolean>() {
+                @Override
+                public void onSuccess(Boolean added) {
+                    if (!added) {
+                        LOG.warn("Accepted a request that was replayed from another server, API key: {}", credentials.getApiKey());
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    LOG.warn("Could not record request in nonce store", t);
+                }
+            });
+            return true;
+        }
+
+        try {
+            return pending.added.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LOG.warn("Timed out waiting for nonce store");
+        } catch (ExecutionException e) {
+            LOG.warn("Could not record request in nonce store", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return failOpen;
+    }
+
+    /**
+     * Stop sending nonces to the store. Requests still waiting for the store are treated as if it had failed.
+     */
+    @Override
+    public void close() {
+        flusher.interrupt();
+    }
+
+    private void flushBatches() {
+        try {
+            while (true) {
+                List<PendingNonce> batch = new ArrayList<PendingNonce>();
+                batch.add(queue.take());
+
+                long deadline = System.nanoTime() + maxBatchDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    PendingNonce next = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            }
+        } catch (InterruptedException e) {
+            List<PendingNonce> abandoned = new ArrayList<PendingNonce>();
+            queue.drainTo(abandoned);
+            fail(abandoned, new IllegalStateException("Replay detector has been closed"));
+        }
+    }
+
+    private void flush(final List<PendingNonce> batch) {
+        List<Nonce> nonces = new ArrayList<Nonce>(batch.size());
+        for (PendingNonce pending : batch) {
+            nonces.add(pending.nonce);
+        }
+
+        ListenableFuture<List<Boolean>> results;
+        try {
+            results = store.putIfAbsent(nonces);
+        } catch (RuntimeException e) {
+            fail(batch, e);
+            return;
+        }
+
+        Futures.addCallback(results, new FutureCallback<List<Boolean>>() {
+            @Override
+            public void onSuccess(List<Boolean> added) {
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).added.set(added.get(i));
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                fail(batch, t);
+            }
+        });
+    }
+
+    private static void fail(List<PendingNonce> batch, Throwable t) {
+        for (PendingNonce pending : batch) {
+            pending.added.setException(t);
+        }
+    }
+
+    private static class PendingNonce {
+        private final Nonce nonce;
+        private final SettableFuture<Boolean> added = SettableFuture.create();
+
+        private PendingNonce(Nonce nonce) {
+            this.nonce = nonce;
+        }
+    }
+
+    /**
+     * Two Bloom filters that take turns: new entries go into the current one, and lookups check both. The
+     * older filter is discarded and replaced by an empty one every {@code period} milliseconds, so an entry is
+     * remembered for at least one full period.
+     */
+    private class BloomFilterRing {
+        private final long expectedInsertions;
+        private final double falsePositiveProbability;
+        private final long period;
+        private volatile BloomFilter current;
+        private volatile BloomFilter previous;
+        private volatile long rotateAt;
+
+        private BloomFilterRing(long expectedInsertions, double falsePositiveProbability, long period) {
+            this.expectedInsertions = expectedInsertions;
+            this.falsePositiveProbability = falsePositiveProbability;
+            this.period = period;
+            this.current = new BloomFilter(expectedInsertions, falsePositiveProbability);
+            this.previous = new BloomFilter(expectedInsertions, falsePositiveProbability);
+            this.rotateAt = clock.millis() + period;
+        }
+
+        /**
+         * @return true if the fingerprint may have been added before
+         */
+        boolean put(HashCode fingerprint) {
+            long now = clock.millis();
+            if (now >= rotateAt) {
+                rotate(now);
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(fingerprint.asBytes());
+            long hash1 = bytes.getLong(0);
+            long hash2 = bytes.getLong(8) | 1;
+            return previous.mightContain(hash1, hash2) | !current.put(hash1, hash2);
+        }
+
+        private synchronized void rotate(long now) {
+            if (now >= rotateAt) {
+                previous = current;
+                current = new BloomFilter(expectedInsertions, falsePositiveProbability);
+                rotateAt = now + period;
+            }
+        }
+    }
+
+    /**
+     * A Bloom filter whose bits can be set concurrently, indexed by double hashing.
+     */
+    private static class BloomFilter {
+        private final AtomicLongArray words;
+        private final long bitCount;
+        private final int hashCount;
+
+        BloomFilter(long expectedInsertions, double falsePositiveProbability) {
+            long bits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+            this.words = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE, (bits + 63) / 64));
+            this.bitCount = words.length() * 64L;
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+        }
+
+        boolean mightContain(long hash1, long hash2) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return true if any bit was set, i.e. the entry was definitely not present before
+         */
+        boolean put(long hash1, long hash2) {
+            boolean changed = false;
+            for (int i = 0; i < hashCount; i++) {
+                long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+                int index = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                while (true) {
+                    long word = words.get(index);
+                    if ((word & mask) != 0) {
+                        break;
+                    }
+                    if (words.compareAndSet(index, word, word | mask)) {
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+            return changed;
+        }
+    }
+
+    public static class Builder {
+        private final NonceStore store;
+        private final long allowedTimestampRange;
+        private Clock clock = Clock.systemClock();
+        private int maxBatchSize = 256;
+        private long maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(1);
+        private long timeoutMillis = 250;
+        private boolean failOpen;
+        private boolean optimistic;
+        private long expectedRate = 1000;
+        private double falsePositiveProbability = 1e-3;
+
+        private Builder(NonceStore store, long allowedTimestampRange) {
+            this.store = checkNotNull(store);
+            this.allowedTimestampRange = allowedTimestampRange;
+        }
+
+        public Builder withClock(Clock clock) {
+            this.clock = checkNotNull(clock);
+            return this;
+        }
+
+        /**
+         * The largest number of nonces sent to the store at once. Defaults to 256.
+         */
+        public Builder withMaxBatchSize(int maxBatchSize) {
+            checkArgument(maxBatchSize > 0, "Maximum batch size must be positive");
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * How long to wait for more nonces before sending a batch that is not full. Defaults to 1 millisecond.
+         */
+        public Builder withMaxBatchDelay(long maxBatchDelay, TimeUnit timeUnit) {
+            checkArgument(maxBatchDelay >= 0, "Maximum batch delay cannot be negative");
+            this.maxBatchDelayNanos = timeUnit.toNanos(maxBatchDelay);
+            return this;
+        }
+
+        /**
+         * How long a request waits for the store before it is accepted or rejected according to
+         * {@link #withFailOpen}. Defaults to 250 milliseconds.
+         */
+        public Builder withTimeout(long timeout, TimeUnit timeUnit) {
+            checkArgument(timeout >= 0, "Timeout cannot be negative");
+            this.timeoutMillis = timeUnit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Whether to accept requests when the store cannot be reached in time. Defaults to false.
+         */
+        public Builder withFailOpen(boolean failOpen) {
+            this.failOpen = failOpen;
+            return this;
+        }
+
+        /**
+         * Accept requests without waiting for the store, unless this server may have seen them before. This
+         * saves a round trip to the store on most requests, but a request replayed from another server is
+         * accepted, and only logged once the store reports it. By default every request waits for the store.
+         */
+        public Builder withOptimisticRecording() {
+            this.optimistic = true;
+            return this;
+        }
+
+        /**
+         * The number of requests per second the server expects to authenticate, which sizes the local Bloom
+         * filters to hold the requests of twice the timestamp slop. Each filter takes about 2 bytes per request
+         * at the default false positive probability. Defaults to 1,000.
+         */
+        public Builder withExpectedRate(long requestsPerSecond) {
+            checkArgument(requestsPerSecond > 0, "Expected rate must be positive");
+            this.expectedRate = requestsPerSecond;
+            return this;
+        }
+
+        /**
+         * The probability that the local Bloom filters take a new request for a likely replay, which then waits
+         * for the store, when the server authenticates requests at the expected rate. Defaults to one in a
+         * thousand.
+         */
+        public Builder withFalsePositiveProbability(double falsePositiveProbability) {
+            checkArgument(falsePositiveProbability > 0 && falsePositiveProbability < 1,
+                    "False positive probability must be between 0 and 1");
+            this.falsePositiveProbability = falsePositiveProbability;
+            return this;
+        }
+
+        public SharedReplayDetector build() {
+            return new SharedReplayDetector(this);
+        }
+    }
+}
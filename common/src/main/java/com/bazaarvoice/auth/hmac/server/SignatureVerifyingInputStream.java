@@ -0,0 +1,118 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Wraps a request entity stream so that the request signature is verified as the entity is read. Every
+ * byte read is added to a {@link ContentVerifier}, and the signature is checked when the end of the stream
+ * is reached; if the stream is closed early, the rest of the entity is drained first so that it is still
+ * checked. An invalid signature causes the read (or close) to fail with the exception returned by
+ * {@link #invalidSignature}, so a consumer never sees the end of an unauthenticated entity.
+ * <p>
+ * A reader may stop before the end of the entity, or the resource may not take the entity at all, so the
+ * container has to call {@link #verifyRemaining} before the resource acts on the content, and reject the request
+ * if it returns false.
+ */
+public abstract class SignatureVerifyingInputStream extends FilterInputStream {
+    private static final int DRAIN_BUFFER_SIZE = 4096;
+
+    private final ContentVerifier<?> verifier;
+
+    protected SignatureVerifyingInputStream(InputStream in, ContentVerifier<?> verifier) {
+        super(in);
+        this.verifier = verifier;
+    }
+
+    /**
+     * @return the exception to fail the read with when the signature is invalid
+     */
+    protected abstract RuntimeException invalidSignature();
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b == -1) {
+            endOfStream();
+        } else {
+            verifier.update(new byte[] {(byte) b});
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = super.read(b, off, len);
+        if (count == -1) {
+            endOfStream();
+        } else {
+            verifier.update(b, off, count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes still have to be part of the signature
+        byte[] buffer = new byte[(int) Math.min(n, DRAIN_BUFFER_SIZE)];
+        long skipped = 0;
+        while (skipped < n) {
+            int count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+            if (count == -1) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // Drain the rest of the entity so that its signature can be verified
+            }
+        } finally {
+            super.close();
+        }
+    }
+
+    /**
+     * Verify the signature over the whole entity, reading whatever the consumer left unread. Unlike reading
+     * the stream, this does not fail when the signature is invalid.
+     *
+     * @return true if the signature is valid
+     */
+    public boolean verifyRemaining() throws IOException {
+        if (!verifier.isComplete()) {
+            byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer, 0, buffer.length)) != -1) {
+                verifier.update(buffer, 0, count);
+            }
+        }
+        return verifier.verify();
+    }
+
+    private void endOfStream() {
+        if (!verifier.verify()) {
+            throw invalidSignature();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.bazaarvoice.auth.hmac.common.Credentials;
+
+/**
+ * An {@link Authenticator} that can validate a request's credentials before the request content has been
+ * read, and then verify the signature over the content while the content streams to its consumer. This
+ * avoids holding large request bodies in memory just to authenticate them.
+ *
+ * @param <Principal> the type of principal the authenticator returns
+ */
+public interface StreamingAuthenticator<Principal> extends Authenticator<Principal> {
+
+    /**
+     * Given a set of user-supplied credentials, validate everything except the request content.
+     * <p>If the credentials are valid so far, returns a verifier that must be fed the request content and
+     * then asked to verify the signature before the principal it identifies can be trusted.
+     * <p>If the credentials are invalid, returns null.
+     *
+     * @param credentials a set of user-supplied credentials; the content is ignored
+     * @return either a verifier for the request content or null
+     */
+    ContentVerifier<Principal> beginAuthentication(Credentials credentials);
+}
@@ -0,0 +1,53 @@
+package com.bazaarvoice.auth.hmac.common;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ClockTest {
+    private final AtomicLong now = new AtomicLong(1400000000000L);
+    private final Clock clock = new Clock() {
+        @Override
+        public long millis() {
+            return now.get();
+        }
+    };
+
+    @Test
+    public void formatsCurrentTime() {
+        assertEquals(TimeUtils.formatTimestamp(now.get()), clock.timestamp());
+    }
+
+    @Test
+    public void reusesTimestampWithinMillisecond() {
+        String timestamp = clock.timestamp();
+        assertSame(timestamp, clock.timestamp());
+
+        now.incrementAndGet();
+        String next = clock.timestamp();
+        assertNotSame(timestamp, next);
+        assertEquals(TimeUtils.formatTimestamp(now.get()), next);
+    }
+
+    @Test
+    public void coarseClockTicks() throws InterruptedException {
+        CoarseClock coarseClock = new CoarseClock(1, TimeUnit.MILLISECONDS);
+        try {
+            long start = coarseClock.millis();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (coarseClock.millis() == start && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertTrue(coarseClock.millis() > start);
+            assertTrue(Math.abs(System.currentTimeMillis() - coarseClock.millis()) < 1000);
+        } finally {
+            coarseClock.close();
+        }
+    }
+}
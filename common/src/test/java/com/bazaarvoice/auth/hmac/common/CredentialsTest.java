@@ -1,7 +1,10 @@
 package com.bazaarvoice.auth.hmac.common;
 
+import com.google.common.io.ByteSource;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
@@ -62,6 +65,21 @@ public class CredentialsTest {
         assertFalse(credentials.hashCode() == Credentials.builder().build().hashCode());
     }
 
+    @Test
+    public void comparesContentSourcesWithoutReadingThem() {
+        ByteSource source = new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                throw new AssertionError("Content should not be read");
+            }
+        };
+        Credentials withSource = Credentials.builder().withContentSource(source).build();
+
+        assertTrue(withSource.equals(Credentials.builder().withContentSource(source).build()));
+        assertTrue(withSource.hashCode() == Credentials.builder().withContentSource(source).build().hashCode());
+        assertFalse(withSource.equals(Credentials.builder().withContentSource(ByteSource.wrap(new byte[0])).build()));
+    }
+
     private Credentials createCredentials() {
         return Credentials.builder()
                 .withApiKey("apiKey")
@@ -0,0 +1,95 @@
+package com.bazaarvoice.auth.hmac.common;
+
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MacPoolTest {
+    private static final byte[] MESSAGE = "some message".getBytes();
+
+    private final MacPool pool = new MacPool(2, 10);
+
+    @Test
+    public void producesSameDigestAsFreshMac() {
+        Mac mac = pool.acquire("secret");
+        assertTrue(Arrays.equals(MacPool.newMac("secret").doFinal(MESSAGE), mac.doFinal(MESSAGE)));
+    }
+
+    @Test
+    public void reusesReleasedMacOnSameThread() {
+        Mac mac = pool.acquire("secret");
+        pool.release("secret", mac);
+        assertSame(mac, pool.acquire("secret"));
+    }
+
+    @Test
+    public void doesNotShareAcquiredMac() {
+        Mac first = pool.acquire("secret");
+        Mac second = pool.acquire("secret");
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void discardsPartialInputOnRelease() {
+        Mac mac = pool.acquire("secret");
+        mac.update("garbage".getBytes());
+        pool.release("secret", mac);
+
+        byte[] digest = pool.acquire("secret").doFinal(MESSAGE);
+        assertTrue(Arrays.equals(MacPool.newMac("secret").doFinal(MESSAGE), digest));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedKeys() {
+        Mac a = pool.acquire("a");
+        pool.release("a", a);
+        pool.release("b", pool.acquire("b"));
+        pool.release("c", pool.acquire("c"));
+
+        assertNotSame(a, pool.acquire("a"));
+    }
+
+    @Test
+    public void clonesPrototypeForOtherThreads() throws InterruptedException {
+        final Mac mine = pool.acquire("secret");
+        final AtomicReference<Mac> theirs = new AtomicReference<Mac>();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                theirs.set(pool.acquire("secret"));
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertNotSame(mine, theirs.get());
+        assertTrue(Arrays.equals(mine.doFinal(MESSAGE), theirs.get().doFinal(MESSAGE)));
+    }
+
+    @Test
+    public void sharesReleasedMacBetweenThreadsWithoutThreadInstances() throws InterruptedException {
+        final MacPool shared = new MacPool(0, 10);
+        final AtomicReference<Mac> theirs = new AtomicReference<Mac>();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                Mac mac = shared.acquire("secret");
+                mac.update("garbage".getBytes());
+                shared.release("secret", mac);
+                theirs.set(mac);
+            }
+        };
+        thread.start();
+        thread.join();
+
+        Mac mine = shared.acquire("secret");
+        assertSame(theirs.get(), mine);
+        assertTrue(Arrays.equals(MacPool.newMac("secret").doFinal(MESSAGE), mine.doFinal(MESSAGE)));
+    }
+}
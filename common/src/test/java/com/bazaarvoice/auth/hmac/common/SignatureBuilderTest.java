@@ -0,0 +1,69 @@
+package com.bazaarvoice.auth.hmac.common;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class SignatureBuilderTest {
+    private static final String SECRET_KEY = "secretKey";
+    private static final String METHOD = "POST";
+    private static final String TIMESTAMP = "timestamp";
+    private static final String PATH = "/path?apiKey=key";
+    private static final byte[] CONTENT = "some longer request content".getBytes();
+
+    private final SignatureGenerator generator = new SignatureGenerator();
+
+    @Test
+    public void matchesGeneratorWhenContentIsChunked() {
+        String actual = builder()
+                .update(CONTENT, 0, 5)
+                .update(CONTENT, 5, 0)
+                .update(CONTENT, 5, CONTENT.length - 5)
+                .sign();
+        assertEquals(expected(CONTENT), actual);
+    }
+
+    @Test
+    public void matchesGeneratorWhenContentIsByteBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CONTENT.length);
+        buffer.put(CONTENT).flip();
+
+        assertEquals(expected(CONTENT), builder().update(buffer).sign());
+    }
+
+    @Test
+    public void matchesGeneratorWhenContentIsWrittenToStream() throws IOException {
+        SignatureBuilder builder = builder();
+        OutputStream out = builder.asOutputStream();
+        out.write(CONTENT[0]);
+        out.write(CONTENT, 1, CONTENT.length - 1);
+        out.close();
+
+        assertEquals(expected(CONTENT), builder.sign());
+    }
+
+    @Test
+    public void matchesGeneratorWhenThereIsNoContent() {
+        assertEquals(expected(null), builder().sign());
+        assertEquals(expected(null), builder().update(new byte[0]).update(ByteBuffer.allocate(0)).sign());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void signsOnlyOnce() {
+        SignatureBuilder builder = builder();
+        builder.sign();
+        builder.sign();
+    }
+
+    private SignatureBuilder builder() {
+        return generator.builder(SECRET_KEY, METHOD, TIMESTAMP, PATH);
+    }
+
+    private String expected(byte[] content) {
+        return generator.generate(SECRET_KEY, METHOD, TIMESTAMP, PATH, content);
+    }
+}
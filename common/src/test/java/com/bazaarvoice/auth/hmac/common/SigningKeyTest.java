@@ -0,0 +1,41 @@
+package com.bazaarvoice.auth.hmac.common;
+
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SigningKeyTest {
+    private static final byte[] MESSAGE = "some message".getBytes();
+
+    private final SigningKey key = new SigningKey("secret");
+
+    @Test
+    public void producesSameDigestAsFreshMac() {
+        assertTrue(Arrays.equals(MacPool.newMac("secret").doFinal(MESSAGE), key.acquire().doFinal(MESSAGE)));
+    }
+
+    @Test
+    public void reusesReleasedMac() {
+        Mac mac = key.acquire();
+        mac.update("garbage".getBytes());
+        key.release(mac);
+
+        Mac reused = key.acquire();
+        assertSame(mac, reused);
+        assertTrue(Arrays.equals(MacPool.newMac("secret").doFinal(MESSAGE), reused.doFinal(MESSAGE)));
+        assertNotSame(reused, key.acquire());
+    }
+
+    @Test
+    public void signsLikeGenerator() {
+        SignatureGenerator generator = new SignatureGenerator();
+        assertEquals(generator.generate("secret", "GET", "timestamp", "/path", MESSAGE),
+                generator.builder(key, "GET", "timestamp", "/path").update(MESSAGE).sign());
+    }
+}
@@ -0,0 +1,72 @@
+package com.bazaarvoice.auth.hmac.common;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimeUtilsTest {
+    private static final long MIN_YEAR_0 = -62167219200000L;
+    private static final long MAX_YEAR_9999 = 253402300799999L;
+
+    @Test
+    public void formatsAndParsesLikeJoda() {
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            long millis = MIN_YEAR_0 + (long) (random.nextDouble() * (MAX_YEAR_9999 - MIN_YEAR_0));
+            assertRoundTrip(millis);
+        }
+    }
+
+    @Test
+    public void formatsAndParsesBoundaries() {
+        long[] boundaries = {MIN_YEAR_0, MAX_YEAR_9999, 0, -1, 951782400000L /* 2000-02-29 */, 4107542399999L /* 2100-02-28T23:59:59.999 */};
+        for (long millis : boundaries) {
+            assertRoundTrip(millis);
+        }
+    }
+
+    @Test
+    public void formatsTimesOutsideFourDigitYears() {
+        long millis = MAX_YEAR_9999 + 1;
+        assertEquals(ISODateTimeFormat.dateTime().print(new DateTime(millis, DateTimeZone.UTC)), TimeUtils.formatTimestamp(millis));
+    }
+
+    @Test
+    public void parsesOffsets() {
+        assertEquals(jodaMillis("2014-06-01T12:30:00.250+05:30"), TimeUtils.parseMillis("2014-06-01T12:30:00.250+05:30"));
+        assertEquals(jodaMillis("2014-06-01T12:30:00.250-08:00"), TimeUtils.parseMillis("2014-06-01T12:30:00.250-08:00"));
+    }
+
+    @Test
+    public void parsesOtherIsoVariants() {
+        String[] timestamps = {"2014-06-01T12:30:00Z", "2014-06-01T12:30Z", "2014-06-01T12:30:00.25Z", "2014-06-01T12:30:00.250+0530", "2014-06-01"};
+        for (String timestamp : timestamps) {
+            assertEquals(timestamp, jodaMillis(timestamp), TimeUtils.parseMillis(timestamp));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidDate() {
+        TimeUtils.parseMillis("2014-02-30T12:30:00.000Z");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsGarbage() {
+        TimeUtils.parseMillis("two seconds ago");
+    }
+
+    private static void assertRoundTrip(long millis) {
+        String expected = ISODateTimeFormat.dateTime().print(new DateTime(millis, DateTimeZone.UTC));
+        assertEquals(expected, TimeUtils.formatTimestamp(millis));
+        assertEquals(expected, millis, TimeUtils.parseMillis(expected));
+    }
+
+    private static long jodaMillis(String timestamp) {
+        return DateTime.parse(timestamp, ISODateTimeFormat.dateTimeParser()).getMillis();
+    }
+}
@@ -1,16 +1,31 @@
 package com.bazaarvoice.auth.hmac.server;
 
+import com.bazaarvoice.auth.hmac.common.Clock;
 import com.bazaarvoice.auth.hmac.common.Credentials;
+import com.bazaarvoice.auth.hmac.common.Version;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.bazaarvoice.auth.hmac.common.TimeUtils.nowInUTC;
 import static com.bazaarvoice.auth.hmac.server.TestCredentials.createCredentials;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNull;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class AbstractAuthenticatorTest {
     private static final String API_KEY = "api-key";
@@ -50,6 +65,209 @@ public class AbstractAuthenticatorTest {
         assertNull(principal);
     }
 
+    @Test
+    public void rejectsExpiredTimestampBeforeLoadingPrincipalOrContent() {
+        final AtomicBoolean principalLoaded = new AtomicBoolean();
+        AbstractAuthenticator<String> authenticator = new AbstractAuthenticator<String>(30, TimeUnit.SECONDS) {
+            @Override
+            protected String getPrincipal(Credentials credentials) {
+                principalLoaded.set(true);
+                return PRINCIPAL;
+            }
+
+            @Override
+            protected String getSecretKeyFromPrincipal(String s) {
+                return SECRET_KEY;
+            }
+        };
+        Credentials credentials = Credentials.builder()
+                .withVersion(Version.V3)
+                .withApiKey(API_KEY)
+                .withTimestamp(ISODateTimeFormat.dateTime().print(nowInUTC().minusMinutes(1)))
+                .withMethod("POST")
+                .withPath("/example?apiKey=foo")
+                .withSignature("signature")
+                .withContentSource(new ByteSource() {
+                    @Override
+                    public InputStream openStream() {
+                        throw new AssertionError("Content should not be read");
+                    }
+                })
+                .build();
+
+        assertNull(authenticator.authenticate(credentials));
+        assertFalse(principalLoaded.get());
+    }
+
+    @Test
+    public void rejectsRequestsFailingCustomStage() {
+        AbstractAuthenticator<String> authenticator = new AbstractAuthenticator<String>(30, TimeUnit.SECONDS) {
+            @Override
+            protected List<AuthenticationStage<String>> getStages() {
+                AuthenticationStage<String> apiKeyStage = new AuthenticationStage<String>() {
+                    @Override
+                    public String getName() {
+                        return "api key";
+                    }
+
+                    @Override
+                    public boolean apply(AuthenticationContext<String> context) {
+                        return !"blocked".equals(context.getCredentials().getApiKey());
+                    }
+                };
+                return ImmutableList.of(getTimestampStage(), apiKeyStage, getPrincipalStage());
+            }
+
+            @Override
+            protected String getPrincipal(Credentials credentials) {
+                return PRINCIPAL;
+            }
+
+            @Override
+            protected String getSecretKeyFromPrincipal(String s) {
+                return SECRET_KEY;
+            }
+        };
+
+        assertEquals(PRINCIPAL, authenticator.authenticate(createCredentials(API_KEY, SECRET_KEY)));
+        assertNull(authenticator.authenticate(createCredentials("blocked", SECRET_KEY)));
+    }
+
+    @Test
+    public void validatesTimestampAgainstClock() {
+        final DateTime serverTime = nowInUTC().minusHours(1);
+        AbstractAuthenticator<String> authenticator = new AbstractAuthenticator<String>(30, TimeUnit.SECONDS, new Clock() {
+            @Override
+            public long millis() {
+                return serverTime.getMillis();
+            }
+        }) {
+            @Override
+            protected String getPrincipal(Credentials credentials) {
+                return PRINCIPAL;
+            }
+
+            @Override
+            protected String getSecretKeyFromPrincipal(String s) {
+                return SECRET_KEY;
+            }
+        };
+
+        assertEquals(PRINCIPAL, authenticator.authenticate(createCredentials(API_KEY, SECRET_KEY, serverTime)));
+        assertNull(authenticator.authenticate(createCredentials(API_KEY, SECRET_KEY)));
+    }
+
+    @Test
+    public void rejectsReplayedRequests() {
+        AbstractAuthenticator<String> authenticator = new AbstractAuthenticator<String>(30, TimeUnit.SECONDS,
+                Clock.systemClock(), new InMemoryReplayDetector(30, TimeUnit.SECONDS)) {
+            @Override
+            protected String getPrincipal(Credentials credentials) {
+                return PRINCIPAL;
+            }
+
+            @Override
+            protected String getSecretKeyFromPrincipal(String s) {
+                return SECRET_KEY;
+            }
+        };
+        Credentials credentials = createCredentials(API_KEY, SECRET_KEY);
+
+        assertNull(authenticator.authenticate(createCredentials(API_KEY, SECRET_KEY + "-invalid")));
+        assertEquals(PRINCIPAL, authenticator.authenticate(credentials));
+        assertNull(authenticator.authenticate(credentials));
+    }
+
+    @Test
+    public void reportsStepsAndOutcomesToListener() {
+        AuthenticationMetrics metrics = new AuthenticationMetrics();
+        authenticator.setAuthenticationListener(metrics);
+
+        authenticator.authenticate(createCredentials(API_KEY, SECRET_KEY));
+        authenticator.authenticate(createCredentials(API_KEY, SECRET_KEY + "-invalid"));
+        authenticator.authenticate(createCredentials(API_KEY, SECRET_KEY, nowInUTC().minusMinutes(1)));
+
+        assertEquals(1, metrics.getOutcomeCount(AuthenticationOutcome.AUTHENTICATED));
+        assertEquals(1, metrics.getOutcomeCount(AuthenticationOutcome.BAD_SIGNATURE));
+        assertEquals(1, metrics.getOutcomeCount(AuthenticationOutcome.INVALID_TIMESTAMP));
+        assertEquals(Long.valueOf(3), metrics.getStepCounts().get("timestamp"));
+        assertEquals(Long.valueOf(2), metrics.getStepCounts().get("principal"));
+        assertEquals(Long.valueOf(2), metrics.getStepCounts().get(AuthenticationListener.SIGNATURE));
+    }
+
+    @Test
+    public void reportsContentThatCannotBeReadAsError() {
+        final List<AuthenticationOutcome> logged = new ArrayList<AuthenticationOutcome>();
+        FailureLog failureLog = new FailureLog(1, TimeUnit.HOURS, 5, 10) {
+            @Override
+            public boolean record(AuthenticationOutcome reason, String apiKey, Version version) {
+                logged.add(reason);
+                return super.record(reason, apiKey, version);
+            }
+        };
+        AuthenticationMetrics metrics = new AuthenticationMetrics();
+        authenticator.setFailureLog(failureLog);
+        authenticator.setAuthenticationListener(metrics);
+        Credentials credentials = Credentials.builder()
+                .withVersion(Version.V3)
+                .withApiKey(API_KEY)
+                .withTimestamp(ISODateTimeFormat.dateTime().print(nowInUTC()))
+                .withMethod("POST")
+                .withPath("/example?apiKey=" + API_KEY)
+                .withSignature("signature")
+                .withContentSource(new ByteSource() {
+                    @Override
+                    public InputStream openStream() throws IOException {
+                        throw new IOException("Connection reset");
+                    }
+                })
+                .build();
+
+        try {
+            authenticator.authenticate(credentials);
+            fail();
+        } catch (ContentReadException e) {
+            assertEquals("Connection reset", e.getCause().getMessage());
+        } finally {
+            failureLog.close();
+        }
+        assertEquals(ImmutableList.of(AuthenticationOutcome.ERROR), logged);
+        assertEquals(1, metrics.getOutcomeCount(AuthenticationOutcome.ERROR));
+    }
+
+    @Test
+    public void authenticatesAsynchronously() throws Exception {
+        final SettableFuture<String> principal = SettableFuture.create();
+        AbstractAuthenticator<String> authenticator = new AbstractAuthenticator<String>(30, TimeUnit.SECONDS) {
+            @Override
+            protected String getPrincipal(Credentials credentials) {
+                throw new AssertionError("Principal should be looked up asynchronously");
+            }
+
+            @Override
+            protected ListenableFuture<String> getPrincipalAsync(Credentials credentials) {
+                return principal;
+            }
+
+            @Override
+            protected String getSecretKeyFromPrincipal(String s) {
+                return SECRET_KEY;
+            }
+        };
+
+        ListenableFuture<String> valid = authenticator.authenticateAsync(createCredentials(API_KEY, SECRET_KEY));
+        ListenableFuture<String> invalid = authenticator.authenticateAsync(createCredentials(API_KEY, SECRET_KEY + "-invalid"));
+        ListenableFuture<String> expired = authenticator.authenticateAsync(
+                createCredentials(API_KEY, SECRET_KEY, nowInUTC().minusMinutes(1)));
+        assertFalse(valid.isDone());
+        assertTrue(expired.isDone());
+        assertNull(expired.get());
+
+        principal.set(PRINCIPAL);
+        assertEquals(PRINCIPAL, valid.get());
+        assertNull(invalid.get());
+    }
+
     private AbstractAuthenticator<String> createAuthenticator() {
         // Implement an authenticator that allows a 30 second difference between client and server timestamps
         return new AbstractAuthenticator<String>(30, TimeUnit.SECONDS) {
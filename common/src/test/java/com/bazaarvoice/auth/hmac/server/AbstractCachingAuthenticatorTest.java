@@ -1,15 +1,44 @@
 package com.bazaarvoice.auth.hmac.server;
 
+import com.bazaarvoice.auth.hmac.common.Clock;
 import com.bazaarvoice.auth.hmac.common.Credentials;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.Rule;
 import org.junit.Test;
-
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.bazaarvoice.auth.hmac.server.TestCredentials.createCredentials;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class AbstractCachingAuthenticatorTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
 
     public static final Credentials aCredentials = createCredentials("a", "a");
     public static final Credentials bCredentials = createCredentials("b", "b");
@@ -127,25 +156,342 @@ public class AbstractCachingAuthenticatorTest {
         assertEquals(0, unit.getNumLoads());
     }
 
+    @Test
+    public void testSecretKeyIsCachedWithPrincipal() {
+        Authenticator unit = new Authenticator(5000, 20);
+
+        assertNotNull(unit.authenticate(aCredentials));
+        assertNotNull(unit.authenticate(createCredentials("a", "a")));
+        assertNull(unit.authenticate(createCredentials("a", "wrong")));
+
+        assertEquals(1, unit.getNumSecretKeyLookups());
+    }
+
+    @Test
+    public void testRefreshReloadsInBackground() throws InterruptedException {
+        // once a principal is due for a refresh, requests keep getting it while it reloads on the loader executor
+        QueueingExecutor executor = new QueueingExecutor();
+        Authenticator unit = new Authenticator(PrincipalCacheConfiguration.builder()
+                .withExpireAfterWrite(10, TimeUnit.SECONDS)
+                .withRefreshAfterWrite(50, TimeUnit.MILLISECONDS)
+                .withLoaderExecutor(executor)
+                .build());
+
+        SimplePrincipal first = unit.authenticate(aCredentials);
+        Thread.sleep(60);
+
+        assertSame(first, unit.authenticate(createCredentials("a", "a")));
+        assertEquals(1, unit.getNumLoads());
+        assertEquals(1, executor.tasks.size());
+
+        executor.runAll();
+        assertEquals(2, unit.getNumLoads());
+        assertNotSame(first, unit.authenticate(createCredentials("a", "a")));
+        assertEquals(0, executor.tasks.size());
+    }
+
+    @Test
+    public void testRefreshForgetsPrincipalThatHasGoneAway() throws InterruptedException {
+        // a principal that is no longer found when it is refreshed is remembered as unknown, and not reloaded
+        QueueingExecutor executor = new QueueingExecutor();
+        Authenticator unit = new Authenticator(PrincipalCacheConfiguration.builder()
+                .withExpireAfterWrite(10, TimeUnit.SECONDS)
+                .withRefreshAfterWrite(50, TimeUnit.MILLISECONDS)
+                .withLoaderExecutor(executor)
+                .build());
+
+        assertNotNull(unit.authenticate(aCredentials));
+        Thread.sleep(60);
+        unit.delete("a");
+        assertNotNull(unit.authenticate(createCredentials("a", "a")));
+        executor.runAll();
+
+        assertNull(unit.authenticate(createCredentials("a", "a")));
+        assertNull(unit.authenticate(createCredentials("a", "a")));
+        assertEquals(2, unit.getNumLoads());
+        assertEquals(2, unit.getCacheStats().getNegativeHitCount());
+        assertEquals(0, executor.tasks.size());
+    }
+
+    @Test
+    public void testCloseStopsOwnLoaderThreads() {
+        Authenticator unit = new Authenticator(PrincipalCacheConfiguration.builder()
+                .withExpireAfterWrite(10, TimeUnit.SECONDS)
+                .withRefreshAfterWrite(50, TimeUnit.MILLISECONDS)
+                .build());
+        ExecutorService executor = (ExecutorService) unit.getLoaderExecutor();
+        assertFalse(executor.isShutdown());
+
+        unit.close();
+        assertTrue(executor.isShutdown());
+        assertNotNull(unit.authenticate(aCredentials));
+    }
+
+    @Test
+    public void testCloseLeavesConfiguredLoaderExecutorRunning() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Authenticator unit = new Authenticator(PrincipalCacheConfiguration.builder()
+                    .withExpireAfterWrite(10, TimeUnit.SECONDS)
+                    .withRefreshAfterWrite(50, TimeUnit.MILLISECONDS)
+                    .withLoaderExecutor(executor)
+                    .build());
+
+            unit.close();
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testUnknownKeysDoNotEvictPrincipals() {
+        // requests with many unknown keys are remembered apart from the principals, which stay cached
+        Authenticator unit = new Authenticator(PrincipalCacheConfiguration.builder()
+                .withMaximumSize(2)
+                .build());
+
+        unit.authenticate(aCredentials);
+        unit.authenticate(bCredentials);
+        for (int i = 0; i < 100; i++) {
+            assertNull(unit.authenticate(createCredentials("unknown-" + i, "secret")));
+        }
+        unit.authenticate(aCredentials);
+        unit.authenticate(bCredentials);
+        assertNull(unit.authenticate(createCredentials("unknown-0", "secret")));
+
+        assertEquals(102, unit.getNumLoads());
+    }
+
+    @Test
+    public void testUnknownKeysAreCachedWithPrincipalsWithoutNegativeCache() {
+        // as with the original constructor, unknown keys are cached with the principals, and can evict them
+        Authenticator unit = new Authenticator(PrincipalCacheConfiguration.builder()
+                .withMaximumSize(2)
+                .withNegativeMaximumSize(0)
+                .build());
+        assertUnknownKeysAreCachedWithPrincipals(unit);
+        assertUnknownKeysAreCachedWithPrincipals(new Authenticator(5000, 2));
+    }
+
+    private void assertUnknownKeysAreCachedWithPrincipals(Authenticator unit) {
+        unit.authenticate(aCredentials);
+        assertNull(unit.authenticate(createCredentials("unknown-0", "secret")));
+        assertNull(unit.authenticate(createCredentials("unknown-0", "secret")));
+        assertEquals(2, unit.getNumLoads());
+        assertEquals(1, unit.getCacheStats().getNegativeHitCount());
+
+        assertNull(unit.authenticate(createCredentials("unknown-1", "secret")));
+        unit.authenticate(aCredentials);
+        assertEquals(4, unit.getNumLoads());
+    }
+
+    @Test
+    public void testLoadAll() {
+        Authenticator unit = new Authenticator(5000, 20);
+
+        unit.loadAll(ImmutableList.of("a", "b", "unknown", "a"));
+        assertEquals(3, unit.getNumLoads());
+
+        assertNotNull(unit.authenticate(aCredentials));
+        assertNotNull(unit.authenticate(bCredentials));
+        assertNull(unit.authenticate(createCredentials("unknown", "secret")));
+        assertEquals(3, unit.getNumLoads());
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        // a new authenticator loads the principals cached by the old one from its snapshot
+        PrincipalCacheConfiguration configuration = PrincipalCacheConfiguration.builder()
+                .withSnapshotFile(new File(temporaryFolder.getRoot(), "principals"))
+                .build();
+        Authenticator unit = new Authenticator(configuration);
+        unit.authenticate(aCredentials);
+        unit.authenticate(bCredentials);
+        unit.authenticate(createCredentials("unknown", "secret"));
+        unit.writeSnapshot();
+
+        Authenticator restarted = new Authenticator(configuration);
+        assertEquals(2, restarted.loadSnapshot());
+        assertEquals(2, restarted.getNumLoads());
+
+        assertNotNull(restarted.authenticate(aCredentials));
+        assertNotNull(restarted.authenticate(bCredentials));
+        assertEquals(2, restarted.getNumLoads());
+    }
+
+    @Test
+    public void testCacheStats() {
+        Authenticator unit = new Authenticator(PrincipalCacheConfiguration.builder()
+                .withMaximumSize(1)
+                .build());
+
+        unit.authenticate(aCredentials);
+        unit.authenticate(aCredentials);
+        unit.authenticate(createCredentials("unknown", "secret"));
+        unit.authenticate(createCredentials("unknown", "secret"));
+        unit.authenticate(bCredentials);
+
+        PrincipalCacheStats stats = unit.getCacheStats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(3, stats.getMissCount());
+        assertEquals(1, stats.getNegativeHitCount());
+        assertEquals(3, stats.getLoadCount());
+        assertEquals(0, stats.getLoadFailureCount());
+        assertEquals(1, stats.getEvictionCount());
+        assertEquals(1, stats.getSize());
+        assertEquals(0.4, stats.getHitRate(), 0.001);
+        assertTrue(stats.getLoadMillis99thPercentile() >= stats.getLoadMillis50thPercentile());
+    }
+
+    @Test
+    public void testAuthenticateAsyncUsesCache() throws Exception {
+        Authenticator unit = new Authenticator(5000, 20);
+
+        SimplePrincipal principal = unit.authenticateAsync(aCredentials).get();
+        assertNotNull(principal);
+        assertSame(principal, unit.authenticateAsync(aCredentials).get());
+        assertSame(principal, unit.authenticate(aCredentials));
+        assertNull(unit.authenticateAsync(createCredentials("unknown", "secret")).get());
+        assertNull(unit.authenticateAsync(createCredentials("unknown", "secret")).get());
+
+        assertEquals(2, unit.getNumLoads());
+        assertEquals(1, unit.getCacheStats().getNegativeHitCount());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        final CountDownLatch loadStarted = new CountDownLatch(1);
+        final CountDownLatch finishLoad = new CountDownLatch(1);
+        final Authenticator unit = new Authenticator(5000, 20) {
+            @Override
+            protected SimplePrincipal loadPrincipal(Credentials credentials) {
+                loadStarted.countDown();
+                try {
+                    finishLoad.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return super.loadPrincipal(credentials);
+            }
+        };
+
+        final AtomicReference<SimplePrincipal> leader = new AtomicReference<SimplePrincipal>();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                leader.set(unit.authenticate(aCredentials));
+            }
+        };
+        thread.start();
+        loadStarted.await();
+
+        ListenableFuture<SimplePrincipal> follower = unit.authenticateAsync(aCredentials);
+        assertFalse(follower.isDone());
+        finishLoad.countDown();
+        thread.join();
+
+        assertNotNull(leader.get());
+        assertSame(leader.get(), follower.get());
+        assertEquals(1, unit.getNumLoads());
+    }
+
+    @Test
+    public void testWaitForAnotherLoadIsBounded() throws Exception {
+        final CountDownLatch loadStarted = new CountDownLatch(1);
+        final CountDownLatch finishLoad = new CountDownLatch(1);
+        final Authenticator unit = new Authenticator(PrincipalCacheConfiguration.builder()
+                .withLoadTimeout(50, TimeUnit.MILLISECONDS)
+                .build()) {
+            private final AtomicBoolean first = new AtomicBoolean(true);
+
+            @Override
+            protected SimplePrincipal loadPrincipal(Credentials credentials) {
+                if (first.getAndSet(false)) {
+                    loadStarted.countDown();
+                    Uninterruptibles.awaitUninterruptibly(finishLoad);
+                }
+                return super.loadPrincipal(credentials);
+            }
+        };
+
+        Thread stuck = new Thread() {
+            @Override
+            public void run() {
+                unit.authenticate(aCredentials);
+            }
+        };
+        stuck.start();
+        loadStarted.await();
+
+        try {
+            unit.authenticate(createCredentials("a", "a"));
+            fail();
+        } catch (UncheckedTimeoutException e) {
+            // expected
+        }
+        // The load that timed out is no longer shared, so the next request loads the principal again
+        assertNotNull(unit.authenticate(createCredentials("a", "a")));
+        assertEquals(1, unit.getNumLoads());
+
+        finishLoad.countDown();
+        stuck.join();
+        assertEquals(2, unit.getNumLoads());
+    }
+
+    private static class QueueingExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        synchronized void runAll() {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            tasks.clear();
+        }
+    }
+
     private static class Authenticator extends AbstractCachingAuthenticator<SimplePrincipal> {
         private final AtomicInteger numLoads = new AtomicInteger(0);
+        private final AtomicInteger numSecretKeyLookups = new AtomicInteger(0);
+        private final Set<String> deleted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
         public int getNumLoads() {
             return numLoads.get();
         }
 
+        public int getNumSecretKeyLookups() {
+            return numSecretKeyLookups.get();
+        }
+
+        public void delete(String apiKey) {
+            deleted.add(apiKey);
+        }
+
         public Authenticator(int cacheTimeoutMillis, int maxCacheElements) {
             super(5000, cacheTimeoutMillis, TimeUnit.MILLISECONDS, maxCacheElements);
         }
 
+        public Authenticator(PrincipalCacheConfiguration cacheConfiguration) {
+            super(5000, TimeUnit.MILLISECONDS, Clock.systemClock(), null, cacheConfiguration);
+        }
+
         @Override
         protected SimplePrincipal loadPrincipal(Credentials credentials) {
             numLoads.incrementAndGet();
+            if (credentials.getApiKey().startsWith("unknown") || deleted.contains(credentials.getApiKey())) {
+                return null;
+            }
             return new SimplePrincipal(credentials.getApiKey());
         }
 
         @Override
         protected String getSecretKeyFromPrincipal(SimplePrincipal principal) {
+            numSecretKeyLookups.incrementAndGet();
             return principal.id;
         }
     }
@@ -0,0 +1,37 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class AuthenticationMetricsTest {
+    private final AuthenticationMetrics metrics = new AuthenticationMetrics();
+
+    @Test
+    public void countsOutcomes() {
+        metrics.requestCompleted(AuthenticationOutcome.AUTHENTICATED, 0);
+        metrics.requestCompleted(AuthenticationOutcome.AUTHENTICATED, 0);
+        metrics.requestCompleted(AuthenticationOutcome.DECODE_ERROR, 0);
+
+        assertEquals(Long.valueOf(2), metrics.getOutcomeCounts().get("AUTHENTICATED"));
+        assertEquals(Long.valueOf(1), metrics.getOutcomeCounts().get("DECODE_ERROR"));
+        assertEquals(Long.valueOf(0), metrics.getOutcomeCounts().get("BAD_SIGNATURE"));
+    }
+
+    @Test
+    public void reportsStepPercentilesWithinFactorOfTwo() {
+        for (int i = 0; i < 99; i++) {
+            metrics.stepCompleted("principal", TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        metrics.stepCompleted("principal", TimeUnit.MILLISECONDS.toNanos(10));
+
+        double median = metrics.getStepMillisPercentile("principal", 0.5);
+        double tail = metrics.getStepMillisPercentile("principal", 0.999);
+        assertEquals(0.128, median, 0.0001);
+        assertEquals(16.384, tail, 0.0001);
+        assertEquals(0.199, metrics.getStepMeanMillis().get("principal"), 0.0001);
+        assertEquals(0.0, metrics.getStepMillisPercentile("signature", 0.5), 0.0);
+    }
+}
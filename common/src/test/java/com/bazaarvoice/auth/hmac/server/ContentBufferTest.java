@@ -0,0 +1,91 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContentBufferTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsSmallContentInMemory() throws IOException {
+        byte[] content = randomBytes(20000);
+        ContentBuffer buffer = ContentBuffer.read(new ByteArrayInputStream(content), content.length, folder.getRoot());
+
+        assertFalse(buffer.isSpilled());
+        assertEquals(content.length, buffer.size());
+        assertArrayEquals(content, buffer.read());
+        buffer.close();
+    }
+
+    @Test
+    public void spillsLargeContentToDisk() throws IOException {
+        byte[] content = randomBytes(20000);
+        ContentBuffer buffer = ContentBuffer.read(new ByteArrayInputStream(content), 10000, folder.getRoot());
+
+        assertTrue(buffer.isSpilled());
+        assertEquals(content.length, buffer.size());
+        assertArrayEquals(content, buffer.read());
+
+        buffer.close();
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void readsEmptyContent() throws IOException {
+        ContentBuffer buffer = ContentBuffer.read(new ByteArrayInputStream(new byte[0]), 0, folder.getRoot());
+
+        assertFalse(buffer.isSpilled());
+        assertEquals(0, buffer.read().length);
+        buffer.close();
+    }
+
+    @Test
+    public void opensIndependentStreams() throws IOException {
+        byte[] content = randomBytes(20000);
+        ContentBuffer buffer = ContentBuffer.read(new ByteArrayInputStream(content), 10000, folder.getRoot());
+
+        InputStream first = buffer.openStream();
+        ByteStreams.skipFully(first, 15000);
+        InputStream second = buffer.openStream();
+
+        assertEquals(content[15000] & 0xff, first.read());
+        assertArrayEquals(content, ByteStreams.toByteArray(second));
+        buffer.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void releasingStreamClosesBuffer() throws IOException {
+        ContentBuffer buffer = ContentBuffer.read(new ByteArrayInputStream(randomBytes(100)), 1000, folder.getRoot());
+
+        buffer.openReleasingStream().close();
+        buffer.openStream();
+    }
+
+    @Test(expected = IOException.class)
+    public void failsToReadAfterClose() throws IOException {
+        ContentBuffer buffer = ContentBuffer.read(new ByteArrayInputStream(randomBytes(100)), 1000, folder.getRoot());
+        InputStream in = buffer.openStream();
+
+        buffer.close();
+        in.read();
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
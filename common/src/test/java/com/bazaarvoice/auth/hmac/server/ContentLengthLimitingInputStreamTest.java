@@ -0,0 +1,49 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ContentLengthLimitingInputStreamTest {
+    private static final byte[] CONTENT = "some content".getBytes();
+
+    @Test
+    public void readsContentUpToLimit() throws IOException {
+        assertArrayEquals(CONTENT, ByteStreams.toByteArray(limit(CONTENT.length)));
+    }
+
+    @Test(expected = ContentTooLargeException.class)
+    public void failsWhenContentExceedsLimit() throws IOException {
+        ByteStreams.toByteArray(limit(CONTENT.length - 1));
+    }
+
+    @Test(expected = ContentTooLargeException.class)
+    public void failsWhenSingleBytesExceedLimit() throws IOException {
+        InputStream in = limit(1);
+        assertEquals(CONTENT[0], in.read());
+        in.read();
+    }
+
+    @Test
+    public void acceptsUnlimitedContent() throws IOException {
+        assertArrayEquals(CONTENT, ByteStreams.toByteArray(limit(Long.MAX_VALUE)));
+    }
+
+    private static InputStream limit(long maxLength) {
+        return new ContentLengthLimitingInputStream(new ByteArrayInputStream(CONTENT), maxLength) {
+            @Override
+            protected RuntimeException contentTooLarge() {
+                return new ContentTooLargeException();
+            }
+        };
+    }
+
+    private static class ContentTooLargeException extends RuntimeException {
+    }
+}
@@ -0,0 +1,54 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.bazaarvoice.auth.hmac.common.Version;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FailureLogTest {
+    private final FailureLog failureLog = new FailureLog(1, TimeUnit.HOURS, 2, 3);
+
+    @After
+    public void tearDown() {
+        failureLog.close();
+    }
+
+    @Test
+    public void testLimitsFailuresLoggedPerKey() {
+        assertTrue(failureLog.record(AuthenticationOutcome.BAD_SIGNATURE, "key", Version.V1));
+        assertTrue(failureLog.record(AuthenticationOutcome.INVALID_TIMESTAMP, "key", Version.V1));
+        assertFalse(failureLog.record(AuthenticationOutcome.BAD_SIGNATURE, "key", Version.V1));
+        assertTrue(failureLog.record(AuthenticationOutcome.BAD_SIGNATURE, "other-key", Version.V1));
+
+        assertEquals(2, failureLog.getCount(AuthenticationOutcome.BAD_SIGNATURE, "key", Version.V1));
+        assertEquals(1, failureLog.getCount(AuthenticationOutcome.INVALID_TIMESTAMP, "key", Version.V1));
+    }
+
+    @Test
+    public void testSummaryStartsNewInterval() {
+        failureLog.record(AuthenticationOutcome.BAD_SIGNATURE, "key", Version.V1);
+        failureLog.record(AuthenticationOutcome.BAD_SIGNATURE, "key", Version.V1);
+        assertFalse(failureLog.record(AuthenticationOutcome.BAD_SIGNATURE, "key", Version.V1));
+
+        failureLog.logSummary();
+
+        assertEquals(0, failureLog.getCount(AuthenticationOutcome.BAD_SIGNATURE, "key", Version.V1));
+        assertTrue(failureLog.record(AuthenticationOutcome.BAD_SIGNATURE, "key", Version.V1));
+    }
+
+    @Test
+    public void testBoundsTrackedFailures() {
+        failureLog.record(AuthenticationOutcome.UNKNOWN_PRINCIPAL, "a", Version.V1);
+        failureLog.record(AuthenticationOutcome.UNKNOWN_PRINCIPAL, "b", Version.V1);
+        failureLog.record(AuthenticationOutcome.UNKNOWN_PRINCIPAL, "b", Version.V2);
+        assertFalse(failureLog.record(AuthenticationOutcome.UNKNOWN_PRINCIPAL, "c", Version.V1));
+
+        assertEquals(0, failureLog.getCount(AuthenticationOutcome.UNKNOWN_PRINCIPAL, "c", Version.V1));
+        assertEquals(1, failureLog.getCount(AuthenticationOutcome.UNKNOWN_PRINCIPAL, "a", Version.V1));
+    }
+}
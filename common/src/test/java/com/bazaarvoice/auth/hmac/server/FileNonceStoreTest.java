@@ -0,0 +1,70 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.bazaarvoice.auth.hmac.common.Clock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FileNonceStoreTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final MutableClock clock = new MutableClock();
+    private FileNonceStore store;
+    private FileNonceStore otherStore;
+
+    @Before
+    public void setUp() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "nonces");
+        store = new FileNonceStore(file, clock);
+        otherStore = new FileNonceStore(file, clock);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+        otherStore.close();
+    }
+
+    @Test
+    public void addsEachNonceOnce() throws Exception {
+        assertEquals(Arrays.asList(true, true), putIfAbsent(store, new Nonce("a", 100), new Nonce("b", 100)));
+        assertEquals(Arrays.asList(false, true), putIfAbsent(store, new Nonce("a", 100), new Nonce("c", 100)));
+    }
+
+    @Test
+    public void seesNoncesAddedThroughAnotherStore() throws Exception {
+        assertEquals(Arrays.asList(true), putIfAbsent(store, new Nonce("a", 100)));
+        assertEquals(Arrays.asList(false, true), putIfAbsent(otherStore, new Nonce("a", 100), new Nonce("b", 100)));
+        assertEquals(Arrays.asList(false), putIfAbsent(store, new Nonce("b", 100)));
+    }
+
+    @Test
+    public void replacesExpiredNonces() throws Exception {
+        assertEquals(Arrays.asList(true), putIfAbsent(store, new Nonce("a", 100)));
+        clock.now = 101;
+        assertEquals(Arrays.asList(true), putIfAbsent(otherStore, new Nonce("a", 200)));
+        assertEquals(Arrays.asList(false), putIfAbsent(store, new Nonce("a", 200)));
+    }
+
+    private static List<Boolean> putIfAbsent(NonceStore store, Nonce... nonces) throws Exception {
+        return store.putIfAbsent(Arrays.asList(nonces)).get();
+    }
+
+    private static class MutableClock extends Clock {
+        private volatile long now;
+
+        @Override
+        public long millis() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.bazaarvoice.auth.hmac.common.Credentials;
+import com.bazaarvoice.auth.hmac.common.Version;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.bazaarvoice.auth.hmac.common.TimeUtils.nowInUTC;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryReplayDetectorTest {
+    private final InMemoryReplayDetector detector = new InMemoryReplayDetector(1, TimeUnit.MINUTES);
+
+    @Test
+    public void rejectsSecondCopyOfRequest() {
+        DateTime now = nowInUTC();
+        assertTrue(detector.record(credentials("key", "signature", now)));
+        assertFalse(detector.record(credentials("key", "signature", now)));
+    }
+
+    @Test
+    public void acceptsDifferentRequests() {
+        DateTime now = nowInUTC();
+        assertTrue(detector.record(credentials("key", "signature", now)));
+        assertTrue(detector.record(credentials("key", "other-signature", now)));
+        assertTrue(detector.record(credentials("other-key", "signature", now)));
+    }
+
+    @Test
+    public void remembersManyRequests() {
+        DateTime now = nowInUTC();
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(detector.record(credentials("key", "signature-" + i, now.plusMillis(i % 1000))));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertFalse(detector.record(credentials("key", "signature-" + i, now.plusMillis(i % 1000))));
+        }
+    }
+
+    @Test
+    public void forgetsRequestsOnceTheirTimestampExpires() {
+        DateTime then = nowInUTC();
+        assertTrue(detector.record(credentials("key", "signature", then)));
+
+        // Once requests arrive with timestamps beyond the range around the first, its bucket is reused
+        for (int seconds = 1; seconds <= 180; seconds++) {
+            assertTrue(detector.record(credentials("key", "signature-" + seconds, then.plusSeconds(seconds))));
+        }
+        assertTrue(detector.record(credentials("key", "signature", then)));
+    }
+
+    @Test
+    public void rejectsRequestsOnceFull() {
+        // The range is split into 30 slices of 4 seconds, each of which may hold a thirtieth of the requests
+        InMemoryReplayDetector detector = new InMemoryReplayDetector(1, TimeUnit.MINUTES, 3000);
+        DateTime now = nowInUTC();
+        int accepted = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (detector.record(credentials("key", "signature-" + i, now))) {
+                accepted++;
+            }
+        }
+        assertTrue(accepted > 0);
+        assertTrue(accepted <= 3000 / 30 + 16);
+
+        // Requests from other slices still have room
+        assertTrue(detector.record(credentials("key", "signature", now.plusSeconds(10))));
+    }
+
+    private static Credentials credentials(String apiKey, String signature, DateTime timestamp) {
+        return Credentials.builder()
+                .withVersion(Version.V3)
+                .withApiKey(apiKey)
+                .withSignature(signature)
+                .withTimestamp(ISODateTimeFormat.dateTime().print(timestamp))
+                .withMethod("GET")
+                .withPath("/example?apiKey=" + apiKey)
+                .build();
+    }
+}
@@ -0,0 +1,75 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NegativeKeyCacheTest {
+    private final FakeTicker ticker = new FakeTicker();
+    private final NegativeKeyCache cache = new NegativeKeyCache(1000, 1000, ticker);
+
+    @Test
+    public void remembersAddedKeys() {
+        cache.add("key");
+        assertTrue(cache.contains("key"));
+        assertFalse(cache.contains("other-key"));
+    }
+
+    @Test
+    public void forgetsKeysOnceExpired() {
+        cache.add("key");
+        ticker.nanos += TimeUnit.MILLISECONDS.toNanos(999);
+        assertTrue(cache.contains("key"));
+        ticker.nanos += TimeUnit.MILLISECONDS.toNanos(1);
+        assertFalse(cache.contains("key"));
+    }
+
+    @Test
+    public void forgetsRemovedAndClearedKeys() {
+        cache.add("key");
+        cache.add("other-key");
+        cache.remove("key");
+        assertFalse(cache.contains("key"));
+        assertTrue(cache.contains("other-key"));
+
+        cache.clear();
+        assertFalse(cache.contains("other-key"));
+    }
+
+    @Test
+    public void holdsNoMoreThanMaximumSize() {
+        for (int i = 0; i < 10000; i++) {
+            cache.add("key-" + i);
+        }
+        int remembered = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (cache.contains("key-" + i)) {
+                remembered++;
+            }
+        }
+        assertTrue(remembered <= 1024);
+        assertTrue(cache.contains("key-9999"));
+    }
+
+    @Test
+    public void hashesKeysDifferentlyInEachCache() {
+        // A key that collides with another in one cache is no use against a different cache
+        NegativeKeyCache other = new NegativeKeyCache(1000, 1000, ticker);
+        assertEquals(cache.hash("key"), cache.hash("key"));
+        assertTrue(cache.hash("key") != other.hash("key"));
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.bazaarvoice.auth.hmac.common.Credentials;
+import com.bazaarvoice.auth.hmac.common.Version;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.bazaarvoice.auth.hmac.common.TimeUtils.nowInUTC;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SharedReplayDetectorTest {
+    private final CountingNonceStore store = new CountingNonceStore();
+    private final SharedReplayDetector detector = detector(store).build();
+    private final SharedReplayDetector otherDetector = detector(store).build();
+
+    @After
+    public void tearDown() {
+        detector.close();
+        otherDetector.close();
+    }
+
+    @Test
+    public void rejectsRequestReplayedToAnotherServer() {
+        DateTime now = nowInUTC();
+        assertTrue(detector.record(credentials("key", "signature", now)));
+        assertFalse(otherDetector.record(credentials("key", "signature", now)));
+        assertTrue(otherDetector.record(credentials("key", "other-signature", now)));
+    }
+
+    @Test
+    public void rejectsRequestReplayedToSameServerWhenOptimistic() {
+        SharedReplayDetector optimistic = detector(store).withOptimisticRecording().build();
+        try {
+            DateTime now = nowInUTC();
+            assertTrue(optimistic.record(credentials("key", "signature", now)));
+            assertFalse(optimistic.record(credentials("key", "signature", now)));
+            assertEquals(2, store.count.get());
+        } finally {
+            optimistic.close();
+        }
+    }
+
+    @Test
+    public void acceptsNewRequestsTheBloomFilterMistakesForReplays() {
+        // A filter sized for one request, with a high false positive rate, soon mistakes every request for a replay
+        SharedReplayDetector overloaded = detector(store)
+                .withOptimisticRecording()
+                .withExpectedRate(1)
+                .withFalsePositiveProbability(0.5)
+                .build();
+        try {
+            DateTime now = nowInUTC();
+            for (int i = 0; i < 100; i++) {
+                assertTrue(overloaded.record(credentials("key", "signature-" + i, now)));
+            }
+        } finally {
+            overloaded.close();
+        }
+    }
+
+    @Test
+    public void acceptsRequestsWithoutWaitingForStoreWhenOptimistic() {
+        SharedReplayDetector optimistic = detector(new UnresponsiveNonceStore()).withOptimisticRecording().build();
+        try {
+            assertTrue(optimistic.record(credentials("key", "signature", nowInUTC())));
+        } finally {
+            optimistic.close();
+        }
+    }
+
+    @Test
+    public void failsClosedWhenStoreDoesNotRespond() {
+        SharedReplayDetector failClosed = detector(new UnresponsiveNonceStore())
+                .withTimeout(5, TimeUnit.MILLISECONDS)
+                .build();
+        SharedReplayDetector failOpen = detector(new UnresponsiveNonceStore())
+                .withTimeout(5, TimeUnit.MILLISECONDS)
+                .withFailOpen(true)
+                .build();
+        try {
+            assertFalse(failClosed.record(credentials("key", "signature", nowInUTC())));
+            assertTrue(failOpen.record(credentials("key", "signature", nowInUTC())));
+        } finally {
+            failClosed.close();
+            failOpen.close();
+        }
+    }
+
+    private static SharedReplayDetector.Builder detector(NonceStore store) {
+        return SharedReplayDetector.builder(store, 1, TimeUnit.MINUTES)
+                .withTimeout(5, TimeUnit.SECONDS)
+                .withExpectedRate(10);
+    }
+
+    private static Credentials credentials(String apiKey, String signature, DateTime timestamp) {
+        return Credentials.builder()
+                .withVersion(Version.V3)
+                .withApiKey(apiKey)
+                .withSignature(signature)
+                .withTimestamp(ISODateTimeFormat.dateTime().print(timestamp))
+                .withMethod("GET")
+                .withPath("/example?apiKey=" + apiKey)
+                .build();
+    }
+
+    private static class CountingNonceStore extends InProcessNonceStore {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public ListenableFuture<List<Boolean>> putIfAbsent(List<Nonce> batch) {
+            count.addAndGet(batch.size());
+            return super.putIfAbsent(batch);
+        }
+    }
+
+    private static class UnresponsiveNonceStore implements NonceStore {
+        @Override
+        public ListenableFuture<List<Boolean>> putIfAbsent(List<Nonce> batch) {
+            return SettableFuture.create();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.bazaarvoice.auth.hmac.dropwizard.server;
+
+import com.bazaarvoice.auth.hmac.server.AuthenticationListener;
+import com.bazaarvoice.auth.hmac.server.AuthenticationOutcome;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the timings of authentication steps as Dropwizard timers, and the outcomes as meters, under a common
+ * prefix, e.g. {@code <prefix>.step.principal} and {@code <prefix>.outcome.bad-signature}.
+ */
+public class MetricsAuthenticationListener implements AuthenticationListener {
+    private final MetricRegistry registry;
+    private final String prefix;
+    private final ConcurrentMap<String, Timer> steps = new ConcurrentHashMap<String, Timer>();
+    private final Map<AuthenticationOutcome, Meter> outcomes = new EnumMap<AuthenticationOutcome, Meter>(AuthenticationOutcome.class);
+
+    public MetricsAuthenticationListener(MetricRegistry registry, String prefix) {
+        this.registry = registry;
+        this.prefix = prefix;
+        for (AuthenticationOutcome outcome : AuthenticationOutcome.values()) {
+            String name = outcome.name().toLowerCase().replace('_', '-');
+            outcomes.put(outcome, registry.meter(MetricRegistry.name(prefix, "outcome", name)));
+        }
+    }
+
+    @Override
+    public void stepCompleted(String step, long elapsedNanos) {
+        Timer timer = steps.get(step);
+        if (timer == null) {
+            timer = registry.timer(MetricRegistry.name(prefix, "step", step));
+            steps.putIfAbsent(step, timer);
+        }
+        timer.update(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void requestCompleted(AuthenticationOutcome outcome, long elapsedNanos) {
+        outcomes.get(outcome).mark();
+    }
+}
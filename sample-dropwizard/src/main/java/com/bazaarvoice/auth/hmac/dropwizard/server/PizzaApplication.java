@@ -1,5 +1,6 @@
 package com.bazaarvoice.auth.hmac.dropwizard.server;
 
+import com.codahale.metrics.MetricRegistry;
 import io.dropwizard.Application;
 import io.dropwizard.Configuration;
 import io.dropwizard.setup.Bootstrap;
@@ -24,6 +25,10 @@ public class PizzaApplication extends Application<Configuration> {
 
     @Override
     public void run(Configuration configuration, Environment environment) throws Exception {
-
+        PizzaAuthenticator authenticator = new PizzaAuthenticator();
+        environment.metrics().register(MetricRegistry.name(PizzaAuthenticator.class, "cache"),
+                new PrincipalCacheMetricSet(authenticator.getCacheStats()));
+        authenticator.setAuthenticationListener(new MetricsAuthenticationListener(environment.metrics(),
+                MetricRegistry.name(PizzaAuthenticator.class, "authentication")));
     }
 }
@@ -0,0 +1,104 @@
+package com.bazaarvoice.auth.hmac.dropwizard.server;
+
+import com.bazaarvoice.auth.hmac.server.PrincipalCacheStats;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Publishes the statistics of an authenticator's principal cache as Dropwizard gauges.
+ */
+public class PrincipalCacheMetricSet implements MetricSet {
+    private final PrincipalCacheStats stats;
+
+    public PrincipalCacheMetricSet(PrincipalCacheStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        Map<String, Metric> metrics = new HashMap<String, Metric>();
+        metrics.put("hits", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return stats.getHitCount();
+            }
+        });
+        metrics.put("misses", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return stats.getMissCount();
+            }
+        });
+        metrics.put("negative-hits", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return stats.getNegativeHitCount();
+            }
+        });
+        metrics.put("hit-rate", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return stats.getHitRate();
+            }
+        });
+        metrics.put("loads", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return stats.getLoadCount();
+            }
+        });
+        metrics.put("load-failures", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return stats.getLoadFailureCount();
+            }
+        });
+        metrics.put("load-millis.mean", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return stats.getAverageLoadMillis();
+            }
+        });
+        metrics.put("load-millis.p50", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return stats.getLoadMillis50thPercentile();
+            }
+        });
+        metrics.put("load-millis.p99", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return stats.getLoadMillis99thPercentile();
+            }
+        });
+        metrics.put("load-millis.p999", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return stats.getLoadMillis999thPercentile();
+            }
+        });
+        metrics.put("evictions", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return stats.getEvictionCount();
+            }
+        });
+        metrics.put("expirations", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return stats.getExpirationCount();
+            }
+        });
+        metrics.put("size", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return stats.getSize();
+            }
+        });
+        return metrics;
+    }
+}
@@ -4,11 +4,14 @@ import com.bazaarvoice.auth.hmac.common.Credentials;
 import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
 import com.bazaarvoice.auth.hmac.server.exception.InternalServerException;
 import com.bazaarvoice.auth.hmac.server.exception.NotAuthorizedException;
+import com.bazaarvoice.auth.hmac.server.exception.RequestEntityTooLargeException;
 import com.google.common.annotations.VisibleForTesting;
 import com.sun.jersey.api.core.HttpRequestContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static com.google.common.base.Preconditions.checkState;
+
 /**
  * A strict implementation of a <code>RequestHandler</code>, which requires all requests to an annotated
  * endpoint to contain valid authentication credentials.
@@ -37,21 +40,62 @@ public class DefaultRequestHandler<Principal> implements RequestHandler<Principa
 
     @Override
     public Principal handle(HttpRequestContext request) throws NotAuthorizedException, InternalServerException {
+        AuthenticationListener listener = AuthenticationListeners.of(authenticator);
+        long start = AuthenticationListeners.start(listener);
+        Credentials credentials = null;
+        boolean authenticated = false;
         try {
-            Credentials credentials = requestDecoder.decode(request);
-            Principal result = authenticator.authenticate(credentials);
+            credentials = requestDecoder.decode(request);
+            AuthenticationListeners.stepCompleted(listener, AuthenticationListener.DECODE, start);
+            Principal result = authenticate(request, credentials);
             if (result != null) {
+                authenticated = true;
                 return result;
             }
 
         } catch (IllegalArgumentException e) {
-            LOG.info("Error decoding credentials: {}", e.getMessage());
+            LOG.debug("Error decoding credentials: {}", e.getMessage());
+            FailureLog.of(authenticator).record(AuthenticationOutcome.DECODE_ERROR, null, null);
+            AuthenticationListeners.requestCompleted(listener, AuthenticationOutcome.DECODE_ERROR, start);
             throw new NotAuthorizedException();
+        } catch (RequestEntityTooLargeException e) {
+            FailureLog.of(authenticator).record(AuthenticationOutcome.CONTENT_TOO_LARGE,
+                    credentials != null ? credentials.getApiKey() : null,
+                    credentials != null ? credentials.getVersion() : null);
+            AuthenticationListeners.requestCompleted(listener, AuthenticationOutcome.CONTENT_TOO_LARGE, start);
+            throw e;
+        } catch (ContentReadException e) {
+            // Reported by the authenticator already
+            LOG.warn("Error reading content while authenticating credentials", e.getCause());
+            throw new InternalServerException();
         } catch (Exception e) {
             LOG.warn("Error while authenticating credentials", e);
+            AuthenticationListeners.requestCompleted(listener, AuthenticationOutcome.ERROR, start);
             throw new InternalServerException();
+        } finally {
+            if (!authenticated) {
+                // The request is rejected, so the resource will never read any content that was buffered
+                requestDecoder.releaseContent(request);
+            }
         }
 
         throw new NotAuthorizedException();
     }
+
+    @SuppressWarnings("unchecked")
+    private Principal authenticate(HttpRequestContext request, Credentials credentials) {
+        if (!requestDecoder.isContentStreamed(request, credentials)) {
+            return authenticator.authenticate(credentials);
+        }
+
+        // The content is verified before the resource can act on it, either now or as the resource reads it, so
+        // only the rest can be checked here
+        checkState(authenticator instanceof StreamingAuthenticator,
+                "Streaming content verification requires a StreamingAuthenticator");
+        ContentVerifier<Principal> verifier = ((StreamingAuthenticator<Principal>) authenticator).beginAuthentication(credentials);
+        if (verifier == null || !requestDecoder.streamContent(request, verifier)) {
+            return null;
+        }
+        return verifier.getPrincipal();
+    }
 }
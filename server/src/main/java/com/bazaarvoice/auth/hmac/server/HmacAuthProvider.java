@@ -6,8 +6,12 @@ import com.sun.jersey.core.spi.component.ComponentContext;
 import com.sun.jersey.core.spi.component.ComponentScope;
 import com.sun.jersey.server.impl.inject.AbstractHttpContextInjectable;
 import com.sun.jersey.spi.inject.Injectable;
+import com.sun.jersey.server.impl.application.CloseableServiceFactory;
 import com.sun.jersey.spi.inject.InjectableProvider;
 
+import java.io.Closeable;
+import java.util.Map;
+
 public class HmacAuthProvider<T> implements InjectableProvider<HmacAuth, Parameter> {
     private final RequestHandler<T> requestHandler;
 
@@ -34,7 +38,29 @@ public class HmacAuthProvider<T> implements InjectableProvider<HmacAuth, Paramet
 
         @Override
         public T getValue(HttpContext httpContext) {
+            // Neither Jersey nor the resource closes the request entity, so content buffered to authenticate the
+            // request is released along with the request's other closeable resources once it has been handled
+            new CloseableServiceFactory(httpContext).add(new ContentRelease(httpContext.getProperties()));
+            // Whether the content can be streamed depends on how the resource method reads it
+            httpContext.getProperties().put(RequestDecoder.RESOURCE_METHOD_PROPERTY,
+                    httpContext.getUriInfo().getMatchedMethod());
             return requestHandler.handle(httpContext.getRequest());
         }
     }
+
+    /**
+     * Releases the content buffered to authenticate a request.
+     */
+    private static class ContentRelease implements Closeable {
+        private final Map<String, Object> requestProperties;
+
+        private ContentRelease(Map<String, Object> requestProperties) {
+            this.requestProperties = requestProperties;
+        }
+
+        @Override
+        public void close() {
+            RequestDecoder.releaseContent(requestProperties);
+        }
+    }
 }
@@ -4,11 +4,14 @@ import com.bazaarvoice.auth.hmac.common.Credentials;
 import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
 import com.bazaarvoice.auth.hmac.server.exception.InternalServerException;
 import com.bazaarvoice.auth.hmac.server.exception.NotAuthorizedException;
+import com.bazaarvoice.auth.hmac.server.exception.RequestEntityTooLargeException;
 import com.google.common.annotations.VisibleForTesting;
 import com.sun.jersey.api.core.HttpRequestContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static com.google.common.base.Preconditions.checkState;
+
 /**
  * A relaxed implementation of a <code>RequestHandler</code>, which does not require a request
  * to contain authentication credentials, but still validates credentials if provided.
@@ -37,19 +40,60 @@ public class OptionalRequestHandler<Principal> implements RequestHandler<Princip
 
     @Override
     public Principal handle(HttpRequestContext request) throws NotAuthorizedException, InternalServerException {
+        AuthenticationListener listener = AuthenticationListeners.of(authenticator);
+        long start = AuthenticationListeners.start(listener);
+        Credentials credentials = null;
+        boolean allowed = false;
         try {
-            Credentials credentials = requestDecoder.decode(request);
-            Principal result = authenticator.authenticate(credentials);
+            credentials = requestDecoder.decode(request);
+            AuthenticationListeners.stepCompleted(listener, AuthenticationListener.DECODE, start);
+            Principal result = authenticate(request, credentials);
             if (result != null) {
+                allowed = true;
                 return result;
             }
         } catch (IllegalArgumentException e) {
+            // Requests without credentials are allowed through, so this is not counted as an error
+            allowed = true;
             return null;
+        } catch (RequestEntityTooLargeException e) {
+            FailureLog.of(authenticator).record(AuthenticationOutcome.CONTENT_TOO_LARGE,
+                    credentials != null ? credentials.getApiKey() : null,
+                    credentials != null ? credentials.getVersion() : null);
+            AuthenticationListeners.requestCompleted(listener, AuthenticationOutcome.CONTENT_TOO_LARGE, start);
+            throw e;
+        } catch (ContentReadException e) {
+            // Reported by the authenticator already
+            LOG.warn("Error reading content while authenticating credentials", e.getCause());
+            throw new InternalServerException();
         } catch (Exception e) {
             LOG.warn("Error while authenticating credentials", e);
+            AuthenticationListeners.requestCompleted(listener, AuthenticationOutcome.ERROR, start);
             throw new InternalServerException();
+        } finally {
+            if (!allowed) {
+                // The request is rejected, so the resource will never read any content that was buffered
+                requestDecoder.releaseContent(request);
+            }
         }
 
         throw new NotAuthorizedException();
     }
+
+    @SuppressWarnings("unchecked")
+    private Principal authenticate(HttpRequestContext request, Credentials credentials) {
+        if (!requestDecoder.isContentStreamed(request, credentials)) {
+            return authenticator.authenticate(credentials);
+        }
+
+        // The content is verified before the resource can act on it, either now or as the resource reads it, so
+        // only the rest can be checked here
+        checkState(authenticator instanceof StreamingAuthenticator,
+                "Streaming content verification requires a StreamingAuthenticator");
+        ContentVerifier<Principal> verifier = ((StreamingAuthenticator<Principal>) authenticator).beginAuthentication(credentials);
+        if (verifier == null || !requestDecoder.streamContent(request, verifier)) {
+            return null;
+        }
+        return verifier.getPrincipal();
+    }
 }
@@ -3,20 +3,36 @@ package com.bazaarvoice.auth.hmac.server;
 import com.bazaarvoice.auth.hmac.common.Credentials;
 import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
 import com.bazaarvoice.auth.hmac.common.Version;
+import com.bazaarvoice.auth.hmac.server.exception.NotAuthorizedException;
+import com.bazaarvoice.auth.hmac.server.exception.RequestEntityTooLargeException;
+import com.google.common.io.ByteSource;
 import com.sun.jersey.api.container.ContainerException;
 import com.sun.jersey.api.core.HttpRequestContext;
-import com.sun.jersey.core.util.ReaderWriter;
+import com.sun.jersey.api.model.AbstractResourceMethod;
+import com.sun.jersey.api.model.Parameter;
 import com.sun.jersey.spi.container.ContainerRequest;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import javax.ws.rs.core.HttpHeaders;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Strings.isNullOrEmpty;
 
 public class RequestDecoder {
+    /**
+     * The request property that holds the resource method a request was matched to.
+     */
+    static final String RESOURCE_METHOD_PROPERTY = RequestDecoder.class.getName() + ".resourceMethod";
+
+    /**
+     * The request property that holds the buffer of a request's content, until it is released.
+     */
+    static final String CONTENT_BUFFER_PROPERTY = RequestDecoder.class.getName() + ".contentBuffer";
+
     private final RequestConfiguration requestConfiguration;
 
     public RequestDecoder(RequestConfiguration requestConfiguration) {
@@ -36,12 +52,135 @@ public class RequestDecoder {
                 .withVersion(version);
 
         if (requestConfiguration.isDataInSignature(version)) {
-            builder.withContent(getContent(request));
+            checkContentLength(request);
+            if (!isContentStreamed(request, version)) {
+                builder.withContentSource(getContent(request));
+            }
         }
 
         return builder.build();
     }
 
+    /**
+     * Whether the content of the request with these credentials was left unread by {@link #decode}, so that its
+     * signature can be verified as it streams to the resource instead.
+     */
+    public boolean isContentStreamed(HttpRequestContext request, Credentials credentials) {
+        return isContentStreamed(request, credentials.getVersion());
+    }
+
+    /**
+     * Content is only streamed to a resource method that cannot act on it before its signature has been
+     * verified: one that does not take the entity at all, or one that takes it as an {@code InputStream} or
+     * {@code Reader} after its principal, and so reads it through the stream that fails at the end of the content
+     * if the signature is invalid. The content of any other request is buffered and verified up front.
+     */
+    private boolean isContentStreamed(HttpRequestContext request, Version version) {
+        if (!requestConfiguration.isStreamingContentVerification() || !requestConfiguration.isDataInSignature(version)) {
+            return false;
+        }
+        AbstractResourceMethod method = getResourceMethod(request);
+        return method != null && isStreamable(method);
+    }
+
+    private boolean isStreamable(AbstractResourceMethod method) {
+        boolean authenticated = false;
+        for (Parameter parameter : method.getParameters()) {
+            if (parameter.isAnnotationPresent(HmacAuth.class)) {
+                authenticated = true;
+            } else if (parameter.getSource() == Parameter.Source.ENTITY) {
+                return authenticated && isStream(parameter.getParameterClass());
+            } else if (parameter.getSource() == Parameter.Source.FORM) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isStream(Class<?> type) {
+        return InputStream.class.isAssignableFrom(type) || Reader.class.isAssignableFrom(type);
+    }
+
+    private AbstractResourceMethod getResourceMethod(HttpRequestContext request) {
+        if (!(request instanceof ContainerRequest)) {
+            return null;
+        }
+        return (AbstractResourceMethod) ((ContainerRequest) request).getProperties().get(RESOURCE_METHOD_PROPERTY);
+    }
+
+    /**
+     * Wrap the request entity so that everything the resource reads from it is fed to the verifier, and
+     * reading it fails with a {@link NotAuthorizedException} once it reaches the end of the content if the
+     * signature is invalid. The content of a request whose resource method does not take the entity is read and
+     * verified straight away instead, as is a request without any content.
+     *
+     * @return false if the content has been verified and its signature is invalid
+     */
+    public boolean streamContent(HttpRequestContext request, ContentVerifier<?> verifier) {
+        ContainerRequest containerRequest = (ContainerRequest) request;
+        PushbackInputStream in = new PushbackInputStream(limitContentLength(containerRequest.getEntityInputStream()));
+
+        try {
+            int first = in.read();
+            if (first == -1) {
+                return verifier.verify();
+            }
+            in.unread(first);
+
+        } catch (IOException ex) {
+            throw new ContainerException(ex);
+        }
+
+        SignatureVerifyingInputStream verifying = new SignatureVerifyingInputStream(in, verifier) {
+            @Override
+            protected RuntimeException invalidSignature() {
+                return new NotAuthorizedException();
+            }
+        };
+        if (!readsEntity(getResourceMethod(request))) {
+            try {
+                return verifying.verifyRemaining();
+            } catch (IOException ex) {
+                throw new ContainerException(ex);
+            }
+        }
+        containerRequest.setEntityInputStream(verifying);
+        return true;
+    }
+
+    private boolean readsEntity(AbstractResourceMethod method) {
+        for (Parameter parameter : method.getParameters()) {
+            if (parameter.getSource() == Parameter.Source.ENTITY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Release the buffer holding the content of a request, if its content was read to authenticate it. The
+     * content can no longer be read by the resource after this.
+     */
+    public void releaseContent(HttpRequestContext request) {
+        if (request instanceof ContainerRequest) {
+            releaseContent(((ContainerRequest) request).getProperties());
+        }
+    }
+
+    /**
+     * Release the buffer holding the content of the request with these properties, if there is one.
+     */
+    static void releaseContent(Map<String, Object> requestProperties) {
+        ContentBuffer content = (ContentBuffer) requestProperties.remove(CONTENT_BUFFER_PROPERTY);
+        if (content != null) {
+            try {
+                content.close();
+            } catch (IOException e) {
+                throw new ContainerException(e);
+            }
+        }
+    }
+
     private String getPath(HttpRequestContext request) {
         // Get the path and any query parameters (e.g. /api/v1/pizza?sort=toppings&apiKey=someKey)
         return String.format("%s?%s", request.getRequestUri().getPath(), request.getRequestUri().getQuery());
@@ -69,31 +208,64 @@ public class RequestDecoder {
         return request.getMethod();
     }
 
-    private byte[] getContent(HttpRequestContext request) {
-        return safelyGetContent(request);
+    /**
+     * The content is only read once the authenticator asks for it, so that a request that fails a cheaper
+     * check never has its body read.
+     */
+    private ByteSource getContent(final HttpRequestContext request) {
+        return new LazyContentSource() {
+            @Override
+            protected ContentBuffer readContent() throws IOException {
+                return safelyGetContent(request);
+            }
+        };
     }
 
     /**
      * Under normal circumstances, the body of the request can only be read once, because it is
      * backed by an {@code InputStream}, and thus is not easily consumed multiple times. This
-     * method gets the request content and resets it so it can be read again later if necessary.
+     * method buffers the request content and resets it so it can be read again later if necessary.
+     * Large bodies are buffered in a temporary file rather than in memory.
      */
-    private byte[] safelyGetContent(HttpRequestContext request) {
+    private ContentBuffer safelyGetContent(HttpRequestContext request) throws IOException {
         ContainerRequest containerRequest = (ContainerRequest) request;
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        InputStream in = containerRequest.getEntityInputStream();
+        InputStream in = limitContentLength(containerRequest.getEntityInputStream());
 
-        try {
-            ReaderWriter.writeTo(in, out);
-            byte[] content = out.toByteArray();
+        ContentBuffer content = ContentBuffer.read(in,
+                requestConfiguration.getContentBufferThreshold(), requestConfiguration.getContentBufferDirectory());
 
-            // Reset the input stream so that it can be read again by another filter or resource
-            containerRequest.setEntityInputStream(new ByteArrayInputStream(content));
-            return content;
+        // Reset the input stream so that it can be read again by another filter or resource, and keep the buffer
+        // so that it can be released once the request has been handled
+        containerRequest.setEntityInputStream(content.openReleasingStream());
+        containerRequest.getProperties().put(CONTENT_BUFFER_PROPERTY, content);
+        return content;
+    }
 
-        } catch (IOException ex) {
-            throw new ContainerException(ex);
+    /**
+     * Reject a request up front if it declares more content than may be signed.
+     */
+    private void checkContentLength(HttpRequestContext request) {
+        String contentLength = request.getHeaderValue(HttpHeaders.CONTENT_LENGTH);
+        if (contentLength == null) {
+            return;
         }
+
+        try {
+            if (Long.parseLong(contentLength.trim()) > requestConfiguration.getMaxSignedContentLength()) {
+                throw new RequestEntityTooLargeException();
+            }
+        } catch (NumberFormatException e) {
+            // Leave it to the limit enforced while the content is read
+        }
+    }
+
+    private InputStream limitContentLength(InputStream in) {
+        return new ContentLengthLimitingInputStream(in, requestConfiguration.getMaxSignedContentLength()) {
+            @Override
+            protected RuntimeException contentTooLarge() {
+                return new RequestEntityTooLargeException();
+            }
+        };
     }
 
     private String getRequiredHeaderField(HttpRequestContext request, String name) {
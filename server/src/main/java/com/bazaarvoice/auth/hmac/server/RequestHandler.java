@@ -20,6 +20,9 @@ public interface RequestHandler<Principal> {
      * <p>If the credentials cannot be validated due to an underlying error condition, throws an
      * <code>InternalServerException</code> to indicate that an internal error occurred.
      *
+     * <p>If the request content is too large to be verified, throws a
+     * <code>RequestEntityTooLargeException</code>.
+     *
      * <p>Otherwise it's up to the handler to determine when to return a value, or throw a
      * <code>NotAuthorizedException</code> or <code>InternalServerException</code>
      *
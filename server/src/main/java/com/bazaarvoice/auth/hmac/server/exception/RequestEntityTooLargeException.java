@@ -0,0 +1,13 @@
+package com.bazaarvoice.auth.hmac.server.exception;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+public class RequestEntityTooLargeException extends WebApplicationException {
+    // JAX-RS 1.1 has no Response.Status for this
+    private static final int REQUEST_ENTITY_TOO_LARGE = 413;
+
+    public RequestEntityTooLargeException() {
+        super(Response.status(REQUEST_ENTITY_TOO_LARGE).build());
+    }
+}
@@ -0,0 +1,118 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.bazaarvoice.auth.hmac.common.Clock;
+import com.bazaarvoice.auth.hmac.common.Credentials;
+import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
+import com.bazaarvoice.auth.hmac.common.SignatureGenerator;
+import com.bazaarvoice.auth.hmac.common.TimeUtils;
+import com.bazaarvoice.auth.hmac.common.Version;
+import com.google.common.base.Strings;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.api.core.ResourceConfig;
+import com.sun.jersey.api.core.ScanningResourceConfig;
+import com.sun.jersey.test.framework.AppDescriptor;
+import com.sun.jersey.test.framework.JerseyTest;
+import com.sun.jersey.test.framework.LowLevelAppDescriptor;
+import org.junit.Test;
+
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that content spilled to a temporary file while a request is authenticated is released once the
+ * request has been handled, whether or not it was authenticated, even though nothing closes the entity.
+ */
+public class ContentBufferReleaseTest extends JerseyTest {
+    private static final String API_KEY = "api-key";
+    private static final String SECRET_KEY = "secret-key";
+    private static final String CONTENT = Strings.repeat("some content ", 1000);
+
+    private static final RequestConfiguration REQUEST_CONFIGURATION = RequestConfiguration.builder()
+            .withContentBufferThreshold(1024)
+            .build();
+
+    private static volatile int openWhileHandled;
+
+    @Path("/content")
+    @Produces(MediaType.TEXT_PLAIN)
+    public static class ContentResource {
+        @POST
+        public String post(@HmacAuth String principal, String content) {
+            openWhileHandled = ContentBuffer.getOpenSpilledBuffers();
+            return content;
+        }
+    }
+
+    @Override
+    protected AppDescriptor configure() {
+        Authenticator<String> authenticator = new AbstractAuthenticator<String>(1, TimeUnit.MINUTES, Clock.systemClock(),
+                new InMemoryReplayDetector(1, TimeUnit.MINUTES)) {
+            @Override
+            protected String getPrincipal(Credentials credentials) {
+                return API_KEY.equals(credentials.getApiKey()) ? "principal" : null;
+            }
+
+            @Override
+            protected String getSecretKeyFromPrincipal(String principal) {
+                return SECRET_KEY;
+            }
+        };
+
+        ResourceConfig config = new ScanningResourceConfig();
+        config.getSingletons().add(new HmacAuthProvider<String>(new DefaultRequestHandler<String>(authenticator, REQUEST_CONFIGURATION)));
+        config.getSingletons().add(new ContentResource());
+        return new LowLevelAppDescriptor.Builder(config).build();
+    }
+
+    @Test
+    public void releasesContentOfAuthenticatedRequest() {
+        int open = ContentBuffer.getOpenSpilledBuffers();
+
+        ClientResponse response = post(TimeUtils.getCurrentTimestamp(), SECRET_KEY);
+        assertEquals(ClientResponse.Status.OK, response.getClientResponseStatus());
+        assertEquals(CONTENT, response.getEntity(String.class));
+
+        assertEquals(open + 1, openWhileHandled);
+        assertEquals(open, ContentBuffer.getOpenSpilledBuffers());
+    }
+
+    @Test
+    public void releasesContentOfRequestWithInvalidSignature() {
+        int open = ContentBuffer.getOpenSpilledBuffers();
+
+        ClientResponse response = post(TimeUtils.getCurrentTimestamp(), SECRET_KEY + "-invalid");
+        assertEquals(ClientResponse.Status.UNAUTHORIZED, response.getClientResponseStatus());
+
+        assertEquals(open, ContentBuffer.getOpenSpilledBuffers());
+    }
+
+    @Test
+    public void releasesContentOfReplayedRequest() {
+        int open = ContentBuffer.getOpenSpilledBuffers();
+
+        String timestamp = TimeUtils.getCurrentTimestamp();
+        assertEquals(ClientResponse.Status.OK, post(timestamp, SECRET_KEY).getClientResponseStatus());
+        assertEquals(ClientResponse.Status.UNAUTHORIZED, post(timestamp, SECRET_KEY).getClientResponseStatus());
+
+        assertEquals(open, ContentBuffer.getOpenSpilledBuffers());
+    }
+
+    private ClientResponse post(String timestamp, String secretKey) {
+        String signature = new SignatureGenerator().generate(secretKey, "POST", timestamp,
+                "/content?apiKey=" + API_KEY, CONTENT.getBytes());
+        return resource()
+                .path("/content")
+                .queryParam(REQUEST_CONFIGURATION.getApiKeyQueryParamName(), API_KEY)
+                .header(REQUEST_CONFIGURATION.getSignatureHttpHeader(), signature)
+                .header(REQUEST_CONFIGURATION.getTimestampHttpHeader(), timestamp)
+                .header(REQUEST_CONFIGURATION.getVersionHttpHeader(), Version.V3)
+                .entity(CONTENT, MediaType.TEXT_PLAIN)
+                .post(ClientResponse.class);
+    }
+}
@@ -3,10 +3,13 @@ package com.bazaarvoice.auth.hmac.server;
 import com.bazaarvoice.auth.hmac.common.Credentials;
 import com.bazaarvoice.auth.hmac.server.exception.InternalServerException;
 import com.bazaarvoice.auth.hmac.server.exception.NotAuthorizedException;
+import com.bazaarvoice.auth.hmac.server.exception.RequestEntityTooLargeException;
 import com.sun.jersey.api.core.HttpRequestContext;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
+
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.fail;
@@ -67,4 +70,23 @@ public class DefaultRequestHandlerTest {
         handler.handle(request);
         fail();
     }
+
+    @Test(expected = InternalServerException.class)
+    public void testHandleWithUnreadableContent() {
+        HttpRequestContext request = mock(HttpRequestContext.class);
+        when(decoder.decode(any(HttpRequestContext.class))).thenReturn(credentials);
+        when(authenticator.authenticate(any(Credentials.class))).thenThrow(new ContentReadException(new IOException()));
+
+        handler.handle(request);
+        fail();
+    }
+
+    @Test(expected = RequestEntityTooLargeException.class)
+    public void testHandleWithTooLargeContent() {
+        HttpRequestContext request = mock(HttpRequestContext.class);
+        when(decoder.decode(any(HttpRequestContext.class))).thenThrow(new RequestEntityTooLargeException());
+
+        handler.handle(request);
+        fail();
+    }
 }
@@ -0,0 +1,194 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.bazaarvoice.auth.hmac.common.Clock;
+import com.bazaarvoice.auth.hmac.common.Credentials;
+import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
+import com.bazaarvoice.auth.hmac.common.SignatureGenerator;
+import com.bazaarvoice.auth.hmac.common.TimeUtils;
+import com.bazaarvoice.auth.hmac.common.Version;
+import com.google.common.io.ByteStreams;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.api.core.ResourceConfig;
+import com.sun.jersey.api.core.ScanningResourceConfig;
+import com.sun.jersey.test.framework.AppDescriptor;
+import com.sun.jersey.test.framework.JerseyTest;
+import com.sun.jersey.test.framework.LowLevelAppDescriptor;
+import org.junit.Test;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamingContentVerificationTest extends JerseyTest {
+    private static final String API_KEY = "api-key";
+    private static final String SECRET_KEY = "secret-key";
+    private static final String PRINCIPAL = "principal";
+
+    private static final RequestConfiguration REQUEST_CONFIGURATION = RequestConfiguration.builder()
+            .withStreamingContentVerification(true)
+            .build();
+
+    @Path("/auth")
+    @Produces(MediaType.TEXT_PLAIN)
+    public static class AuthResource {
+        @GET
+        public String get(@HmacAuth String principal) {
+            return principal;
+        }
+
+        @POST
+        public String post(@HmacAuth String principal, String content) {
+            handled.incrementAndGet();
+            return content;
+        }
+    }
+
+    @Path("/ignore")
+    @Produces(MediaType.TEXT_PLAIN)
+    public static class IgnoringResource {
+        @POST
+        public String post(@HmacAuth String principal) {
+            handled.incrementAndGet();
+            return principal;
+        }
+    }
+
+    @Path("/stream")
+    @Produces(MediaType.TEXT_PLAIN)
+    public static class StreamResource {
+        @POST
+        public String post(@HmacAuth String principal, InputStream content) throws IOException {
+            String read = new String(ByteStreams.toByteArray(content));
+            handled.incrementAndGet();
+            return read;
+        }
+    }
+
+    private static final AtomicInteger handled = new AtomicInteger();
+
+    @Override
+    protected AppDescriptor configure() {
+        Authenticator<String> authenticator = new AbstractAuthenticator<String>(1, TimeUnit.MINUTES, Clock.systemClock(),
+                new InMemoryReplayDetector(1, TimeUnit.MINUTES)) {
+            @Override
+            protected String getPrincipal(Credentials credentials) {
+                return API_KEY.equals(credentials.getApiKey()) ? PRINCIPAL : null;
+            }
+
+            @Override
+            protected String getSecretKeyFromPrincipal(String principal) {
+                return SECRET_KEY;
+            }
+        };
+
+        ResourceConfig config = new ScanningResourceConfig();
+        config.getSingletons().add(new HmacAuthProvider<String>(new DefaultRequestHandler<String>(authenticator, REQUEST_CONFIGURATION)));
+        config.getSingletons().add(new AuthResource());
+        config.getSingletons().add(new IgnoringResource());
+        config.getSingletons().add(new StreamResource());
+        return new LowLevelAppDescriptor.Builder(config).build();
+    }
+
+    @Test
+    public void passesSignedContentToResource() {
+        ClientResponse response = post("some content", "some content");
+        assertEquals(ClientResponse.Status.OK, response.getClientResponseStatus());
+        assertEquals("some content", response.getEntity(String.class));
+    }
+
+    @Test
+    public void respondsToTamperedContentWith401() {
+        ClientResponse response = post("some content", "some other content");
+        assertEquals(ClientResponse.Status.UNAUTHORIZED, response.getClientResponseStatus());
+    }
+
+    @Test
+    public void doesNotCallResourceWithTamperedContent() {
+        int before = handled.get();
+        assertEquals(ClientResponse.Status.UNAUTHORIZED, post("some content", "some other content").getClientResponseStatus());
+        assertEquals(ClientResponse.Status.UNAUTHORIZED,
+                post("/ignore", "some content", "some other content").getClientResponseStatus());
+        assertEquals(before, handled.get());
+    }
+
+    @Test
+    public void streamsSignedContentToResourceReadingStream() {
+        ClientResponse response = post("/stream", "some content", "some content");
+        assertEquals(ClientResponse.Status.OK, response.getClientResponseStatus());
+        assertEquals("some content", response.getEntity(String.class));
+    }
+
+    @Test
+    public void failsReadingTamperedContentFromStream() {
+        int before = handled.get();
+        assertEquals(ClientResponse.Status.UNAUTHORIZED,
+                post("/stream", "some content", "some other content").getClientResponseStatus());
+        assertEquals(before, handled.get());
+    }
+
+    @Test
+    public void verifiesRequestsWithoutContentImmediately() {
+        assertEquals(ClientResponse.Status.OK, get(SECRET_KEY).getClientResponseStatus());
+        assertEquals(ClientResponse.Status.UNAUTHORIZED, get(SECRET_KEY + "-invalid").getClientResponseStatus());
+    }
+
+    @Test
+    public void verifiesContentTheResourceDoesNotRead() {
+        assertEquals(ClientResponse.Status.OK, post("/ignore", "some content", "some content").getClientResponseStatus());
+        assertEquals(ClientResponse.Status.UNAUTHORIZED,
+                post("/ignore", "some content", "some other content").getClientResponseStatus());
+    }
+
+    @Test
+    public void rejectsReplayOfContentTheResourceDoesNotRead() {
+        String timestamp = TimeUtils.getCurrentTimestamp();
+        String signature = sign("/ignore", timestamp, "some content");
+
+        assertEquals(ClientResponse.Status.OK, resource("/ignore", timestamp, signature)
+                .entity("some content")
+                .post(ClientResponse.class)
+                .getClientResponseStatus());
+        assertEquals(ClientResponse.Status.UNAUTHORIZED, resource("/ignore", timestamp, signature)
+                .entity("some content")
+                .post(ClientResponse.class)
+                .getClientResponseStatus());
+    }
+
+    private ClientResponse post(String signedContent, String sentContent) {
+        return post("/auth", signedContent, sentContent);
+    }
+
+    private ClientResponse post(String path, String signedContent, String sentContent) {
+        String timestamp = TimeUtils.getCurrentTimestamp();
+        return resource(path, timestamp, sign(path, timestamp, signedContent))
+                .entity(sentContent)
+                .post(ClientResponse.class);
+    }
+
+    private String sign(String path, String timestamp, String content) {
+        return new SignatureGenerator().generate(SECRET_KEY, "POST", timestamp, path + "?apiKey=" + API_KEY, content.getBytes());
+    }
+
+    private ClientResponse get(String secretKey) {
+        String timestamp = TimeUtils.getCurrentTimestamp();
+        String signature = new SignatureGenerator().generate(secretKey, "GET", timestamp, "/auth?apiKey=" + API_KEY, null);
+        return resource("/auth", timestamp, signature).get(ClientResponse.class);
+    }
+
+    private WebResource.Builder resource(String path, String timestamp, String signature) {
+        return client().resource(path)
+                .queryParam(REQUEST_CONFIGURATION.getApiKeyQueryParamName(), API_KEY)
+                .header(REQUEST_CONFIGURATION.getSignatureHttpHeader(), signature)
+                .header(REQUEST_CONFIGURATION.getTimestampHttpHeader(), timestamp)
+                .header(REQUEST_CONFIGURATION.getVersionHttpHeader(), Version.V3);
+    }
+}
@@ -0,0 +1,70 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import org.apache.commons.lang.Validate;
+import org.glassfish.jersey.server.ContainerRequest;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link ContainerRequestFilter} that starts authenticating requests to methods with an {@link HmacAuth}
+ * parameter as soon as they have been matched, using an {@link AsyncAuthenticator} if there is one.
+ * <p>
+ * A JAX-RS filter cannot suspend a request, so to release the container thread while the principal is looked
+ * up, the resource method has to take the principal as an {@code @HmacAuth ListenableFuture<P>} and resume an
+ * {@link javax.ws.rs.container.AsyncResponse AsyncResponse} once it completes. Methods that take the principal
+ * itself wait for the authentication this filter started. Requests whose content is signed are authenticated
+ * before the filter returns, since their content has to be read on the request thread.
+ * <p>
+ * Authentication then runs at {@link Priorities#AUTHENTICATION}, before any request filter with a lower
+ * priority, so a filter that changes the entity or the URI has to run before it, or the signature will not
+ * match. {@link HmacAuthFeature} registers this filter only when asked to.
+ *
+ * @param <P> the type of principal used by the application
+ */
+@Priority(Priorities.AUTHENTICATION)
+public class AsyncAuthenticationFilter<P> implements ContainerRequestFilter {
+
+    private final PrincipalFactory<P> factory;
+    private final ConcurrentMap<Method, Boolean> authenticatedMethods = new ConcurrentHashMap<Method, Boolean>();
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Inject
+    public AsyncAuthenticationFilter(final PrincipalFactory<P> factory) {
+        Validate.notNull(factory, "factory cannot be null");
+        this.factory = factory;
+    }
+
+    public void filter(final ContainerRequestContext requestContext) {
+        final Method method = resourceInfo.getResourceMethod();
+        if (method != null && isAuthenticated(method)) {
+            factory.provideAsync((ContainerRequest) requestContext);
+        }
+    }
+
+    private boolean isAuthenticated(final Method method) {
+        Boolean authenticated = authenticatedMethods.get(method);
+        if (authenticated == null) {
+            authenticated = false;
+            for (final Annotation[] annotations : method.getParameterAnnotations()) {
+                for (final Annotation annotation : annotations) {
+                    authenticated |= annotation instanceof HmacAuth;
+                }
+            }
+            authenticatedMethods.put(method, authenticated);
+        }
+        return authenticated;
+    }
+
+}
@@ -16,11 +16,16 @@ import org.glassfish.jersey.server.spi.internal.ValueFactoryProvider;
 /**
  * JAX-RS {@link Feature} to enable HMAC authentication on methods with the
  * {@link HmacAuth} annotation.
+ * <p>
+ * Requests are authenticated when the principal is injected, after any request filters have run, unless
+ * {@link AsyncAuthenticationFilter} is enabled.
  *
  * @param <P> the type of principal used by the application
  */
 public class HmacAuthFeature<P> implements Feature {
 
+    private final boolean asyncAuthenticationFilter;
+
     private final Binder binder = new AbstractBinder() {
         protected void configure() {
             bind(PrincipalFactory.class)
@@ -38,8 +43,27 @@ public class HmacAuthFeature<P> implements Feature {
         }
     };
 
+    public HmacAuthFeature() {
+        this(false);
+    }
+
+    /**
+     * @param asyncAuthenticationFilter whether to register {@link AsyncAuthenticationFilter}, which starts
+     *                                  authenticating each request as soon as it has been matched. This moves
+     *                                  authentication ahead of the application's own request filters with a
+     *                                  lower priority than {@link javax.ws.rs.Priorities#AUTHENTICATION}, such
+     *                                  as one that decompresses the entity.
+     */
+    public HmacAuthFeature(final boolean asyncAuthenticationFilter) {
+        this.asyncAuthenticationFilter = asyncAuthenticationFilter;
+    }
+
     public boolean configure(final FeatureContext context) {
         context.register(getBinder());
+        if (asyncAuthenticationFilter) {
+            context.register(AsyncAuthenticationFilter.class);
+        }
+        context.register(StreamingContentVerificationInterceptor.class);
         return true;
     }
 
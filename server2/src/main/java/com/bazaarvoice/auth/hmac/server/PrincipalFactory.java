@@ -4,39 +4,70 @@ import com.bazaarvoice.auth.hmac.common.Credentials;
 import com.bazaarvoice.auth.hmac.common.Credentials.CredentialsBuilder;
 import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
 import com.bazaarvoice.auth.hmac.common.Version;
-import com.google.common.io.ByteStreams;
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.apache.commons.lang.Validate;
 import org.glassfish.hk2.api.Factory;
+import org.glassfish.jersey.server.CloseableService;
 import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.model.Parameter;
+import org.glassfish.jersey.server.model.ResourceMethod;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.ws.rs.BadRequestException;
 import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 
 /**
- * {@link Factory} for creating a principal wherever it is required for a request.
+ * {@link Factory} for creating a principal wherever it is required for a request. Each request is authenticated
+ * once: the outcome is kept as a request property, and every other injection point of the request gets the same
+ * principal, or the same exception.
  *
  * @param <P> The type of principal
  * @see Authenticator
  */
 public class PrincipalFactory<P> implements Factory<P> {
 
+    /**
+     * The request property that holds the authentication of the request once it has been started.
+     */
+    static final String PRINCIPAL_PROPERTY = PrincipalFactory.class.getName() + ".principal";
+
+    /**
+     * The request property that holds the stream verifying the request content while the resource reads it.
+     */
+    static final String VERIFYING_STREAM_PROPERTY = PrincipalFactory.class.getName() + ".verifyingStream";
+
+    /**
+     * The request property that holds the buffer of the request content, until it is released.
+     */
+    static final String CONTENT_BUFFER_PROPERTY = PrincipalFactory.class.getName() + ".contentBuffer";
+
     private final Authenticator<? extends P> authenticator;
     private final Provider<? extends ContainerRequest> requestProvider;
     private final RequestConfiguration requestConfiguration;
 
+    // Neither Jersey nor the resource closes the request entity, so content buffered to authenticate a request
+    // is released through this once the request has been handled
+    @Inject
+    private Provider<CloseableService> closeableServiceProvider;
+
     /**
      * @param authenticator the application's credential authenticator (required)
      * @param requestProvider object that provides access to the active request (required)
@@ -57,6 +88,104 @@ public class PrincipalFactory<P> implements Factory<P> {
 
     public P provide() {
         final ContainerRequest request = getRequestProvider().get();
+        final ListenableFuture<? extends P> started = getStarted(request);
+        if (started != null) {
+            // Authenticated already, for another injection point or by the AsyncAuthenticationFilter
+            return getResult(started);
+        }
+
+        final AuthenticationListener listener = AuthenticationListeners.of(getAuthenticator());
+        final long start = AuthenticationListeners.start(listener);
+        try {
+            final P principal = provide(request, listener, start);
+            request.setProperty(PRINCIPAL_PROPERTY, Futures.immediateFuture(principal));
+            return principal;
+        } catch (final RuntimeException e) {
+            final RuntimeException failure = reportFailure(e, listener, start);
+            request.setProperty(PRINCIPAL_PROPERTY, Futures.immediateFailedFuture(failure));
+            releaseContent(request);
+            throw failure;
+        }
+    }
+
+    /**
+     * Authenticate the active request without blocking while the authenticator looks up the principal, if it
+     * is an {@link AsyncAuthenticator}. Other authenticators, streaming content verification, and requests
+     * whose content is signed authenticate the request before this returns: the content can only be read, and
+     * the entity reset for the resource, on the thread that handles the request.
+     *
+     * @return a future of the principal, which fails with a {@link NotAuthorizedException} if the request is
+     * not authenticated
+     */
+    public ListenableFuture<? extends P> provideAsync() {
+        return provideAsync(getRequestProvider().get());
+    }
+
+    ListenableFuture<? extends P> provideAsync(final ContainerRequest request) {
+        final ListenableFuture<? extends P> started = getStarted(request);
+        if (started != null) {
+            return started;
+        }
+
+        final AuthenticationListener listener = AuthenticationListeners.of(getAuthenticator());
+        final long start = AuthenticationListeners.start(listener);
+        ListenableFuture<? extends P> result;
+        try {
+            result = provideAsync(request, listener, start);
+        } catch (final RuntimeException e) {
+            releaseContent(request);
+            result = Futures.immediateFailedFuture(reportFailure(e, listener, start));
+        }
+        if (!result.isDone()) {
+            Futures.addCallback(result, new FutureCallback<P>() {
+                public void onSuccess(final P principal) {
+                }
+
+                public void onFailure(final Throwable t) {
+                    if (t instanceof RuntimeException) {
+                        reportFailure((RuntimeException) t, listener, start);
+                    }
+                }
+            });
+        }
+        request.setProperty(PRINCIPAL_PROPERTY, result);
+        return result;
+    }
+
+    private P provide(final ContainerRequest request, final AuthenticationListener listener, final long start) {
+        final Credentials credentials = decode(request, listener, start);
+        if (isContentStreamed(credentials)) {
+            // The content is verified while the resource reads it, so only the rest can be checked here
+            return beginAuthentication(request, credentials);
+        }
+        return checkAuthenticated(getAuthenticator().authenticate(credentials));
+    }
+
+    @SuppressWarnings("unchecked")
+    private ListenableFuture<? extends P> provideAsync(final ContainerRequest request,
+                                                       final AuthenticationListener listener, final long start) {
+        final Credentials credentials = decode(request, listener, start);
+        if (isContentStreamed(credentials)) {
+            return Futures.immediateFuture(beginAuthentication(request, credentials));
+        }
+        if (!(getAuthenticator() instanceof AsyncAuthenticator) || hasSignedContent(request, credentials)) {
+            return Futures.immediateFuture(checkAuthenticated(getAuthenticator().authenticate(credentials)));
+        }
+
+        final ListenableFuture<? extends P> principal =
+                ((AsyncAuthenticator<? extends P>) getAuthenticator()).authenticateAsync(credentials);
+        return Futures.transform(principal, new Function<P, P>() {
+            public P apply(final P principal) {
+                return checkAuthenticated(principal);
+            }
+        });
+    }
+
+    /**
+     * Read the credentials from the request. The content, if it is signed and not streamed, is only read if
+     * the authenticator gets as far as verifying the signature.
+     */
+    private Credentials decode(final ContainerRequest request, final AuthenticationListener listener, final long start) {
         final UriInfo uriInfo = request.getUriInfo();
         final URI requestUri = uriInfo.getRequestUri();
 
@@ -87,35 +216,227 @@ public class PrincipalFactory<P> implements Factory<P> {
         builder.withMethod(request.getMethod());
         builder.withPath(requestUri.getPath() + "?" + requestUri.getQuery());
 
-        // Content
-        if (requestConfiguration.isDataInSignature(version) && request.hasEntity()) {
-            try {
-                final InputStream inputStream = request.getEntityStream();
-                try {
-                    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                    ByteStreams.copy(inputStream, outputStream);
-
-                    final byte[] bytes = outputStream.toByteArray();
-                    builder.withContent(bytes);
-                    request.setEntityStream(new ByteArrayInputStream(bytes));
-                } finally {
-                    inputStream.close();
+        if (requestConfiguration.isDataInSignature(version)) {
+            checkContentLength(request);
+        }
+        AuthenticationListeners.stepCompleted(listener, AuthenticationListener.DECODE, start);
+
+        if (requestConfiguration.isDataInSignature(version) && !requestConfiguration.isStreamingContentVerification()
+                && request.hasEntity()) {
+            builder.withContentSource(new LazyContentSource() {
+                @Override
+                protected ContentBuffer readContent() throws IOException {
+                    return bufferContent(request);
                 }
-            } catch (final IOException ioe) {
-                throw new InternalServerErrorException("Error reading content", ioe);
+            });
+        }
+
+        return builder.build();
+    }
+
+    private boolean hasSignedContent(final ContainerRequest request, final Credentials credentials) {
+        return requestConfiguration.isDataInSignature(credentials.getVersion()) && request.hasEntity();
+    }
+
+    private boolean isContentStreamed(final Credentials credentials) {
+        return requestConfiguration.isDataInSignature(credentials.getVersion())
+                && requestConfiguration.isStreamingContentVerification();
+    }
+
+    private P checkAuthenticated(final P principal) {
+        if (principal == null) {
+            throw new NotAuthorizedException(Response.status(Response.Status.UNAUTHORIZED).build());
+        }
+        return principal;
+    }
+
+    /**
+     * Report a request that could not be authenticated, unless the authenticator has reported it already.
+     *
+     * @return the exception to rethrow
+     */
+    private RuntimeException reportFailure(final RuntimeException e, final AuthenticationListener listener, final long start) {
+        if (e instanceof BadRequestException || e instanceof IllegalArgumentException) {
+            FailureLog.of(getAuthenticator()).record(AuthenticationOutcome.DECODE_ERROR, null, null);
+            AuthenticationListeners.requestCompleted(listener, AuthenticationOutcome.DECODE_ERROR, start);
+        } else if (e instanceof ContentReadException) {
+            // Reported by the authenticator already
+            return toServerError(e);
+        } else if (e instanceof WebApplicationException) {
+            // Rejections by the authenticator have been reported by it already
+            final int status = ((WebApplicationException) e).getResponse().getStatus();
+            if (status == Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode()) {
+                FailureLog.of(getAuthenticator()).record(AuthenticationOutcome.CONTENT_TOO_LARGE, null, null);
+                AuthenticationListeners.requestCompleted(listener, AuthenticationOutcome.CONTENT_TOO_LARGE, start);
+            } else if (status == Response.Status.INTERNAL_SERVER_ERROR.getStatusCode()) {
+                AuthenticationListeners.requestCompleted(listener, AuthenticationOutcome.ERROR, start);
             }
+        } else {
+            AuthenticationListeners.requestCompleted(listener, AuthenticationOutcome.ERROR, start);
+        }
+        return e;
+    }
+
+    /**
+     * Content that cannot be read fails the request with a 500, rather than reaching Jersey as an unexpected
+     * exception.
+     */
+    private static RuntimeException toServerError(final RuntimeException e) {
+        return e instanceof ContentReadException
+                ? new InternalServerErrorException("Error reading content", e.getCause())
+                : e;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ListenableFuture<? extends P> getStarted(final ContainerRequest request) {
+        return (ListenableFuture<? extends P>) request.getProperty(PRINCIPAL_PROPERTY);
+    }
+
+    private P getResult(final ListenableFuture<? extends P> future) {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw toServerError((RuntimeException) e.getCause());
+            }
+            Throwables.propagateIfPossible(e.getCause());
+            throw new InternalServerErrorException(e.getCause());
+        }
+    }
+
+    /**
+     * Authenticate everything but the content, and wrap the entity stream so that the content signature is
+     * verified as it is read, by {@link StreamingContentVerificationInterceptor} before the resource is called.
+     * If the resource method takes no entity, the content is verified now instead.
+     */
+    @SuppressWarnings("unchecked")
+    private P beginAuthentication(final ContainerRequest request, final Credentials credentials) {
+        if (!(getAuthenticator() instanceof StreamingAuthenticator)) {
+            throw new IllegalStateException("Streaming content verification requires a StreamingAuthenticator");
         }
 
-        final P retval = getAuthenticator().authenticate(builder.build());
-        if (retval == null) {
+        final ContentVerifier<? extends P> verifier =
+                ((StreamingAuthenticator<? extends P>) getAuthenticator()).beginAuthentication(credentials);
+        if (verifier == null) {
             throw new NotAuthorizedException(Response.status(Response.Status.UNAUTHORIZED).build());
         }
-        return retval;
+
+        if (request.hasEntity()) {
+            final SignatureVerifyingInputStream verifying =
+                    new SignatureVerifyingInputStream(limitContentLength(request.getEntityStream()), verifier) {
+                @Override
+                protected RuntimeException invalidSignature() {
+                    return new NotAuthorizedException(Response.status(Response.Status.UNAUTHORIZED).build());
+                }
+            };
+            if (!readsEntity(request)) {
+                if (!verifyRemaining(verifying)) {
+                    throw new NotAuthorizedException(Response.status(Response.Status.UNAUTHORIZED).build());
+                }
+            } else {
+                request.setEntityStream(verifying);
+                request.setProperty(VERIFYING_STREAM_PROPERTY, verifying);
+            }
+        } else if (!verifier.verify()) {
+            throw new NotAuthorizedException(Response.status(Response.Status.UNAUTHORIZED).build());
+        }
+        return verifier.getPrincipal();
+    }
+
+    /**
+     * @return false if the resource method the request was matched to takes no entity, so that nothing will read
+     * the content
+     */
+    private boolean readsEntity(final ContainerRequest request) {
+        final ResourceMethod method = request.getUriInfo().getMatchedResourceMethod();
+        if (method == null) {
+            return true;
+        }
+        for (final Parameter parameter : method.getInvocable().getParameters()) {
+            if (parameter.getSource() == Parameter.Source.ENTITY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean verifyRemaining(final SignatureVerifyingInputStream content) {
+        try {
+            return content.verifyRemaining();
+        } catch (final IOException e) {
+            throw new InternalServerErrorException("Error reading content", e);
+        }
+    }
+
+    /**
+     * Buffer the request content, and reset the entity stream so that the resource can still read it. The buffer
+     * is released when the request has been handled, or as soon as it is rejected.
+     */
+    private ContentBuffer bufferContent(final ContainerRequest request) throws IOException {
+        final InputStream inputStream = limitContentLength(request.getEntityStream());
+        try {
+            final ContentBuffer content = ContentBuffer.read(inputStream,
+                    requestConfiguration.getContentBufferThreshold(), requestConfiguration.getContentBufferDirectory());
+            request.setEntityStream(content.openReleasingStream());
+            request.setProperty(CONTENT_BUFFER_PROPERTY, content);
+            if (closeableServiceProvider != null) {
+                closeableServiceProvider.get().add(content);
+            }
+            return content;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Release the buffer holding the content of a request that has been rejected, if its content was read.
+     */
+    private void releaseContent(final ContainerRequest request) {
+        final ContentBuffer content = (ContentBuffer) request.getProperty(CONTENT_BUFFER_PROPERTY);
+        if (content != null) {
+            request.removeProperty(CONTENT_BUFFER_PROPERTY);
+            try {
+                content.close();
+            } catch (final IOException e) {
+                throw new InternalServerErrorException("Error releasing content", e);
+            }
+        }
+    }
+
+    /**
+     * Reject a request up front if it declares more content than may be signed.
+     */
+    private void checkContentLength(final ContainerRequest request) {
+        final String contentLength = request.getHeaderString(HttpHeaders.CONTENT_LENGTH);
+        if (contentLength == null) {
+            return;
+        }
+
+        try {
+            if (Long.parseLong(contentLength.trim()) > requestConfiguration.getMaxSignedContentLength()) {
+                throw new WebApplicationException(Response.Status.REQUEST_ENTITY_TOO_LARGE);
+            }
+        } catch (final NumberFormatException nfe) {
+            // Leave it to the limit enforced while the content is read
+        }
+    }
+
+    private InputStream limitContentLength(final InputStream inputStream) {
+        return new ContentLengthLimitingInputStream(inputStream, requestConfiguration.getMaxSignedContentLength()) {
+            @Override
+            protected RuntimeException contentTooLarge() {
+                return new WebApplicationException(Response.Status.REQUEST_ENTITY_TOO_LARGE);
+            }
+        };
     }
 
     public void dispose(final P instance) {
     }
 
+    boolean isStreamingContentVerification() {
+        return requestConfiguration.isStreamingContentVerification();
+    }
+
     protected Authenticator<? extends P> getAuthenticator() {
         return authenticator;
     }
@@ -5,6 +5,7 @@ import static org.glassfish.jersey.server.model.Parameter.Source.UNKNOWN;
 
 import javax.inject.Inject;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import org.glassfish.hk2.api.Factory;
 import org.glassfish.hk2.api.ServiceLocator;
 import org.glassfish.jersey.server.internal.inject.AbstractValueFactoryProvider;
@@ -14,7 +15,8 @@ import org.glassfish.jersey.server.model.Parameter;
 /**
  * {@link org.glassfish.jersey.server.spi.internal.ValueFactoryProvider
  * ValueFactoryProvider} that makes a {@link PrincipalFactory} available to the
- * request if an {@link HmacAuth} annotation is present.
+ * request if an {@link HmacAuth} annotation is present. A parameter of type {@link ListenableFuture} is given
+ * the principal {@link PrincipalFactory#provideAsync asynchronously}.
  *
  * @param <P> the type of principal
  */
@@ -30,9 +32,19 @@ public class PrincipalValueFactoryProvider<P> extends AbstractValueFactoryProvid
         this.factory = factory;
     }
 
-    protected Factory<? extends P> createValueFactory(final Parameter parameter) {
+    protected Factory<?> createValueFactory(final Parameter parameter) {
         final HmacAuth auth = parameter.getAnnotation(HmacAuth.class);
         if (auth != null) {
+            if (ListenableFuture.class.equals(parameter.getRawType())) {
+                return new Factory<ListenableFuture<? extends P>>() {
+                    public ListenableFuture<? extends P> provide() {
+                        return getFactory().provideAsync();
+                    }
+
+                    public void dispose(final ListenableFuture<? extends P> instance) {
+                    }
+                };
+            }
             // TODO introduce type checking
             return getFactory();
         }
@@ -0,0 +1,90 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import org.apache.commons.lang.Validate;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.model.Parameter;
+import org.glassfish.jersey.server.model.ResourceMethod;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * {@link ReaderInterceptor} that verifies streamed request content as the entity is read for a resource
+ * method, so that the method is never called with content whose signature is invalid.
+ * <p>
+ * The entity is read through the stream that verifies it, authenticating the rest of the request first if its
+ * principal has not been injected yet. Once the entity has been read, whatever the reader left unread is read
+ * too, and the request is rejected with a 401 if the signature is invalid. An entity taken as an
+ * {@link InputStream} or {@link Reader} is read by the resource itself: the signature is only checked when it
+ * reaches the end of the content, and the read fails with a 401 if it is invalid, so such a resource must read
+ * the whole entity before acting on it.
+ * <p>
+ * Nothing is done unless streaming content verification is enabled. {@link HmacAuthFeature} registers this
+ * interceptor.
+ *
+ * @param <P> the type of principal used by the application
+ */
+@Priority(Priorities.AUTHENTICATION)
+public class StreamingContentVerificationInterceptor<P> implements ReaderInterceptor {
+
+    private final PrincipalFactory<P> factory;
+
+    @Inject
+    public StreamingContentVerificationInterceptor(final PrincipalFactory<P> factory) {
+        Validate.notNull(factory, "factory cannot be null");
+        this.factory = factory;
+    }
+
+    public Object aroundReadFrom(final ReaderInterceptorContext context) throws IOException {
+        if (!factory.isStreamingContentVerification()) {
+            return context.proceed();
+        }
+
+        final ContainerRequest request = factory.getRequestProvider().get();
+        if (request.getProperty(PrincipalFactory.VERIFYING_STREAM_PROPERTY) == null && isAuthenticated(request)) {
+            // The entity comes before the principal, so authenticate the rest of the request first
+            factory.provide();
+        }
+        final SignatureVerifyingInputStream content =
+                (SignatureVerifyingInputStream) request.getProperty(PrincipalFactory.VERIFYING_STREAM_PROPERTY);
+        if (content == null) {
+            return context.proceed();
+        }
+
+        context.setInputStream(content);
+        final Object entity = context.proceed();
+        if (isStreamed(context.getType())) {
+            return entity;
+        }
+        if (!content.verifyRemaining()) {
+            throw new NotAuthorizedException(Response.status(Response.Status.UNAUTHORIZED).build());
+        }
+        return entity;
+    }
+
+    private boolean isAuthenticated(final ContainerRequest request) {
+        final ResourceMethod method = request.getUriInfo().getMatchedResourceMethod();
+        if (method == null) {
+            return false;
+        }
+        for (final Parameter parameter : method.getInvocable().getParameters()) {
+            if (parameter.isAnnotationPresent(HmacAuth.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isStreamed(final Class<?> type) {
+        return InputStream.class.isAssignableFrom(type) || Reader.class.isAssignableFrom(type);
+    }
+
+}
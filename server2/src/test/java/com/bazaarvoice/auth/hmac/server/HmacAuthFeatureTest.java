@@ -0,0 +1,283 @@
+package com.bazaarvoice.auth.hmac.server;
+
+import com.bazaarvoice.auth.hmac.common.Clock;
+import com.bazaarvoice.auth.hmac.common.Credentials;
+import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
+import com.bazaarvoice.auth.hmac.common.SignatureGenerator;
+import com.bazaarvoice.auth.hmac.common.TimeUtils;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import org.glassfish.hk2.api.TypeLiteral;
+import org.glassfish.hk2.utilities.Binder;
+import org.glassfish.hk2.utilities.binding.AbstractBinder;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+
+/**
+ * Drives requests through a Jersey application that uses {@link HmacAuthFeature}.
+ */
+public class HmacAuthFeatureTest {
+
+    private static final String API_KEY = "api-key";
+    private static final String SECRET_KEY = "secret-key";
+    private static final String PRINCIPAL = "principal";
+
+    @Path("/")
+    @Produces(MediaType.TEXT_PLAIN)
+    public static class Resource {
+        @POST
+        @Path("read")
+        public String read(@HmacAuth final String principal, final String content) {
+            return content;
+        }
+
+        @POST
+        @Path("ignore")
+        public String ignore(@HmacAuth final String principal) {
+            openWhileHandled = ContentBuffer.getOpenSpilledBuffers();
+            return principal;
+        }
+
+        @POST
+        @Path("count")
+        public String count(@HmacAuth final String principal, final String content) {
+            handled.incrementAndGet();
+            return content;
+        }
+
+        @POST
+        @Path("reversed")
+        public String reversed(final String content, @HmacAuth final String principal) {
+            handled.incrementAndGet();
+            return content;
+        }
+
+        @POST
+        @Path("stream")
+        public String stream(@HmacAuth final String principal, final InputStream content) throws IOException {
+            final String read = new String(ByteStreams.toByteArray(content), "UTF-8");
+            handled.incrementAndGet();
+            return read;
+        }
+
+        @GET
+        @Path("get")
+        public String get(@HmacAuth final String principal) {
+            return principal;
+        }
+    }
+
+    private static volatile int openWhileHandled;
+    private static final AtomicInteger handled = new AtomicInteger();
+
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    private final AtomicReference<Thread> loadedOn = new AtomicReference<Thread>();
+    private ApplicationHandler handler;
+
+    @After
+    public void tearDown() {
+        loader.shutdownNow();
+    }
+
+    /**
+     * @param streaming whether to verify content as the resource reads it
+     */
+    private void start(final boolean streaming) {
+        start(RequestConfiguration.builder()
+                .withStreamingContentVerification(streaming)
+                .build());
+    }
+
+    private void start(final RequestConfiguration requestConfiguration) {
+        start(requestConfiguration, false);
+    }
+
+    private void start(final RequestConfiguration requestConfiguration, final boolean asyncAuthenticationFilter) {
+        final Authenticator<String> authenticator = new AbstractAuthenticator<String>(1, TimeUnit.MINUTES,
+                Clock.systemClock(), new InMemoryReplayDetector(1, TimeUnit.MINUTES)) {
+            @Override
+            protected String getPrincipal(final Credentials credentials) {
+                loadedOn.set(Thread.currentThread());
+                return API_KEY.equals(credentials.getApiKey()) ? PRINCIPAL : null;
+            }
+
+            @Override
+            protected ListenableFuture<String> getPrincipalAsync(final Credentials credentials) {
+                final ListenableFutureTask<String> task = ListenableFutureTask.create(new Callable<String>() {
+                    public String call() {
+                        return getPrincipal(credentials);
+                    }
+                });
+                loader.execute(task);
+                return task;
+            }
+
+            @Override
+            protected String getSecretKeyFromPrincipal(final String principal) {
+                return SECRET_KEY;
+            }
+        };
+
+        final ResourceConfig config = new ResourceConfig();
+        config.register(new HmacAuthFeature<String>(asyncAuthenticationFilter));
+        config.register(createBinder(authenticator, requestConfiguration));
+        config.register(Resource.class);
+        handler = new ApplicationHandler(config);
+    }
+
+    @Test
+    public final void verifySignedContentIsAuthenticatedOnTheRequestThread() throws Exception {
+        start(false);
+        final String timestamp = TimeUtils.getCurrentTimestamp();
+        assertEquals(200, post("/read", timestamp, "content", "content"));
+        assertEquals(Thread.currentThread(), loadedOn.get());
+        assertEquals(401, post("/read", timestamp, "content", "tampered"));
+    }
+
+    @Test
+    public final void verifyRequestsWithoutContentAreAuthenticatedAsynchronously() throws Exception {
+        start(new RequestConfiguration(), true);
+        assertEquals(200, get("/get"));
+        assertNotSame(Thread.currentThread(), loadedOn.get());
+    }
+
+    @Test
+    public final void verifyRequestsAreAuthenticatedWhenThePrincipalIsInjectedByDefault() throws Exception {
+        start(false);
+        assertEquals(200, get("/get"));
+        assertEquals(Thread.currentThread(), loadedOn.get());
+    }
+
+    @Test
+    public final void verifyStreamedContentIsVerified() throws Exception {
+        start(true);
+        final String timestamp = TimeUtils.getCurrentTimestamp();
+        assertEquals(200, post("/read", timestamp, "content", "content"));
+        assertEquals(401, post("/read", timestamp, "content", "tampered"));
+    }
+
+    @Test
+    public final void verifyStreamedContentIsVerifiedBeforeTheResourceIsCalled() throws Exception {
+        start(true);
+        final int before = handled.get();
+        assertEquals(401, post("/count", TimeUtils.getCurrentTimestamp(), "content", "tampered"));
+        assertEquals(401, post("/reversed", TimeUtils.getCurrentTimestamp(), "content", "tampered"));
+        assertEquals(before, handled.get());
+
+        assertEquals(200, post("/count", TimeUtils.getCurrentTimestamp(), "content", "content"));
+        assertEquals(200, post("/reversed", TimeUtils.getCurrentTimestamp(), "content", "content"));
+        assertEquals(before + 2, handled.get());
+    }
+
+    @Test
+    public final void verifyStreamedContentIsVerifiedWhenTheResourceReadsItToTheEnd() throws Exception {
+        start(true);
+        final int before = handled.get();
+        assertEquals(401, post("/stream", TimeUtils.getCurrentTimestamp(), "content", "tampered"));
+        assertEquals(before, handled.get());
+        assertEquals(200, post("/stream", TimeUtils.getCurrentTimestamp(), "content", "content"));
+    }
+
+    @Test
+    public final void verifyStreamedContentIsVerifiedWhenTheResourceDoesNotReadIt() throws Exception {
+        start(true);
+        final String timestamp = TimeUtils.getCurrentTimestamp();
+        assertEquals(200, post("/ignore", timestamp, "content", "content"));
+        assertEquals(401, post("/ignore", timestamp, "content", "tampered"));
+    }
+
+    @Test
+    public final void verifyStreamedContentIsCheckedForReplayWhenTheResourceDoesNotReadIt() throws Exception {
+        start(true);
+        final String timestamp = TimeUtils.getCurrentTimestamp();
+        assertEquals(200, post("/ignore", timestamp, "content", "content"));
+        assertEquals(401, post("/ignore", timestamp, "content", "content"));
+    }
+
+    @Test
+    public final void verifySpilledContentIsReleasedOnceTheRequestHasBeenHandledWithoutBeingRead() throws Exception {
+        start(RequestConfiguration.builder().withContentBufferThreshold(1024).build());
+        final String content = Strings.repeat("content ", 1000);
+        final int open = ContentBuffer.getOpenSpilledBuffers();
+
+        assertEquals(200, post("/ignore", TimeUtils.getCurrentTimestamp(), content, content));
+        assertEquals(open + 1, openWhileHandled);
+        assertEquals(open, ContentBuffer.getOpenSpilledBuffers());
+    }
+
+    @Test
+    public final void verifySpilledContentIsReleasedWhenTheRequestIsRejected() throws Exception {
+        start(RequestConfiguration.builder().withContentBufferThreshold(1024).build());
+        final String content = Strings.repeat("content ", 1000);
+        final String timestamp = TimeUtils.getCurrentTimestamp();
+        final int open = ContentBuffer.getOpenSpilledBuffers();
+
+        assertEquals(401, post("/ignore", timestamp, content, content + "tampered"));
+        assertEquals(open, ContentBuffer.getOpenSpilledBuffers());
+
+        assertEquals(200, post("/ignore", timestamp, content, content));
+        assertEquals(401, post("/ignore", timestamp, content, content));
+        assertEquals(open, ContentBuffer.getOpenSpilledBuffers());
+    }
+
+    private int post(final String path, final String timestamp, final String signedContent, final String sentContent)
+            throws Exception {
+        final ContainerRequest request = signedRequest("POST", path, timestamp, signedContent.getBytes("UTF-8"));
+        request.header("Content-Type", MediaType.TEXT_PLAIN);
+        request.setEntityStream(new ByteArrayInputStream(sentContent.getBytes("UTF-8")));
+        return handler.apply(request).get().getStatus();
+    }
+
+    private int get(final String path) throws Exception {
+        return handler.apply(signedRequest("GET", path, TimeUtils.getCurrentTimestamp(), null)).get().getStatus();
+    }
+
+    private ContainerRequest signedRequest(final String method, final String path, final String timestamp,
+                                           final byte[] content) {
+        final String pathAndQuery = path + "?apiKey=" + API_KEY;
+        final ContainerRequest request = new ContainerRequest(URI.create("http://localhost/"),
+                URI.create("http://localhost" + pathAndQuery), method, null, new MapPropertiesDelegate());
+        request.header("X-Auth-Timestamp", timestamp);
+        request.header("X-Auth-Version", "3");
+        request.header("X-Auth-Signature", new SignatureGenerator().generate(SECRET_KEY, method, timestamp,
+                pathAndQuery, content));
+        return request;
+    }
+
+    private static <P> Binder createBinder(final Authenticator<P> authenticator,
+                                           final RequestConfiguration requestConfiguration) {
+        return new AbstractBinder() {
+            @Override
+            protected void configure() {
+                bind(authenticator).to(new TypeLiteral<Authenticator<P>>() {});
+                bind(requestConfiguration).to(RequestConfiguration.class);
+            }
+        };
+    }
+
+}
@@ -2,7 +2,11 @@ package com.bazaarvoice.auth.hmac.server;
 
 import com.bazaarvoice.auth.hmac.common.Credentials;
 import com.bazaarvoice.auth.hmac.common.RequestConfiguration;
+import com.bazaarvoice.auth.hmac.common.SignatureGenerator;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.glassfish.jersey.internal.PropertiesDelegate;
 import org.glassfish.jersey.internal.util.collection.ImmutableMultivaluedMap;
 import org.glassfish.jersey.server.ContainerRequest;
@@ -11,10 +15,14 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import javax.inject.Provider;
 import javax.ws.rs.BadRequestException;
+import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.SecurityContext;
@@ -25,14 +33,21 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -214,4 +229,243 @@ public class PrincipalFactoryTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public final void verifyProvideVerifiesStreamedContent() throws URISyntaxException, IOException {
+        // given
+        final StreamingAuthenticator<String> streamingAuthenticator = mock(StreamingAuthenticator.class);
+        given(streamingAuthenticator.getApiKeyName()).willReturn(Authenticator.DEFAULT_API_KEY_PARAM);
+        factory = new PrincipalFactory<String>(streamingAuthenticator, requestProvider,
+                RequestConfiguration.builder().withStreamingContentVerification(true).build());
+
+        final MultivaluedMap<String, String> parameterMap = new MultivaluedHashMap<String, String>();
+        parameterMap.putSingle("apiKey", "validApiKey");
+
+        final URI uri = new URI("https://api.example.com/path/to/resource?apiKey=validApiKey");
+        final ExtendedUriInfo uriInfo = mock(ExtendedUriInfo.class);
+        given(uriInfo.getQueryParameters()).willReturn(parameterMap);
+        given(uriInfo.getRequestUri()).willReturn(uri);
+
+        final SignatureGenerator generator = new SignatureGenerator();
+        final String signature = generator.generate("secret", "PUT", "timestamp", "/path", "content".getBytes("UTF-8"));
+        final ContentVerifier<String> verifier = new ContentVerifier<String>("principal",
+                generator.builder("secret", "PUT", "timestamp", "/path"), signature);
+
+        given(request.getUriInfo()).willReturn(uriInfo);
+        given(request.getHeaderString("X-Auth-Version")).willReturn("3");
+        given(request.getHeaderString("X-Auth-Signature")).willReturn(signature);
+        given(request.getHeaderString("X-Auth-Timestamp")).willReturn("timestamp");
+        given(request.getMethod()).willReturn("PUT");
+        given(request.hasEntity()).willReturn(true);
+        given(request.getEntityStream()).willReturn(new ByteArrayInputStream("tampered".getBytes("UTF-8")));
+        given(streamingAuthenticator.beginAuthentication(any(Credentials.class))).willReturn(verifier);
+
+        // when
+        final String result = factory.provide();
+
+        // then
+        assertEquals("principal", result);
+        final ArgumentCaptor<InputStream> entityCaptor = ArgumentCaptor.forClass(InputStream.class);
+        verify(request).setEntityStream(entityCaptor.capture());
+        try {
+            ByteStreams.toByteArray(entityCaptor.getValue());
+            fail("Expected 401 status code");
+        } catch (final NotAuthorizedException nae) {
+        }
+    }
+
+    @Test
+    public final void verifyProvideRejectsDeclaredContentLengthOverLimit() throws URISyntaxException {
+        // given
+        factory = new PrincipalFactory<String>(authenticator, requestProvider,
+                RequestConfiguration.builder().withMaxSignedContentLength(4).build());
+        givenSignedRequest("PUT");
+        given(request.getHeaderString("Content-Length")).willReturn("7");
+        given(request.hasEntity()).willReturn(true);
+
+        // when
+        try {
+            factory.provide();
+
+            // then
+            fail("Expected 413 status code");
+        } catch (final WebApplicationException wae) {
+            assertEquals(413, wae.getResponse().getStatus());
+        }
+        verify(request, never()).getEntityStream();
+        verify(authenticator, never()).authenticate(any(Credentials.class));
+    }
+
+    @Test
+    public final void verifyProvideRejectsContentOverLimit() throws URISyntaxException, UnsupportedEncodingException {
+        // given
+        factory = new PrincipalFactory<String>(authenticator, requestProvider,
+                RequestConfiguration.builder().withMaxSignedContentLength(4).build());
+        givenSignedRequest("PUT");
+        given(request.hasEntity()).willReturn(true);
+        given(request.getEntityStream()).willReturn(new ByteArrayInputStream("content".getBytes("UTF-8")));
+        given(authenticator.authenticate(any(Credentials.class))).willAnswer(new Answer<String>() {
+            @Override
+            public String answer(final InvocationOnMock invocation) {
+                ((Credentials) invocation.getArguments()[0]).getContent();
+                return "principal";
+            }
+        });
+
+        // when
+        try {
+            factory.provide();
+
+            // then
+            fail("Expected 413 status code");
+        } catch (final WebApplicationException wae) {
+            assertEquals(413, wae.getResponse().getStatus());
+        }
+    }
+
+    @Test
+    public final void verifyProvideDoesNotReadContentOfRejectedRequest() throws URISyntaxException {
+        // given
+        givenSignedRequest("PUT");
+        given(request.hasEntity()).willReturn(true);
+        given(authenticator.authenticate(any(Credentials.class))).willReturn(null);
+
+        // when
+        try {
+            factory.provide();
+
+            // then
+            fail("Expected 401 status code");
+        } catch (final NotAuthorizedException nae) {
+        }
+        verify(request, never()).getEntityStream();
+    }
+
+    @Test
+    public final void verifyProvideAsyncWaitsForAsyncAuthenticator() throws Exception {
+        // given
+        final AsyncAuthenticator<String> asyncAuthenticator = mock(AsyncAuthenticator.class);
+        given(asyncAuthenticator.getApiKeyName()).willReturn(Authenticator.DEFAULT_API_KEY_PARAM);
+        factory = new PrincipalFactory<String>(asyncAuthenticator, requestProvider, new RequestConfiguration());
+        givenSignedRequest("GET");
+        final SettableFuture<String> principal = SettableFuture.create();
+        given(asyncAuthenticator.authenticateAsync(any(Credentials.class))).willReturn(principal);
+
+        // when
+        final ListenableFuture<? extends String> result = factory.provideAsync();
+
+        // then
+        assertFalse(result.isDone());
+        verify(request).setProperty(PrincipalFactory.PRINCIPAL_PROPERTY, result);
+        principal.set("principal");
+        assertEquals("principal", result.get());
+        verify(asyncAuthenticator, never()).authenticate(any(Credentials.class));
+    }
+
+    @Test
+    public final void verifyProvideUsesStartedAuthentication() throws Exception {
+        // given
+        given(request.getProperty(PrincipalFactory.PRINCIPAL_PROPERTY))
+                .willReturn(Futures.<String>immediateFailedFuture(new NotAuthorizedException("rejected")));
+
+        // when
+        try {
+            factory.provide();
+
+            // then
+            fail("Expected 401 status code");
+        } catch (final NotAuthorizedException nae) {
+        }
+        verify(request, never()).getUriInfo();
+    }
+
+    @Test
+    public final void verifyProvideAuthenticatesRequestOnce() throws URISyntaxException {
+        // given
+        givenRequestProperties();
+        givenSignedRequest("GET");
+        given(authenticator.authenticate(any(Credentials.class))).willReturn("principal");
+
+        // when
+        final String first = factory.provide();
+        final String second = factory.provide();
+
+        // then
+        assertEquals("principal", first);
+        assertEquals("principal", second);
+        verify(authenticator, times(1)).authenticate(any(Credentials.class));
+    }
+
+    @Test
+    public final void verifyProvideRejectsRequestOnce() throws URISyntaxException {
+        // given
+        givenRequestProperties();
+        givenSignedRequest("GET");
+        given(authenticator.authenticate(any(Credentials.class))).willReturn(null);
+
+        // when
+        for (int i = 0; i < 2; i++) {
+            try {
+                factory.provide();
+
+                // then
+                fail("Expected 401 status code");
+            } catch (final NotAuthorizedException nae) {
+            }
+        }
+        verify(authenticator, times(1)).authenticate(any(Credentials.class));
+    }
+
+    @Test
+    public final void verifyProvideFailsWithServerErrorWhenContentCannotBeRead() throws URISyntaxException {
+        // given
+        givenRequestProperties();
+        givenSignedRequest("PUT");
+        given(authenticator.authenticate(any(Credentials.class)))
+                .willThrow(new ContentReadException(new IOException("Connection reset")));
+
+        // when
+        for (int i = 0; i < 2; i++) {
+            try {
+                factory.provide();
+
+                // then
+                fail("Expected 500 status code");
+            } catch (final InternalServerErrorException isee) {
+                assertEquals("Connection reset", isee.getCause().getMessage());
+            }
+        }
+        verify(authenticator, times(1)).authenticate(any(Credentials.class));
+    }
+
+    private void givenRequestProperties() {
+        final Map<String, Object> properties = new HashMap<String, Object>();
+        willAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) {
+                return properties.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+            }
+        }).given(request).setProperty(anyString(), any());
+        given(request.getProperty(anyString())).willAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) {
+                return properties.get(invocation.getArguments()[0]);
+            }
+        });
+    }
+
+    private void givenSignedRequest(final String method) throws URISyntaxException {
+        final MultivaluedMap<String, String> parameterMap = new MultivaluedHashMap<String, String>();
+        parameterMap.putSingle("apiKey", "validApiKey");
+
+        final URI uri = new URI("https://api.example.com/path/to/resource?apiKey=validApiKey");
+        final ExtendedUriInfo uriInfo = mock(ExtendedUriInfo.class);
+        given(uriInfo.getQueryParameters()).willReturn(parameterMap);
+        given(uriInfo.getRequestUri()).willReturn(uri);
+
+        given(request.getUriInfo()).willReturn(uriInfo);
+        given(request.getHeaderString("X-Auth-Version")).willReturn("3");
+        given(request.getHeaderString("X-Auth-Signature")).willReturn("validSignature");
+        given(request.getHeaderString("X-Auth-Timestamp")).willReturn("two seconds ago");
+        given(request.getMethod()).willReturn(method);
+    }
+}